@@ -0,0 +1,82 @@
+/*
+ * BenchmarkRunner.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks with the JMH command line options. The allocation profiler
+ * ({@code -prof gc}) is always enabled so that the allocation rate of every phase is reported
+ * together with the time (see the {@code gc.alloc.rate.norm} results).
+ * <p>
+ * Usage: {@code java -jar benchmarks.jar [JMH options] [benchmark regexp]}, e.g.
+ * {@code java -jar benchmarks.jar Layout -p document=big-table}
+ *
+ * @author burgetr
+ */
+public class BenchmarkRunner
+{
+
+    public static void main(String[] args) throws RunnerException
+    {
+        final CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing the command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+                || cmd.shouldListResultFormats())
+        {
+            //let JMH print the requested information
+            try {
+                org.openjdk.jmh.Main.main(args);
+            } catch (Exception e) {
+                throw new RunnerException(e);
+            }
+            return;
+        }
+
+        final OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if (!hasGCProfiler(cmd))
+            builder.addProfiler(GCProfiler.class);
+        final Options opts = builder.build();
+        new Runner(opts).run();
+    }
+
+    private static boolean hasGCProfiler(Options opts)
+    {
+        for (ProfilerConfig prof : opts.getProfilers())
+        {
+            if (prof.getKlass().equals(GCProfiler.class.getName()) || prof.getKlass().equals("gc"))
+                return true;
+        }
+        return false;
+    }
+
+}
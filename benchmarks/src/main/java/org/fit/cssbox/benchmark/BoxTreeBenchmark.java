@@ -0,0 +1,52 @@
+/*
+ * BoxTreeBenchmark.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fit.cssbox.layout.Viewport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the box tree creation by {@link org.fit.cssbox.layout.BoxFactory#createViewportTree}
+ * for a document with computed styles. The referenced images are loaded during the box creation,
+ * only their headers are decoded.
+ *
+ * @author burgetr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BoxTreeBenchmark
+{
+
+    @Benchmark
+    public Viewport createViewportTree(CorpusDocument doc)
+    {
+        return doc.createViewportTree(doc.createVisualContext());
+    }
+
+}
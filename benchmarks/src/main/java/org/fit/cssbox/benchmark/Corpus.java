@@ -0,0 +1,97 @@
+/*
+ * Corpus.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The synthetic documents used by the benchmarks. The documents are stored as class path resources
+ * in the {@code corpus} directory. Since the benchmarks are run from a jar file, the documents and
+ * the images referenced by them are extracted to a temporary directory so that they are loaded
+ * through {@code file:} URLs like the local documents.
+ *
+ * @author burgetr
+ */
+public final class Corpus
+{
+    /** A long text with paragraphs and inline formatting */
+    public static final String LONG_TEXT = "long-text";
+    /** Deeply nested block and inline elements */
+    public static final String DEEP_NESTING = "deep-nesting";
+    /** A large table with 400 rows */
+    public static final String BIG_TABLE = "big-table";
+    /** Many left and right floating blocks with the text flowing around */
+    public static final String MANY_FLOATS = "many-floats";
+    /** Many content, background and list item images */
+    public static final String MANY_IMAGES = "many-images";
+
+    private static final String[] DOCUMENTS = { LONG_TEXT, DEEP_NESTING, BIG_TABLE, MANY_FLOATS, MANY_IMAGES };
+    private static final int IMAGE_COUNT = 24;
+
+    private static Path root;
+
+
+    private Corpus()
+    {
+    }
+
+    /**
+     * Obtains the URL of a corpus document.
+     * @param name the document name (one of the constants defined in this class)
+     * @return the {@code file:} URL of the extracted document
+     * @throws IOException when the corpus could not be extracted
+     */
+    public static synchronized URL getDocument(String name) throws IOException
+    {
+        if (root == null)
+            root = extract();
+        final Path file = root.resolve(name + ".html");
+        if (!Files.exists(file))
+            throw new IllegalArgumentException("Unknown corpus document: " + name);
+        return file.toUri().toURL();
+    }
+
+    private static Path extract() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("cssbox-corpus");
+        Files.createDirectory(dir.resolve("img"));
+        for (String name : DOCUMENTS)
+            copy(name + ".html", dir);
+        for (int i = 0; i < IMAGE_COUNT; i++)
+            copy(String.format("img/image-%02d.png", i), dir);
+        return dir;
+    }
+
+    private static void copy(String path, Path dir) throws IOException
+    {
+        try (InputStream is = Corpus.class.getResourceAsStream("/corpus/" + path))
+        {
+            if (is == null)
+                throw new IOException("Missing corpus resource: " + path);
+            final Path target = dir.resolve(path);
+            Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+            target.toFile().deleteOnExit();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * CorpusDocument.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fit.cssbox.awt.GraphicsVisualContext;
+import org.fit.cssbox.css.CSSNorm;
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DefaultDOMSource;
+import org.fit.cssbox.io.DefaultDocumentSource;
+import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.layout.BoxFactory;
+import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.cssbox.layout.Viewport;
+import org.fit.cssbox.layout.VisualContext;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import cz.vutbr.web.css.MediaSpec;
+import cz.vutbr.web.css.StyleSheet;
+
+/**
+ * The benchmark state that represents a single corpus document. It provides the operations that
+ * prepare the input of the individual rendering phases so that every benchmark measures a single phase
+ * only. The resources are loaded sequentially (without the I/O executor) and without an image cache
+ * in order to obtain stable results.
+ *
+ * @author burgetr
+ */
+@State(Scope.Benchmark)
+public class CorpusDocument
+{
+    /** The canvas width used for the layout */
+    public static final int WIDTH = 1200;
+    /** The canvas height used for the layout */
+    public static final int HEIGHT = 800;
+
+    @Param({ Corpus.LONG_TEXT, Corpus.DEEP_NESTING, Corpus.BIG_TABLE, Corpus.MANY_FLOATS, Corpus.MANY_IMAGES })
+    public String document;
+
+    private URL url;
+    private List<StyleSheet> agentStyleSheets;
+    private BrowserConfig config;
+    private Document dom;
+    private DOMAnalyzer analyzer;
+    private BufferedImage canvas;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        url = Corpus.getDocument(document);
+        agentStyleSheets = new ArrayList<>(3);
+        for (String css : new String[] { CSSNorm.stdStyleSheet(), CSSNorm.userStyleSheet(), CSSNorm.formsStyleSheet() })
+            agentStyleSheets.add(DOMAnalyzer.parseStyleSheet(null, css, DOMAnalyzer.Origin.AGENT));
+        config = new BrowserConfig();
+        config.setIOExecutor(null);
+        dom = parse();
+        analyzer = createAnalyzer(dom);
+        canvas = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    public URL getURL()
+    {
+        return url;
+    }
+
+    public BrowserConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * Obtains the DOM created during the setup. The HTML presentation attributes have been already
+     * converted to the inline styles.
+     * @return the document
+     */
+    public Document getDocument()
+    {
+        return dom;
+    }
+
+    /**
+     * Obtains the analyzer created for the document during the setup. The style sheets have been
+     * already loaded and the styles have been computed.
+     * @return the analyzer
+     */
+    public DOMAnalyzer getAnalyzer()
+    {
+        return analyzer;
+    }
+
+    /**
+     * Parses the document source.
+     * @return the new DOM
+     */
+    public Document parse() throws IOException, SAXException
+    {
+        try (DocumentSource src = new DefaultDocumentSource(url))
+        {
+            final DOMSource parser = new DefaultDOMSource(src);
+            return parser.parse();
+        }
+    }
+
+    /**
+     * Creates an analyzer for the given document, loads the style sheets and computes the styles.
+     * @param doc the document that is modified by converting the presentation attributes
+     * @return the analyzer
+     */
+    public DOMAnalyzer createAnalyzer(Document doc)
+    {
+        final DOMAnalyzer da = new DOMAnalyzer(doc, url);
+        final MediaSpec media = new MediaSpec("screen");
+        media.setDimensions(WIDTH, HEIGHT);
+        media.setDeviceDimensions(WIDTH, HEIGHT);
+        da.setMediaSpec(media);
+        da.attributesToStyles();
+        for (StyleSheet sheet : agentStyleSheets)
+            da.addStyleSheet(sheet);
+        da.getStyleSheets();
+        da.getElementStyleInherited(da.getRoot());
+        return da;
+    }
+
+    /**
+     * Creates a visual context that draws to a canvas image shared by all the contexts.
+     * @return the visual context
+     */
+    public VisualContext createVisualContext()
+    {
+        final Graphics2D g = canvas.createGraphics();
+        return new GraphicsVisualContext(g, null, config, analyzer.getFontTable());
+    }
+
+    /**
+     * Creates the box tree for the analyzed document.
+     * @param ctx the visual context to be used
+     * @return the viewport box
+     */
+    public Viewport createViewportTree(VisualContext ctx)
+    {
+        final BoxFactory factory = new BoxFactory(analyzer, url);
+        factory.setConfig(config);
+        factory.reset();
+        return factory.createViewportTree(analyzer.getRoot(), ctx, WIDTH, HEIGHT);
+    }
+
+}
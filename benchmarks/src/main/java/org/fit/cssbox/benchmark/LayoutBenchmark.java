@@ -0,0 +1,71 @@
+/*
+ * LayoutBenchmark.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fit.cssbox.layout.Viewport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the layout computation by {@link Viewport#doLayout(float, boolean, boolean)}. The layout
+ * modifies the box tree (e.g. by splitting the text boxes to lines), therefore a new initialized
+ * box tree is created before every invocation. This is acceptable because a single layout takes
+ * milliseconds at least.
+ *
+ * @author burgetr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LayoutBenchmark
+{
+
+    @State(Scope.Thread)
+    public static class BoxTree
+    {
+        public Viewport viewport;
+
+        @Setup(Level.Invocation)
+        public void create(CorpusDocument doc)
+        {
+            viewport = doc.createViewportTree(doc.createVisualContext());
+            viewport.initSubtree();
+        }
+    }
+
+    @Benchmark
+    public Viewport doLayout(BoxTree tree)
+    {
+        tree.viewport.doLayout(CorpusDocument.WIDTH, true, true);
+        return tree.viewport;
+    }
+
+}
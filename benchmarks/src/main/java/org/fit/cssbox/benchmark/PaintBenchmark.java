@@ -0,0 +1,78 @@
+/*
+ * PaintBenchmark.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.fit.cssbox.awt.GraphicsEngine;
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.layout.Dimension;
+import org.fit.cssbox.layout.Rectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures painting the complete layout by {@link GraphicsEngine}. The layout is computed once
+ * during the setup and it is repeatedly drawn to the same image. The deferred images are decoded
+ * during the first painting (i.e. during the warmup).
+ *
+ * @author burgetr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark
+{
+
+    @State(Scope.Thread)
+    public static class Layout
+    {
+        public GraphicsEngine engine;
+
+        @Setup(Level.Trial)
+        public void create(CorpusDocument doc)
+        {
+            final DOMAnalyzer da = doc.getAnalyzer();
+            engine = new GraphicsEngine(da.getRoot(), da, doc.getURL());
+            engine.setConfig(doc.getConfig());
+            engine.setAutoMediaUpdate(false);
+            final Dimension dim = new Dimension(CorpusDocument.WIDTH, CorpusDocument.HEIGHT);
+            engine.createLayout(dim, new Rectangle(dim), false);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage paint(Layout layout)
+    {
+        layout.engine.redrawBoxes();
+        return layout.engine.getImage();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * StyleBenchmark.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.vutbr.web.css.NodeData;
+
+/**
+ * Measures the style computation by {@link DOMAnalyzer}: matching the selectors of the loaded
+ * style sheets to all the elements and computing the inherited styles. The style sheets are loaded
+ * and parsed during the setup.
+ *
+ * @author burgetr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StyleBenchmark
+{
+
+    @Benchmark
+    public NodeData computeStyles(CorpusDocument doc)
+    {
+        final DOMAnalyzer da = doc.getAnalyzer();
+        da.recomputeStyles();
+        return da.getElementStyleInherited(da.getRoot());
+    }
+
+}
@@ -21,10 +21,11 @@ package org.fit.cssbox.awt;
 
 import java.awt.Graphics2D;
 import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
 import java.awt.RadialGradientPaint;
+import java.awt.RenderingHints;
 import java.awt.MultipleGradientPaint.ColorSpaceType;
 import java.awt.MultipleGradientPaint.CycleMethod;
-import java.awt.Paint;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -51,27 +52,101 @@ public class BackgroundBitmap extends ElementBackground
 {
     private BufferedImage bgimage;
     private Graphics2D g;
+    private RasterCache rasterCache;
+    /** The position of the bitmap within the complete element background */
+    private int originX;
+    private int originY;
+    /** The area where the image tiles are drawn relative to the background bounds */
+    private Rectangle tileClip;
     
     
+    /**
+     * Creates a new background bitmap that uses the shared raster cache.
+     * @param owner the element whose background is created
+     */
     public BackgroundBitmap(ElementBox owner)
+    {
+        this(owner, RasterCache.getSharedInstance());
+    }
+    
+    /**
+     * Creates a new background bitmap.
+     * @param owner the element whose background is created
+     * @param rasterCache the cache used for the scaled images and gradient tiles or {@code null}
+     * when the rasters should be always created from scratch
+     */
+    public BackgroundBitmap(ElementBox owner, RasterCache rasterCache)
+    {
+        this(owner, rasterCache, null);
+    }
+    
+    /**
+     * Creates a new background bitmap that covers only a part of the element background. This avoids
+     * allocating a bitmap for the whole element when only a part of it is visible (e.g. when rendering
+     * in strips).
+     * @param owner the element whose background is created
+     * @param rasterCache the cache used for the scaled images and gradient tiles or {@code null}
+     * when the rasters should be always created from scratch
+     * @param area the part of the background to be created relative to the element border bounds
+     * or {@code null} for the whole background
+     */
+    public BackgroundBitmap(ElementBox owner, RasterCache rasterCache, Rectangle area)
     {
         super(owner);
+        this.rasterCache = rasterCache;
+        tileClip = getClipped();
         if (!isZeroSize())
         {
-            bgimage = new BufferedImage(Math.round(getBounds().width), Math.round(getBounds().height), BufferedImage.TYPE_INT_ARGB);
-            g = bgimage.createGraphics();
+            final int width = Math.round(getBounds().width);
+            final int height = Math.round(getBounds().height);
+            int x1 = 0, y1 = 0, x2 = width, y2 = height;
+            if (area != null)
+            {
+                x1 = limit((int) Math.floor(area.x), width);
+                y1 = limit((int) Math.floor(area.y), height);
+                x2 = limit((int) Math.ceil(area.x + area.width), width);
+                y2 = limit((int) Math.ceil(area.y + area.height), height);
+            }
+            if (x2 > x1 && y2 > y1)
+            {
+                originX = x1;
+                originY = y1;
+                bgimage = new BufferedImage(x2 - x1, y2 - y1, BufferedImage.TYPE_INT_ARGB);
+                g = bgimage.createGraphics();
+                g.translate(-x1, -y1);
+                if (area != null)
+                    tileClip = tileClip.intersection(new Rectangle(x1, y1, x2 - x1, y2 - y1));
+            }
         }
     }
     
     /**
-     * Returns a bitmap containing the entire element background.
-     * @return
+     * Returns a bitmap containing the element background or the requested part of it.
+     * @return the bitmap or {@code null} when there is nothing to draw
      */
     public BufferedImage getBufferedImage()
     {
         return bgimage;
     }
     
+    /**
+     * Returns the X coordinate of the bitmap origin relative to the element border bounds.
+     * @return the X offset in pixels
+     */
+    public int getOriginX()
+    {
+        return originX;
+    }
+    
+    /**
+     * Returns the Y coordinate of the bitmap origin relative to the element border bounds.
+     * @return the Y offset in pixels
+     */
+    public int getOriginY()
+    {
+        return originY;
+    }
+    
     /**
      * Adds a new image to the background based on its CSS properties.
      * @param img the image to add
@@ -82,11 +157,21 @@ public class BackgroundBitmap extends ElementBackground
         {
             if (img.getImage() instanceof BitmapImage)
             {
+                final BitmapImage bitmap = (BitmapImage) img.getImage();
                 Rectangle pos = computeTargetImagePosition(img);
-                BufferedImage image = ((BitmapImage) img.getImage()).getBufferedImage();
-                float origw = img.getIntrinsicWidth();
-                float origh = img.getIntrinsicHeight();
-                applyImage(image, pos, origw, origh, img.isRepeatX(), img.isRepeatY());
+                BufferedImage image = bitmap.getBufferedImage(Math.round(pos.width), Math.round(pos.height));
+                if (image != null) //null when a lazily loaded image could not be decoded
+                {
+                    float origw = img.getIntrinsicWidth();
+                    float origh = img.getIntrinsicHeight();
+                    if (image.getWidth() != Math.round(bitmap.getWidth()) || image.getHeight() != Math.round(bitmap.getHeight()))
+                    {
+                        //a subsampled raster
+                        origw = image.getWidth();
+                        origh = image.getHeight();
+                    }
+                    applyImage(image, pos, origw, origh, img.isRepeatX(), img.isRepeatY());
+                }
             }
         }
     }
@@ -119,15 +204,25 @@ public class BackgroundBitmap extends ElementBackground
      * @param p the paint to be applied
      * @param img the gradient image to be drawn
      */
-    private void addsGradientUsingPaint(Paint p, BackgroundImageGradient img)
+    private void addsGradientUsingPaint(MultipleGradientPaint p, BackgroundImageGradient img)
     {
         Rectangle pos = computeTargetImagePosition(img);
-        BufferedImage gradImg =
-                new BufferedImage(Math.round(pos.getWidth()), Math.round(pos.getHeight()), BufferedImage.TYPE_INT_ARGB_PRE);
-        Graphics2D g = gradImg.createGraphics();
-        g.setPaint(p);
-        g.fill(new Rectangle2D.Float(0, 0, pos.width, pos.height));
-        applyImage(gradImg, pos, pos.width, pos.height, img.isRepeatX(), img.isRepeatY());
+        final int w = Math.round(pos.getWidth());
+        final int h = Math.round(pos.getHeight());
+        if (w > 0 && h > 0)
+        {
+            BufferedImage gradImg;
+            if (rasterCache != null)
+                gradImg = rasterCache.getGradientTile(p, w, h);
+            else
+            {
+                gradImg = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D g = gradImg.createGraphics();
+                g.setPaint(p);
+                g.fill(new Rectangle2D.Float(0, 0, pos.width, pos.height));
+            }
+            applyImage(gradImg, pos, pos.width, pos.height, img.isRepeatX(), img.isRepeatY());
+        }
     }
 
     /**
@@ -144,8 +239,27 @@ public class BackgroundBitmap extends ElementBackground
             boolean repeatX, boolean repeatY)
     {
         BackgroundRepeater rep = new BackgroundRepeater();
-        rep.repeatImage(getBounds(), pos, getClipped(), repeatX, repeatY,
-                (x, y) -> drawScaledImage(g, image, x, y, pos.width, pos.height, origw, origh, null));
+        final int w = Math.round(pos.width);
+        final int h = Math.round(pos.height);
+        if (rasterCache != null && w > 0 && h > 0 && rasterCache.isCacheable(w, h))
+        {
+            //scale the image only once for all the tiles
+            final BufferedImage scaled = rasterCache.getScaledImage(image, w, h,
+                    g.getRenderingHint(RenderingHints.KEY_INTERPOLATION));
+            rep.repeatImage(getBounds(), pos, tileClip, repeatX, repeatY,
+                    (x, y) -> drawScaledImage(g, scaled, x, y, pos.width, pos.height, w, h, null));
+        }
+        else
+        {
+            //too large for the cache: scale the image directly for every tile
+            rep.repeatImage(getBounds(), pos, tileClip, repeatX, repeatY,
+                    (x, y) -> drawScaledImage(g, image, x, y, pos.width, pos.height, origw, origh, null));
+        }
+    }
+    
+    private static int limit(int value, int max)
+    {
+        return Math.max(0, Math.min(value, max));
     }
     
     private void drawScaledImage(Graphics2D g, BufferedImage image,
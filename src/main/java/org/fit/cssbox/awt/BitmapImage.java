@@ -53,6 +53,19 @@ public class BitmapImage implements ContentImage
         return bufferedImage;
     }
 
+    /**
+     * Obtains the image to be drawn in the given target size (in device pixels). The returned image
+     * may have a lower resolution than the source image when it is sufficient for the target size;
+     * it is never smaller than the target size. The default implementation returns the complete image.
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @return the image or {@code null} when not available
+     */
+    public BufferedImage getBufferedImage(int targetWidth, int targetHeight)
+    {
+        return getBufferedImage();
+    }
+
     @Override
     public float getWidth()
     {
@@ -0,0 +1,294 @@
+/*
+ * GlyphCache.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.Point2D;
+import java.text.Bidi;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.fit.cssbox.layout.TextBox;
+import org.fit.cssbox.misc.Coords;
+
+import cz.vutbr.web.css.CSSProperty;
+
+/**
+ * A cache of the prepared text runs of the individual text boxes. For each text box, it keeps
+ * a glyph vector with the glyphs already placed to their final positions (including the word
+ * spacing and justification) and the positions of the text decoration lines, so that the text
+ * box may be painted with a single draw call on every redraw.
+ *
+ * The boxes are referenced weakly so the cache does not prevent discarding the box trees.
+ * The cache is intended to be used by a single engine and it is not thread-safe.
+ *
+ * @author burgetr
+ */
+public class GlyphCache
+{
+    private Map<TextBox, TextRun> runs;
+
+
+    public GlyphCache()
+    {
+        runs = new WeakHashMap<>();
+    }
+
+    /**
+     * Obtains the prepared text run for the given text box. The run is created when it does not exist
+     * yet or when the existing one does not correspond to the current font, text, width or rendering context.
+     * @param tb the text box
+     * @param font the font used for drawing the text
+     * @param frc the font rendering context of the target graphics
+     * @return the text run or {@code null} when the text cannot be painted using glyph vectors
+     * (e.g. bidirectional text that requires a complete text layout)
+     */
+    public TextRun getTextRun(TextBox tb, Font font, FontRenderContext frc)
+    {
+        final String text = tb.getText();
+        final float width = tb.getWidth();
+        TextRun run = runs.get(tb);
+        if (run == null || !run.matches(font, text, frc, width))
+        {
+            run = createTextRun(tb, font, frc, text, width);
+            runs.put(tb, run);
+        }
+        return run.isValid() ? run : null;
+    }
+
+    /**
+     * Removes all the cached runs.
+     */
+    public void clear()
+    {
+        runs.clear();
+    }
+
+    //=========================================================================
+
+    private TextRun createTextRun(TextBox tb, Font font, FontRenderContext frc, String text, float width)
+    {
+        final char[] chars = text.toCharArray();
+        if (Bidi.requiresBidi(chars, 0, chars.length))
+            return new TextRun(font, text, frc, width); //invalid run, use the complete text layout
+
+        final GlyphVector gv = font.layoutGlyphVector(frc, chars, 0, chars.length, Font.LAYOUT_LEFT_TO_RIGHT);
+        float[] decoStarts;
+        float[] decoWidths;
+        if (tb.getWordSpacing() == null && Coords.eq(tb.getExtraWidth(), 0))
+        {
+            //the whole text is drawn at once
+            decoStarts = new float[] { 0 };
+            decoWidths = new float[] { (float) gv.getLogicalBounds().getWidth() };
+        }
+        else
+        {
+            //the words are placed individually
+            final String[] words = text.split(" ");
+            if (words.length > 0)
+            {
+                final float[][] offsets = tb.getWordOffsets(words);
+                placeWords(gv, text, words, offsets);
+                decoStarts = new float[words.length];
+                decoWidths = new float[words.length];
+                for (int i = 0; i < words.length; i++)
+                {
+                    decoStarts[i] = offsets[i][0];
+                    decoWidths[i] = words[i].isEmpty() ? 0 : offsets[i][1];
+                }
+            }
+            else
+            {
+                decoStarts = new float[] { 0 };
+                decoWidths = new float[] { (float) gv.getLogicalBounds().getWidth() };
+            }
+        }
+
+        final Set<CSSProperty.TextDecoration> decoration = tb.getEfficientTextDecoration();
+        final boolean underline = decoration.contains(CSSProperty.TextDecoration.UNDERLINE);
+        final boolean strike = decoration.contains(CSSProperty.TextDecoration.LINE_THROUGH);
+        final LineMetrics lm = (underline || strike) ? font.getLineMetrics(chars, 0, chars.length, frc) : null;
+
+        return new TextRun(font, text, frc, width, gv, decoStarts, decoWidths, underline, strike, lm);
+    }
+
+    /**
+     * Moves the glyphs of the individual words to the given word offsets.
+     */
+    private void placeWords(GlyphVector gv, String text, String[] words, float[][] offsets)
+    {
+        //the word index for each character (the words are separated by single spaces)
+        final int[] wordIndex = new int[text.length()];
+        final int[] wordStart = new int[words.length];
+        int wi = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (text.charAt(i) == ' ')
+            {
+                wordIndex[i] = -1;
+                wi++;
+                if (wi < words.length)
+                    wordStart[wi] = i + 1;
+            }
+            else
+                wordIndex[i] = wi;
+        }
+        //natural positions of the word starts
+        final float[] natural = new float[words.length];
+        final boolean[] found = new boolean[words.length];
+        final int cnt = gv.getNumGlyphs();
+        for (int i = 0; i < cnt; i++)
+        {
+            final int ci = gv.getGlyphCharIndex(i);
+            if (ci >= 0 && ci < wordIndex.length)
+            {
+                final int w = wordIndex[ci];
+                if (w >= 0 && w < words.length && ci == wordStart[w] && !found[w])
+                {
+                    natural[w] = (float) gv.getGlyphPosition(i).getX();
+                    found[w] = true;
+                }
+            }
+        }
+        //shift the glyphs
+        final Point2D pos = new Point2D.Float();
+        for (int i = 0; i < cnt; i++)
+        {
+            final int ci = gv.getGlyphCharIndex(i);
+            if (ci >= 0 && ci < wordIndex.length)
+            {
+                final int w = wordIndex[ci];
+                if (w >= 0 && w < words.length && found[w])
+                {
+                    final Point2D gp = gv.getGlyphPosition(i);
+                    pos.setLocation(gp.getX() - natural[w] + offsets[w][0], gp.getY());
+                    gv.setGlyphPosition(i, pos);
+                }
+            }
+        }
+    }
+
+    //=========================================================================
+
+    /**
+     * A prepared text run of a single text box.
+     */
+    public static class TextRun
+    {
+        private final Font font;
+        private final String text;
+        private final FontRenderContext frc;
+        private final float width;
+        private final GlyphVector glyphs;
+        private final float[] decoStarts;
+        private final float[] decoWidths;
+        private final boolean underline;
+        private final boolean strikethrough;
+        private final LineMetrics lineMetrics;
+
+        /** Creates an invalid run that cannot be painted using glyph vectors */
+        private TextRun(Font font, String text, FontRenderContext frc, float width)
+        {
+            this(font, text, frc, width, null, null, null, false, false, null);
+        }
+
+        private TextRun(Font font, String text, FontRenderContext frc, float width, GlyphVector glyphs,
+                float[] decoStarts, float[] decoWidths, boolean underline, boolean strikethrough,
+                LineMetrics lineMetrics)
+        {
+            this.font = font;
+            this.text = text;
+            this.frc = frc;
+            this.width = width;
+            this.glyphs = glyphs;
+            this.decoStarts = decoStarts;
+            this.decoWidths = decoWidths;
+            this.underline = underline;
+            this.strikethrough = strikethrough;
+            this.lineMetrics = lineMetrics;
+        }
+
+        private boolean matches(Font font, String text, FontRenderContext frc, float width)
+        {
+            return this.width == width && this.font.equals(font) && this.text.equals(text) && this.frc.equals(frc);
+        }
+
+        public boolean isValid()
+        {
+            return glyphs != null;
+        }
+
+        /**
+         * Obtains the glyph vector with all the glyphs placed relatively to the box origin
+         * and the baseline.
+         * @return the glyph vector
+         */
+        public GlyphVector getGlyphs()
+        {
+            return glyphs;
+        }
+
+        /**
+         * Obtains the number of the decorated segments (words or the whole text).
+         */
+        public int getSegmentCount()
+        {
+            return decoStarts.length;
+        }
+
+        /**
+         * Obtains the X offset of the given decorated segment relatively to the box origin.
+         */
+        public float getSegmentStart(int index)
+        {
+            return decoStarts[index];
+        }
+
+        /**
+         * Obtains the width of the given decorated segment.
+         */
+        public float getSegmentWidth(int index)
+        {
+            return decoWidths[index];
+        }
+
+        public boolean isUnderline()
+        {
+            return underline;
+        }
+
+        public boolean isStrikethrough()
+        {
+            return strikethrough;
+        }
+
+        /**
+         * Obtains the line metrics used for placing the decorations.
+         * @return the line metrics or {@code null} when there are no decorations
+         */
+        public LineMetrics getLineMetrics()
+        {
+            return lineMetrics;
+        }
+    }
+
+}
@@ -23,6 +23,8 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.font.TextAttribute;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 
 import org.fit.cssbox.css.DOMAnalyzer;
@@ -47,10 +49,37 @@ public class GraphicsEngine extends Engine
     private BufferedImage img;
     private Graphics2D ig;
     
+    /** Maximal strip height for strip rendering or 0 when the whole page is rendered at once */
+    private int stripHeight = 0;
+    /** The total output page size */
+    private int pageWidth;
+    private int pageHeight;
+    
+    /** Prepared text runs shared by all the renderers used for the current layout */
+    private GlyphCache glyphCache = new GlyphCache();
+    
     boolean useFractionalMetrics = false;
     boolean useKerning = true;
 
     
+    /**
+     * A target that receives the individual strips of the page rendered by
+     * {@link GraphicsEngine#renderStrips(StripTarget)}.
+     */
+    public static interface StripTarget
+    {
+        /**
+         * Processes a single rendered strip. The strip image is re-used for the subsequent
+         * strips, so it must not be kept after this method returns.
+         * @param strip the image containing the rendered strip in its top {@code height} rows
+         * @param y the Y coordinate of the strip top edge within the page
+         * @param height the number of valid image rows in the strip
+         * @throws IOException
+         */
+        void stripRendered(BufferedImage strip, int y, int height) throws IOException;
+    }
+
+    
     /** 
      * Creates a new instance of the browser engine for a document. After creating the engine,
      * the layout itself may be computed by calling {@link #createLayout(Dimension)}.
@@ -110,6 +139,29 @@ public class GraphicsEngine extends Engine
         createImage = false;
     }
 
+    /**
+     * Obtains the maximal strip height used for strip rendering.
+     * @return the strip height or 0 when the strip rendering is not used.
+     */
+    public int getStripHeight()
+    {
+        return stripHeight;
+    }
+
+    /**
+     * Switches the engine to the strip rendering mode. In this mode, the engine does not allocate
+     * an image for the whole page. Instead, {@link #getImage()} only holds a single strip and the page
+     * must be rendered gradually using {@link #renderStrips(StripTarget)} or {@link #writePNG(OutputStream)}
+     * after the layout has been created. This keeps the memory usage proportional to the strip size
+     * for very tall pages. The page is not rendered automatically when the layout is created.
+     * This must be configured before the layout is created.
+     * @param stripHeight the maximal strip height in pixels or 0 for rendering the whole page at once (default)
+     */
+    public void setStripHeight(int stripHeight)
+    {
+        this.stripHeight = Math.max(stripHeight, 0);
+    }
+
     /**
      * Tests if fractional metrics are used by this engine.
      * @return {@code true} when yes
@@ -166,9 +218,12 @@ public class GraphicsEngine extends Engine
     @Override
     protected void initOutputMedia(float width, float height)
     {
+        pageWidth = (int) width;
+        pageHeight = (int) height;
         if (createImage)
         {
-            img = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_RGB);
+            final int imgHeight = (stripHeight > 0) ? Math.min(pageHeight, stripHeight) : pageHeight;
+            img = new BufferedImage(pageWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
             ig = img.createGraphics();
             setupGraphics(ig);
         }
@@ -186,18 +241,84 @@ public class GraphicsEngine extends Engine
     @Override
     public BoxRenderer getRenderer()
     {
-        return new GraphicsRenderer(ig);
+        GraphicsRenderer r = new GraphicsRenderer(ig);
+        r.setGlyphCache(glyphCache);
+        return r;
     }
 
     @Override
     protected void renderViewport(Viewport viewport)
     {
-        // adds clearCanvas before rendering
-        GraphicsRenderer r = (GraphicsRenderer) getRenderer();
-        r.init(viewport);
-        r.clearCanvas();
-        viewport.draw(r);
-        r.close();
+        if (stripHeight == 0) //in the strip mode, the rendering is invoked by renderStrips()
+        {
+            // adds clearCanvas before rendering
+            GraphicsRenderer r = (GraphicsRenderer) getRenderer();
+            r.init(viewport);
+            r.clearCanvas();
+            viewport.draw(r);
+            r.close();
+        }
+    }
+    
+    /**
+     * Renders the whole page in horizontal strips using the existing layout. Each strip is rendered
+     * to the same image of the configured strip height (see {@link #setStripHeight(int)}) and passed
+     * to the target before the next strip is rendered. When the strip rendering is not configured,
+     * the whole page is rendered as a single strip. When the engine image is not available or it is
+     * too small for a strip (e.g. a custom image set by {@link #setImage(BufferedImage)}), the strips
+     * are rendered to a temporary image instead.
+     * @param target the target that receives the rendered strips
+     * @throws IOException when the target fails to process a strip
+     */
+    public void renderStrips(StripTarget target) throws IOException
+    {
+        final Viewport viewport = getViewport();
+        if (viewport == null)
+            throw new IllegalStateException("The layout must be created before rendering");
+        final int sh = (stripHeight > 0) ? stripHeight : pageHeight;
+        final BufferedImage strip = getStripImage(Math.min(sh, pageHeight));
+        for (int y = 0; y < pageHeight; y += sh)
+        {
+            final int h = Math.min(sh, pageHeight - y);
+            final Graphics2D g = strip.createGraphics();
+            setupGraphics(g);
+            g.setClip(0, 0, pageWidth, h);
+            g.translate(0, -y);
+            GraphicsRenderer r = new GraphicsRenderer(g);
+            r.setGlyphCache(glyphCache);
+            r.init(viewport);
+            r.clearCanvas();
+            viewport.draw(r);
+            r.close();
+            g.dispose();
+            target.stripRendered(strip, y, h);
+        }
+    }
+    
+    /**
+     * Obtains the image used for rendering the strips of the given height. The engine image is used
+     * when it is large enough, otherwise a new image is created.
+     */
+    private BufferedImage getStripImage(int height)
+    {
+        if (img != null && img.getWidth() == pageWidth && img.getHeight() >= height)
+            return img;
+        else
+            return new BufferedImage(Math.max(pageWidth, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+    }
+    
+    /**
+     * Renders the whole page and writes it to the output stream in the PNG format. When the strip
+     * rendering is configured (see {@link #setStripHeight(int)}), the image rows are streamed to
+     * the output as the individual strips are rendered.
+     * @param out the output stream. It is not closed after the image is written.
+     * @throws IOException
+     */
+    public void writePNG(OutputStream out) throws IOException
+    {
+        try (PNGStreamWriter writer = new PNGStreamWriter(out, pageWidth, pageHeight)) {
+            renderStrips((strip, y, height) -> writer.writeRows(strip, height));
+        }
     }
     
 }
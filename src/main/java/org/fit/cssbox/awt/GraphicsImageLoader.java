@@ -19,29 +19,50 @@
  */
 package org.fit.cssbox.awt;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.fit.cssbox.io.ContentObserver;
+import org.fit.cssbox.io.DataURLDocumentSource;
 import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.jfr.ResourceFetchEvent;
 import org.fit.cssbox.layout.ContentImage;
 import org.fit.cssbox.layout.ImageCache;
 import org.fit.cssbox.layout.ImageLoader;
 import org.fit.cssbox.layout.VisualContext;
+import org.fit.cssbox.misc.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * An image loader that creates the ContentImage instances that are usable
  * in GraphicsRenderer. It is based on ImageIO toolkit and produces
- * the BitmapImage instances for bitmap images.
+ * the BitmapImage instances for bitmap images. When the deferred image decoding
+ * is enabled in the configuration, the LazyBitmapImage instances are produced.
+ * The encoded data of the images fetched from their sources is buffered in memory
+ * (and kept by the LazyBitmapImage instances); the images contained in data: URLs are
+ * decoded directly from the URL instead.
+ * The prefetched images are loaded using the I/O executor from the configuration.
  * 
  * @author burgetr
  */
@@ -49,12 +70,22 @@ public class GraphicsImageLoader implements ImageLoader
 {
     protected static final Logger log = LoggerFactory.getLogger(GraphicsImageLoader.class);
     
+    /** The number of the initial bytes used for detecting the image format */
+    private static final int FORMAT_HEADER_LENGTH = 12;
+    
+    /** Concurrent loads of the same image into the same cache share a single fetch and decoding */
+    private static final SingleFlight<LoadKey, ContentImage> cachedLoads = new SingleFlight<>();
+    
     private VisualContext ctx;
     
+    /** Images being loaded in the background, keyed by the URL string (URL.equals() may resolve the host names) */
+    private final ConcurrentMap<String, CompletableFuture<ContentImage>> prefetched;
+    
     
     public GraphicsImageLoader(VisualContext ctx)
     {
         this.ctx = ctx;
+        this.prefetched = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -62,26 +93,8 @@ public class GraphicsImageLoader implements ImageLoader
     {
         if (url != null)
         {
-            ContentImage img;
-            ImageCache imageCache = ctx.getConfig().getImageCache();
-            if (imageCache != null)
-            {
-                // get image and cache
-                img = imageCache.get(url);
-                if (img == null && !imageCache.hasFailed(url))
-                {
-                    img = loadImageFromSource(url);
-                    if (img != null)
-                        imageCache.put(url, img);
-                    else
-                        imageCache.putFailed(url);
-                }
-            }
-            else
-            {
-                // do not cache, just get image
-                img = loadImageFromSource(url);
-            }
+            final CompletableFuture<ContentImage> pending = prefetched.get(url.toExternalForm());
+            final ContentImage img = (pending != null) ? waitForImage(url, pending) : fetchImage(url);
             // observer need to know that resource with this url will be absent.
             // Even if we only check that url has failed earlier.
             if (img == null)
@@ -92,7 +105,101 @@ public class GraphicsImageLoader implements ImageLoader
     }
     
     /**
-     * Loads the image from the given source URL.
+     * Waits for a prefetched image at most for the image load timeout from the configuration.
+     * When the timeout expires, the image is treated as failed and it is not waited for again.
+     * 
+     * @param url the image URL
+     * @param pending the prefetched image
+     * @return the content image or {@code null} when the image could not be loaded in time
+     */
+    private ContentImage waitForImage(URL url, CompletableFuture<ContentImage> pending)
+    {
+        try {
+            return pending.get(ctx.getConfig().getImageLoadTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Image load timeout expired: {}", url);
+            prefetched.replace(url.toExternalForm(), pending, CompletableFuture.completedFuture(null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Unable to get image from: " + url, e.getCause());
+        }
+        return null;
+    }
+    
+    /**
+     * Starts loading the image using the I/O executor from the browser configuration. When no executor
+     * is configured, the image is loaded later by {@link #loadImage(URL)}.
+     */
+    @Override
+    public void prefetchImage(URL url)
+    {
+        final Executor executor = ctx.getConfig().getIOExecutor();
+        if (url != null && executor != null)
+        {
+            final String key = url.toExternalForm();
+            final CompletableFuture<ContentImage> future = new CompletableFuture<>();
+            if (prefetched.putIfAbsent(key, future) == null)
+            {
+                try {
+                    executor.execute(() -> {
+                        try {
+                            future.complete(fetchImage(url));
+                        } catch (Throwable e) {
+                            log.error("Unable to get image from: " + url, e);
+                            future.complete(null);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future.complete(fetchImage(url)); //executor shut down, load it now
+                }
+            }
+        }
+    }
+    
+    /**
+     * Obtains the image from the cache or loads it from the source when not cached.
+     * 
+     * @param url the source URL
+     * @return the content image or {@code null} when the image could not be loaded
+     */
+    protected ContentImage fetchImage(URL url)
+    {
+        ContentImage img;
+        ImageCache imageCache = ctx.getConfig().getImageCache();
+        if (imageCache != null)
+        {
+            // get image and cache
+            img = imageCache.get(url);
+            if (img == null && !imageCache.hasFailed(url))
+            {
+                // concurrent requests for the same URL wait for a single load
+                img = cachedLoads.execute(new LoadKey(imageCache, url), () -> {
+                    ContentImage loaded = imageCache.get(url);
+                    if (loaded == null && !imageCache.hasFailed(url))
+                    {
+                        loaded = loadImageFromSource(url);
+                        if (loaded != null)
+                            imageCache.put(url, loaded);
+                        else
+                            imageCache.putFailed(url);
+                    }
+                    return loaded;
+                });
+            }
+        }
+        else
+        {
+            // do not cache, just get image
+            img = loadImageFromSource(url);
+        }
+        return img;
+    }
+    
+    /**
+     * Loads the image from the given source URL. When the deferred decoding is enabled in the
+     * browser configuration, only the image header is decoded and a {@link LazyBitmapImage} is
+     * returned. Otherwise, the image is decoded completely.
      * 
      * @param url the source URL
      * @return the content image or {@code null} when the image could not be loaded or decoded
@@ -100,46 +207,291 @@ public class GraphicsImageLoader implements ImageLoader
     public ContentImage loadImageFromSource(URL url)
     {
         ContentImage ret = null;
+        final ResourceFetchEvent event = new ResourceFetchEvent();
+        event.begin();
+        boolean fetched = false;
         try (DocumentSource imgsrc = ctx.getConfig().createDocumentSource(url))
         {
-            InputStream urlStream = imgsrc.getInputStream();
-            ImageInputStream imageInputStream = ImageIO.createImageInputStream(urlStream);
-            try
+            if (DataURLDocumentSource.isDataURL(url))
+            {
+                event.end();
+                event.commit(url, ResourceFetchEvent.IMAGE, imgsrc.getContentType(), -1, true);
+                fetched = true;
+                return loadDataImage(url, imgsrc);
+            }
+            final byte[] data = imgsrc.getInputStream().readAllBytes();
+            event.end();
+            event.commit(url, ResourceFetchEvent.IMAGE, imgsrc.getContentType(), data.length, true);
+            fetched = true;
+            final String format = ImageReaderPool.detectFormat(data, imgsrc.getContentType());
+            if (ctx.getConfig().getDeferImageDecoding())
             {
-                Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
-                if (!imageReaders.hasNext())
+                final Dimension size = readImageSize(data, format, url);
+                if (size != null)
+                    ret = new LazyBitmapImage(url, data, format, size.width, size.height);
+            }
+            else
+            {
+                final BufferedImage image = decodeImage(data, format, url, 1);
+                if (image != null)
+                    ret = new BitmapImage(url, image);
+            }
+            if (ret != null && ctx.getMetrics() != null)
+                ctx.getMetrics().addImageLoaded(data.length);
+        } catch (IOException e) {
+            log.error("Unable to get image from: " + url);
+            log.error(e.getMessage());
+            if (!fetched)
+            {
+                event.end();
+                event.commit(url, ResourceFetchEvent.IMAGE, null, -1, false);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Loads an image contained in a data: URL. The data is not buffered; it is decoded directly
+     * from the URL and the deferred images decode it again from the URL when the pixels are needed.
+     * 
+     * @param url the data: URL
+     * @param imgsrc the document source opened for the URL
+     * @return the content image or {@code null} when the image could not be decoded
+     * @throws IOException
+     */
+    private ContentImage loadDataImage(URL url, DocumentSource imgsrc) throws IOException
+    {
+        ContentImage ret = null;
+        final InputStream in = new BufferedInputStream(imgsrc.getInputStream());
+        in.mark(FORMAT_HEADER_LENGTH);
+        final byte[] header = in.readNBytes(FORMAT_HEADER_LENGTH);
+        in.reset();
+        final String format = ImageReaderPool.detectFormat(header, imgsrc.getContentType());
+        if (ctx.getConfig().getDeferImageDecoding())
+        {
+            final Dimension size = readImageSize(in, format, url);
+            if (size != null)
+                ret = new LazyBitmapImage(url, format, size.width, size.height);
+        }
+        else
+        {
+            final BufferedImage image = decodeImage(in, format, url, 1);
+            if (image != null)
+                ret = new BitmapImage(url, image);
+        }
+        if (ret != null && ctx.getMetrics() != null)
+            ctx.getMetrics().addImageLoaded(0); //nothing has been fetched
+        return ret;
+    }
+    
+    /**
+     * Decodes an image contained in a data: URL.
+     * 
+     * @param url the data: URL
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param subsampling the subsampling factor (1 for decoding the complete image)
+     * @return the decoded image or {@code null} when the data could not be decoded
+     */
+    public static BufferedImage decodeDataURL(URL url, String format, int subsampling)
+    {
+        try (DocumentSource src = new DataURLDocumentSource(url))
+        {
+            return decodeImage(src.getInputStream(), format, url, subsampling);
+        } catch (IOException e) {
+            log.error("Unable to decode image from a data URL: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Decodes an image from the encoded data.
+     * 
+     * @param data the encoded image data
+     * @param url the image URL used for reporting the errors
+     * @return the decoded image or {@code null} when the data could not be decoded
+     */
+    public static BufferedImage decodeImage(byte[] data, URL url)
+    {
+        return decodeImage(data, ImageReaderPool.detectFormat(data, null), url, 1);
+    }
+    
+    /**
+     * Decodes an image from the encoded data using the given subsampling. Only every n-th pixel
+     * of every n-th row is decoded which reduces both the decoding time and the size
+     * of the resulting raster.
+     * 
+     * @param data the encoded image data
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param url the image URL used for reporting the errors
+     * @param subsampling the subsampling factor (1 for decoding the complete image)
+     * @return the decoded image or {@code null} when the data could not be decoded
+     */
+    public static BufferedImage decodeImage(byte[] data, String format, URL url, int subsampling)
+    {
+        return readImage(new ByteArrayInputStream(data), format, url, subsamplingTask(subsampling));
+    }
+    
+    /**
+     * Decodes an image from a stream using the given subsampling. The stream is read only as far
+     * as necessary for decoding the image; it is not closed.
+     * 
+     * @param in the stream of the encoded image data
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param url the image URL used for reporting the errors
+     * @param subsampling the subsampling factor (1 for decoding the complete image)
+     * @return the decoded image or {@code null} when the data could not be decoded
+     */
+    public static BufferedImage decodeImage(InputStream in, String format, URL url, int subsampling)
+    {
+        return readImage(in, format, url, subsamplingTask(subsampling));
+    }
+    
+    private static ReaderTask<BufferedImage> subsamplingTask(int subsampling)
+    {
+        return reader -> {
+            if (subsampling > 1)
+            {
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            }
+            else
+                return reader.read(0);
+        };
+    }
+    
+    /**
+     * Obtains the image size from the image header without decoding the pixels.
+     * 
+     * @param data the encoded image data
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param url the image URL used for reporting the errors
+     * @return the image size or {@code null} when the format is not recognized
+     */
+    public static Dimension readImageSize(byte[] data, String format, URL url)
+    {
+        return readImageSize(new ByteArrayInputStream(data), format, url);
+    }
+    
+    /**
+     * Obtains the image size from the image header read from a stream. Only the header
+     * is read from the stream; the stream is not closed.
+     * 
+     * @param in the stream of the encoded image data
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param url the image URL used for reporting the errors
+     * @return the image size or {@code null} when the format is not recognized
+     */
+    public static Dimension readImageSize(InputStream in, String format, URL url)
+    {
+        return readImage(in, format, url, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
+    
+    /**
+     * Reads the image data using a reader. When the format is known, a pooled reader for the format
+     * is used. Otherwise, or when the reader fails, all the registered readers that accept the data
+     * are tried.
+     */
+    private static <T> T readImage(InputStream in, String format, URL url, ReaderTask<T> task)
+    {
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(in))
+        {
+            return readImage(imageInputStream, format, url, task);
+        } catch (IOException e) {
+            log.error("Image decoding error: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static <T> T readImage(ImageInputStream imageInputStream, String format, URL url, ReaderTask<T> task)
+    {
+        Class<?> failedReader = null;
+        if (format != null)
+        {
+            final ImageReader reader = ImageReaderPool.acquire(format);
+            if (reader != null)
+            {
+                try
                 {
-                    log.warn("No image readers for URL: " + url);
+                    reader.setInput(imageInputStream);
+                    final T ret = task.run(reader);
+                    if (ret != null)
+                        return ret;
+                } catch (Exception e) {
+                    log.error("Image decoding error: " + e.getMessage() + " with reader " + reader);
+                    failedReader = reader.getClass();
+                } finally {
+                    ImageReaderPool.release(format, reader);
                 }
-                else
+            }
+        }
+        // the format is not known or the reader has failed: probe all the readers
+        try
+        {
+            imageInputStream.seek(0);
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+            if (!imageReaders.hasNext())
+                log.warn("No image readers for URL: " + url);
+            while (imageReaders.hasNext())
+            {
+                ImageReader currentImageReader = imageReaders.next();
+                try
                 {
-                    BufferedImage image = null;
-                    do
+                    if (currentImageReader.getClass() != failedReader)
                     {
-                        ImageReader currentImageReader = imageReaders.next();
+                        imageInputStream.seek(0);
                         currentImageReader.setInput(imageInputStream);
-
-                        try
-                        {
-                            image = currentImageReader.read(0);
-                        } catch (Exception e) {
-                            log.error("Image decoding error: " + e.getMessage() + " with reader " + currentImageReader);
-                        } finally {
-                            currentImageReader.dispose();
-                        }
+                        final T ret = task.run(currentImageReader);
+                        if (ret != null)
+                            return ret;
                     }
-                    while (image == null && imageReaders.hasNext());
-                    if (image != null)
-                        ret = new BitmapImage(url, image);
+                } catch (Exception e) {
+                    log.error("Image decoding error: " + e.getMessage() + " with reader " + currentImageReader);
+                } finally {
+                    currentImageReader.dispose();
                 }
-            } catch (Exception e) {
-                log.error("Image decoding error: " + e.getMessage());
             }
-        } catch (IOException e) {
-            log.error("Unable to get image from: " + url);
-            log.error(e.getMessage());
+        } catch (Exception e) {
+            log.error("Image decoding error: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    private interface ReaderTask<T>
+    {
+        T run(ImageReader reader) throws IOException;
+    }
+    
+    /**
+     * A key of a coalesced image load. The loads are only shared by the engines that use the same
+     * image cache (compared by identity); the engines with different caches may use different
+     * document sources for the same URL.
+     */
+    private static class LoadKey
+    {
+        private final ImageCache cache;
+        private final String url; //URL.equals() may resolve the host names
+        
+        public LoadKey(ImageCache cache, URL url)
+        {
+            this.cache = cache;
+            this.url = url.toExternalForm();
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(cache) * 31 + url.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof LoadKey))
+                return false;
+            final LoadKey other = (LoadKey) obj;
+            return other.cache == cache && other.url.equals(url);
         }
-        return ret;
     }
     
     private void observeLoadFailed(URL url)
@@ -23,16 +23,19 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
+import java.awt.font.LineMetrics;
 import java.awt.font.TextAttribute;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.text.AttributedString;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Set;
 
 import org.fit.cssbox.css.BackgroundDecoder;
@@ -70,8 +73,14 @@ public class GraphicsRenderer extends StructuredRenderer
     /** the used graphic context */
     protected Graphics2D g;
 
-    /** applied transformations */
-    protected Map<ElementBox, AffineTransform> savedTransforms;
+    /** the original transformations saved before applying the element transformations */
+    protected Deque<AffineTransform> savedTransforms;
+    
+    /** cache of the scaled background images and gradients */
+    protected RasterCache rasterCache;
+    
+    /** cache of the prepared text runs */
+    protected GlyphCache glyphCache;
     
     /**
      * Constructs a renderer using the given graphics contexts.
@@ -80,7 +89,47 @@ public class GraphicsRenderer extends StructuredRenderer
     public GraphicsRenderer(Graphics2D g)
     {
         this.g = g;
-        savedTransforms = new HashMap<ElementBox, AffineTransform>();
+        savedTransforms = new ArrayDeque<>();
+        rasterCache = RasterCache.getSharedInstance();
+        glyphCache = new GlyphCache();
+    }
+    
+    /**
+     * Obtains the cache used for the scaled background images and pre-rendered gradients.
+     * @return the raster cache or {@code null} when no cache is used
+     */
+    public RasterCache getRasterCache()
+    {
+        return rasterCache;
+    }
+
+    /**
+     * Sets the cache used for the scaled background images and pre-rendered gradients.
+     * By default, a shared cache is used by all the renderers.
+     * @param rasterCache the new raster cache or {@code null} for disabling the caching
+     */
+    public void setRasterCache(RasterCache rasterCache)
+    {
+        this.rasterCache = rasterCache;
+    }
+    
+    /**
+     * Obtains the cache used for the prepared text runs.
+     * @return the glyph cache or {@code null} when no cache is used
+     */
+    public GlyphCache getGlyphCache()
+    {
+        return glyphCache;
+    }
+
+    /**
+     * Sets the cache used for the prepared text runs. Sharing the cache among the renderers
+     * used for repeated rendering of the same layout avoids re-creating the glyph vectors.
+     * @param glyphCache the new glyph cache or {@code null} for drawing the strings directly
+     */
+    public void setGlyphCache(GlyphCache glyphCache)
+    {
+        this.glyphCache = glyphCache;
     }
     
     /**
@@ -110,17 +159,16 @@ public class GraphicsRenderer extends StructuredRenderer
         AffineTransform at = Transform.createTransform(elem);
         if (at != null)
         {
-            savedTransforms.put(elem, g.getTransform());
+            savedTransforms.push(g.getTransform());
             g.transform(at);
         }
     }
 
     public void finishElementContents(ElementBox elem)
     {
-        //restore the stransformations
-        AffineTransform origAt = savedTransforms.get(elem);
-        if (origAt != null)
-            g.setTransform(origAt);
+        //restore the stransformations (the start/finish calls are always properly nested)
+        if (elem.getTransformMatrix() != null && !savedTransforms.isEmpty())
+            g.setTransform(savedTransforms.pop());
     }
     
     public void renderElementBackground(ElementBox elem)
@@ -196,6 +244,9 @@ public class GraphicsRenderer extends StructuredRenderer
      */
     protected void drawBackground(ElementBox elem, Graphics2D g)
     {
+        if (!(elem instanceof Viewport) && !isInClip(g, elem.getClippedBounds(), 1))
+            return; //nothing to draw in the current clipping area (e.g. when rendering in strips)
+        
         Color color = g.getColor(); //original color
         Shape oldclip = setupBoxClip(g, elem); //original clip region
         setupGraphics(g, (GraphicsVisualContext) elem.getVisualContext());
@@ -218,7 +269,11 @@ public class GraphicsRenderer extends StructuredRenderer
             //draw the background images
             if (bg.getBackgroundImages() != null)
             {
-                final BackgroundBitmap bitmap = new BackgroundBitmap(elem);
+                //create only the part of the background that may be visible in the clipping area
+                final java.awt.Rectangle clip = g.getClipBounds();
+                final Rectangle area = (clip == null) ? null
+                        : new Rectangle(clip.x - Math.round(brd.x), clip.y - Math.round(brd.y), clip.width, clip.height);
+                final BackgroundBitmap bitmap = new BackgroundBitmap(elem, rasterCache, area);
                 for (int i = bg.getBackgroundImages().size() - 1; i >= 0; i--)
                 {
                     BackgroundImage img = bg.getBackgroundImages().get(i);
@@ -233,7 +288,8 @@ public class GraphicsRenderer extends StructuredRenderer
                 }
                 if (bitmap.getBufferedImage() != null)
                 {
-                    g.drawImage(bitmap.getBufferedImage(), Math.round(brd.x), Math.round(brd.y), null);
+                    g.drawImage(bitmap.getBufferedImage(),
+                            Math.round(brd.x) + bitmap.getOriginX(), Math.round(brd.y) + bitmap.getOriginY(), null);
                 }
             }
         }
@@ -337,11 +393,12 @@ public class GraphicsRenderer extends StructuredRenderer
         ContentImage img = elem.getMarkerImage().getImage();
         if (img != null)
         {
-            if (img instanceof BitmapImage)
+            final BufferedImage bimg = (img instanceof BitmapImage) ? ((BitmapImage) img).getBufferedImage() : null;
+            if (bimg != null)
             {
                 float w = img.getWidth();
                 float h = img.getHeight();
-                g.drawImage(((BitmapImage) img).getBufferedImage(), Math.round(x - w), Math.round(y - h), null);
+                g.drawImage(bimg, Math.round(x - w), Math.round(y - h), null);
                 return true;
             }
             else
@@ -390,12 +447,17 @@ public class GraphicsRenderer extends StructuredRenderer
 
         //Draw the string
         String t = tb.getText();
-        if (!t.isEmpty())
+        if (!t.isEmpty() && isInClip(g, tb.getAbsoluteBounds(), tb.getVisualContext().getEm()))
         {
             Shape oldclip = setupBoxClip(g, tb);
-            setupGraphics(g, (GraphicsVisualContext) tb.getVisualContext());
+            final GraphicsVisualContext ctx = (GraphicsVisualContext) tb.getVisualContext();
+            setupGraphics(g, ctx);
             
-            if (tb.getWordSpacing() == null && Coords.eq(tb.getExtraWidth(), 0))
+            final GlyphCache.TextRun run = (glyphCache == null) ? null
+                    : glyphCache.getTextRun(tb, ctx.getFont(), g.getFontRenderContext());
+            if (run != null)
+                drawTextRun(run, g, x, y + tb.getBaselineOffset());
+            else if (tb.getWordSpacing() == null && Coords.eq(tb.getExtraWidth(), 0))
                 drawAttributedString(tb, g, x, y, t);
             else
                 drawByWords(tb, g, x, y, t);
@@ -404,6 +466,42 @@ public class GraphicsRenderer extends StructuredRenderer
         }
     }
 
+    /**
+     * Draws a prepared text run including its decorations.
+     * @param run the text run to be drawn
+     * @param g the graphics context to draw on
+     * @param x the X coordinate of the text start
+     * @param y the Y coordinate of the text baseline
+     */
+    protected void drawTextRun(GlyphCache.TextRun run, Graphics2D g, float x, float y)
+    {
+        g.drawGlyphVector(run.getGlyphs(), x, y);
+        if (run.isUnderline() || run.isStrikethrough())
+        {
+            final LineMetrics lm = run.getLineMetrics();
+            for (int i = 0; i < run.getSegmentCount(); i++)
+            {
+                final float sx = x + run.getSegmentStart(i);
+                final float sw = run.getSegmentWidth(i);
+                if (sw > 0)
+                {
+                    if (run.isUnderline())
+                        drawDecorationLine(g, sx, y + lm.getUnderlineOffset(), sw, lm.getUnderlineThickness());
+                    if (run.isStrikethrough())
+                        drawDecorationLine(g, sx, y + lm.getStrikethroughOffset(), sw, lm.getStrikethroughThickness());
+                }
+            }
+        }
+    }
+    
+    private void drawDecorationLine(Graphics2D g, float x, float y, float width, float thickness)
+    {
+        final Stroke oldstroke = g.getStroke();
+        g.setStroke(new BasicStroke(Math.max(thickness, 1.0f), BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER));
+        g.draw(new Line2D.Float(x, y, x + width, y));
+        g.setStroke(oldstroke);
+    }
+    
     private void drawByWords(TextBox tb, Graphics2D g, float x, float y, String text)
     {
         String[] words = text.split(" ");
@@ -470,7 +568,14 @@ public class GraphicsRenderer extends StructuredRenderer
     {
         Rectangle bounds = img.getOwner().getAbsoluteContentBounds();
 
-        if (img.getImage() != null && img.getImage() instanceof BitmapImage)
+        // the target size in device pixels
+        final AffineTransform gtr = g.getTransform();
+        final int targetWidth = (int) Math.ceil(bounds.width * Math.hypot(gtr.getScaleX(), gtr.getShearY()));
+        final int targetHeight = (int) Math.ceil(bounds.height * Math.hypot(gtr.getShearX(), gtr.getScaleY()));
+        // the pixels of lazily loaded images are decoded here (possibly subsampled for the target size)
+        final BitmapImage bitmap = (img.getImage() instanceof BitmapImage) ? (BitmapImage) img.getImage() : null;
+        final BufferedImage bimg = (bitmap != null) ? bitmap.getBufferedImage(targetWidth, targetHeight) : null;
+        if (bimg != null)
         {
             // update our configuration
             setupGraphics(g, (GraphicsVisualContext) img.getVisualContext());
@@ -478,8 +583,25 @@ public class GraphicsRenderer extends StructuredRenderer
             // draw image of the given size and position
             final AffineTransform tr = new AffineTransform();
             tr.translate(bounds.x, bounds.y);
-            tr.scale(bounds.width / img.getIntrinsicWidth(), bounds.height / img.getIntrinsicHeight());
-            g.drawImage(((BitmapImage) img.getImage()).getBufferedImage(), tr, null);
+            if (bimg.getWidth() == Math.round(bitmap.getWidth()) && bimg.getHeight() == Math.round(bitmap.getHeight()))
+            {
+                tr.scale(bounds.width / img.getIntrinsicWidth(), bounds.height / img.getIntrinsicHeight());
+                g.drawImage(bimg, tr, null);
+            }
+            else if (rasterCache != null && (gtr.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0
+                    && rasterCache.isCacheable(targetWidth, targetHeight))
+            {
+                // a reduced raster: scale it once to the target size and reuse the result
+                final BufferedImage scaled = rasterCache.getScaledImage(bimg, targetWidth, targetHeight,
+                        g.getRenderingHint(RenderingHints.KEY_INTERPOLATION));
+                tr.scale(bounds.width / targetWidth, bounds.height / targetHeight);
+                g.drawImage(scaled, tr, null);
+            }
+            else
+            {
+                tr.scale(bounds.width / bimg.getWidth(), bounds.height / bimg.getHeight());
+                g.drawImage(bimg, tr, null);
+            }
         }
         else
         {
@@ -549,6 +671,23 @@ public class GraphicsRenderer extends StructuredRenderer
         return oldclip;
     }
     
+    /**
+     * Checks whether the given rectangle may intersect the current clipping area of the graphics.
+     * This allows to skip drawing of the boxes that would not be visible anyway.
+     * @param g the graphics to be checked
+     * @param rect the rectangle in user coordinates
+     * @param margin an additional margin around the rectangle that may be painted as well (e.g. glyph overhangs)
+     * @return {@code true} when the rectangle may be visible or there is no clipping area set
+     */
+    protected boolean isInClip(Graphics2D g, Rectangle rect, float margin)
+    {
+        if (g.getClip() == null)
+            return true;
+        final int m = (int) Math.ceil(margin);
+        return g.hitClip((int) Math.floor(rect.x) - m, (int) Math.floor(rect.y) - m,
+                         (int) Math.ceil(rect.width) + 2 * m + 1, (int) Math.ceil(rect.height) + 2 * m + 1);
+    }
+    
     /**
      * Converts a CSSBox LengthRect to an AWT Rectangle2D for drawing.
      * @param rect the rectangle to be converted
@@ -31,7 +31,9 @@ import java.awt.font.TextLayout;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.fit.cssbox.css.CSSUnits;
@@ -39,10 +41,12 @@ import org.fit.cssbox.css.FontDecoder;
 import org.fit.cssbox.css.FontSpec;
 import org.fit.cssbox.css.FontTable;
 import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.jfr.ResourceFetchEvent;
 import org.fit.cssbox.layout.BrowserConfig;
 import org.fit.cssbox.layout.FontInfo;
 import org.fit.cssbox.layout.ImageLoader;
 import org.fit.cssbox.layout.VisualContext;
+import org.fit.cssbox.misc.SingleFlight;
 import org.fit.net.DataURLHandler;
 
 import cz.vutbr.web.css.CSSProperty;
@@ -56,6 +60,13 @@ import cz.vutbr.web.css.TermURI;
  */
 public class GraphicsVisualContext extends VisualContext
 {
+    /** Concurrent loads of the same external font share a single download and registration */
+    private static final SingleFlight<String, String> fontLoads = new SingleFlight<>();
+    /** Serializes the font registrations in the (global) graphics environment */
+    private static final Object fontRegistrationLock = new Object();
+    /** Available font families (the lower-case names mapped to the exact ones) shared by all the contexts */
+    private static volatile Map<String, String> fontFamilies;
+    
     private Graphics2D g;
     private Font font; //current font
     private FontMetrics fm; //current font metrics
@@ -103,6 +114,7 @@ public class GraphicsVisualContext extends VisualContext
         {
             font = ((GraphicsVisualContext) src).font;
             defaultFontAttributes = ((GraphicsVisualContext) src).defaultFontAttributes;
+            imageLoader = src.getImageLoader(); //share the loader and the images prefetched by it
             ex = src.getEx();
             ch = src.getCh();
         }
@@ -260,13 +272,37 @@ public class GraphicsVisualContext extends VisualContext
     @Override
     protected String fontAvailable(String family, boolean isBold, boolean isItalic)
     {
-        final String avail[] = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
-        for (int i = 0; i < avail.length; i++)
+        return getFontFamilies().get(family.toLowerCase(Locale.ROOT));
+    }
+    
+    /**
+     * Obtains the index of the available font families. The index is created on first use and shared
+     * by all the visual contexts; obtaining the family names from the graphics environment is quite
+     * expensive.
+     * @return the map of the lower-case family names to the exact family names
+     */
+    protected static Map<String, String> getFontFamilies()
+    {
+        Map<String, String> ret = fontFamilies;
+        if (ret == null)
         {
-            if (avail[i].equalsIgnoreCase(family))
-                return avail[i];
+            final String avail[] = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+            ret = new HashMap<>(avail.length * 2);
+            for (String name : avail)
+                ret.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
+            ret = Collections.unmodifiableMap(ret);
+            fontFamilies = ret;
         }
-        return null;
+        return ret;
+    }
+    
+    /**
+     * Discards the index of available font families. This must be called when a new font has been
+     * registered in the graphics environment outside of CSSBox.
+     */
+    public static void refreshFontFamilies()
+    {
+        fontFamilies = null;
     }
     
     @Override
@@ -302,23 +338,41 @@ public class GraphicsVisualContext extends VisualContext
         String nameFound = null;
         if (format == null || FontDecoder.supportedFormats.contains(format))
         {
-            URL url = DataURLHandler.createURL(urlstring.getBase(), urlstring.getValue());
+            final URL url = DataURLHandler.createURL(urlstring.getBase(), urlstring.getValue());
             String regName = FontDecoder.findRegisteredFont(url);
             if (regName == null)
             {
-                DocumentSource imgsrc = getViewport().getConfig().createDocumentSource(url);
-                Font newFont;
-                try {
-                    newFont = FontDecoder.decodeFont(imgsrc, format);
-                } catch (FontFormatException e) {
-                    throw new IOException(e);
-                }
-                if (GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(newFont))
-                    log.debug("Registered font: {}", newFont.getFontName());
-                else
-                    log.debug("Failed to register font: {} (not fatal, probably already existing)", newFont.getFontName());
-                regName = newFont.getFontName();
-                FontDecoder.registerFont(url, regName);
+                // concurrent requests for the same font wait for a single download and registration
+                regName = fontLoads.execute(url.toExternalForm(), () -> {
+                    String name = FontDecoder.findRegisteredFont(url);
+                    if (name == null)
+                    {
+                        Font newFont = null;
+                        String contentType = null;
+                        final ResourceFetchEvent event = new ResourceFetchEvent();
+                        event.begin();
+                        try (DocumentSource fontsrc = getViewport().getConfig().createDocumentSource(url)) {
+                            contentType = fontsrc.getContentType();
+                            newFont = FontDecoder.decodeFont(fontsrc, format);
+                        } catch (FontFormatException e) {
+                            throw new IOException(e);
+                        } finally {
+                            event.end();
+                            event.commit(url, ResourceFetchEvent.FONT, contentType, -1, newFont != null); //the font is decoded from the stream, the size is not known
+                        }
+                        synchronized (fontRegistrationLock)
+                        {
+                            if (GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(newFont))
+                                log.debug("Registered font: {}", newFont.getFontName());
+                            else
+                                log.debug("Failed to register font: {} (not fatal, probably already existing)", newFont.getFontName());
+                            refreshFontFamilies();
+                        }
+                        name = newFont.getFontName();
+                        FontDecoder.registerFont(url, name);
+                    }
+                    return name;
+                });
             }
             nameFound = regName;
         }
@@ -0,0 +1,170 @@
+/*
+ * ImageReaderPool.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+/**
+ * Selects the image readers directly based on the image format detected from the leading bytes
+ * of the image data (or the content type) instead of letting all the registered reader providers
+ * probe the data. The idle readers are pooled per format and they are reused for the subsequent
+ * images of the same format by any thread. The pool is shared by all the threads (instead of being
+ * thread-local) because the images are usually loaded by short-lived (possibly virtual) threads.
+ * The number of idle readers kept for each format is limited by {@link #MAX_IDLE_READERS}.
+ *
+ * A reader obtained using {@link #acquire(String)} must be used by a single thread at a time
+ * and returned using {@link #release(String, ImageReader)} when done.
+ *
+ * @author burgetr
+ */
+public class ImageReaderPool
+{
+    /** The maximal number of idle readers kept for a single format */
+    public static final int MAX_IDLE_READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** The idle readers by format names */
+    private static final Map<String, Queue<ImageReader>> readers = new ConcurrentHashMap<>();
+
+    /** The formats with no available reader */
+    private static final Map<String, Boolean> unsupported = new ConcurrentHashMap<>();
+
+
+    private ImageReaderPool()
+    {
+    }
+
+    /**
+     * Detects the image format from the leading bytes of the image data. When the data is not
+     * recognized, the content type is used.
+     * @param data the image data (at least the first 12 bytes)
+     * @param contentType the content type of the image or {@code null} when not known
+     * @return the ImageIO format name ({@code png}, {@code jpeg}, {@code gif}, {@code webp} or {@code bmp})
+     * or {@code null} when the format could not be detected
+     */
+    public static String detectFormat(byte[] data, String contentType)
+    {
+        if (startsWith(data, 0x89, 'P', 'N', 'G'))
+            return "png";
+        else if (startsWith(data, 0xff, 0xd8, 0xff))
+            return "jpeg";
+        else if (startsWith(data, 'G', 'I', 'F', '8'))
+            return "gif";
+        else if (startsWith(data, 'R', 'I', 'F', 'F') && data.length >= 12
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P')
+            return "webp";
+        else if (startsWith(data, 'B', 'M'))
+            return "bmp";
+        else if (contentType != null)
+        {
+            String type = contentType.toLowerCase(Locale.ROOT);
+            final int semi = type.indexOf(';');
+            if (semi != -1)
+                type = type.substring(0, semi);
+            switch (type.trim())
+            {
+                case "image/png":
+                    return "png";
+                case "image/jpeg":
+                case "image/jpg":
+                case "image/pjpeg":
+                    return "jpeg";
+                case "image/gif":
+                    return "gif";
+                case "image/webp":
+                    return "webp";
+                case "image/bmp":
+                case "image/x-ms-bmp":
+                    return "bmp";
+                default:
+                    return null;
+            }
+        }
+        else
+            return null;
+    }
+
+    /**
+     * Obtains a reader for the given format. An idle reader is reused when available.
+     * @param format the ImageIO format name
+     * @return the reader or {@code null} when there is no reader available for the format
+     */
+    public static ImageReader acquire(String format)
+    {
+        final Queue<ImageReader> idle = readers.get(format);
+        ImageReader ret = (idle == null) ? null : idle.poll();
+        if (ret == null && !unsupported.containsKey(format))
+        {
+            final Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName(format);
+            if (it.hasNext())
+                ret = it.next();
+            else
+                unsupported.put(format, Boolean.TRUE);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a reader obtained using {@link #acquire(String)} to the pool. The reader is disposed
+     * when there are already enough idle readers for the format.
+     * @param format the ImageIO format name the reader has been acquired for
+     * @param reader the reader to be returned
+     */
+    public static void release(String format, ImageReader reader)
+    {
+        reader.reset(); //drop the input and the listeners
+        final Queue<ImageReader> idle = readers.computeIfAbsent(format, f -> new ConcurrentLinkedQueue<>());
+        if (idle.size() < MAX_IDLE_READERS) //the limit may be slightly exceeded by concurrent releases
+            idle.offer(reader);
+        else
+            reader.dispose();
+    }
+
+    /**
+     * Disposes all the idle readers.
+     */
+    public static void clear()
+    {
+        for (Queue<ImageReader> idle : readers.values())
+        {
+            ImageReader reader;
+            while ((reader = idle.poll()) != null)
+                reader.dispose();
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix)
+    {
+        if (data.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if ((data[i] & 0xff) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * LazyBitmapImage.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bitmap image whose pixels are decoded only when the image is actually painted. The image
+ * dimensions are obtained from the image header when the image is loaded so that the layout
+ * may be computed without decoding. The encoded image data is kept in memory (the images
+ * contained in data: URLs are decoded from the URL again instead) and the decoded pixels
+ * are only softly referenced; they are discarded under memory pressure and decoded
+ * again when needed. When the image is drawn much smaller than its intrinsic size, only
+ * a subsampled raster is decoded; when the subsampled decoding fails, the complete image is
+ * decoded instead.
+ * <p>
+ * Since only the image header is read during the layout, a corrupted image data is discovered
+ * only when the image is drawn. Such an image is then drawn as an empty box of the intrinsic
+ * size obtained from the header (unlike the images that fail during loading, which are treated
+ * as missing images).
+ *
+ * @author burgetr
+ */
+public class LazyBitmapImage extends BitmapImage
+{
+    private final byte[] data; //the encoded image data or null when decoded from a data: URL
+    private final String format; //the ImageIO format name or null when not known
+    private final int width;
+    private final int height;
+    private SoftReference<BufferedImage> pixels;
+    private Map<Integer, SoftReference<BufferedImage>> subsampled; //subsampled rasters by subsampling factor
+    private boolean failed; //the complete image could not be decoded
+    private boolean subsamplingFailed; //a subsampled raster could not be decoded
+
+
+    /**
+     * Creates a new image.
+     * @param url the image URL
+     * @param data the encoded image data
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param width the image width obtained from the image header
+     * @param height the image height obtained from the image header
+     */
+    protected LazyBitmapImage(URL url, byte[] data, String format, int width, int height)
+    {
+        super(url, null);
+        this.data = data;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a new image contained in a data: URL. The encoded data is not kept; it is decoded
+     * from the URL every time the pixels are needed.
+     * @param url the data: URL of the image
+     * @param format the ImageIO name of the image format or {@code null} when not known
+     * @param width the image width obtained from the image header
+     * @param height the image height obtained from the image header
+     */
+    protected LazyBitmapImage(URL url, String format, int width, int height)
+    {
+        this(url, null, format, width, height);
+    }
+
+    /**
+     * Obtains the decoded image. The image is decoded when it has not been decoded yet
+     * or when the decoded pixels have been discarded.
+     * @return the decoded image or {@code null} when the image data could not be decoded
+     */
+    @Override
+    public synchronized BufferedImage getBufferedImage()
+    {
+        BufferedImage ret = (pixels == null) ? null : pixels.get();
+        if (ret == null && !failed)
+        {
+            ret = decode(1);
+            if (ret != null)
+                pixels = new SoftReference<>(ret);
+            else
+                failed = true; //do not try again
+        }
+        return ret;
+    }
+
+    /**
+     * Obtains a raster suitable for drawing the image in the given target size. When the target size
+     * is at least two times smaller than the image size in both dimensions, a subsampled raster is
+     * decoded unless the complete image has already been decoded. When the subsampled raster cannot be
+     * decoded, the complete image is used.
+     * @param targetWidth the target width in device pixels
+     * @param targetHeight the target height in device pixels
+     * @return the decoded raster or {@code null} when the image data could not be decoded
+     */
+    @Override
+    public synchronized BufferedImage getBufferedImage(int targetWidth, int targetHeight)
+    {
+        final int factor = getSubsampling(targetWidth, targetHeight);
+        BufferedImage ret = (pixels == null) ? null : pixels.get();
+        if (ret == null && factor > 1 && !subsamplingFailed)
+        {
+            if (subsampled == null)
+                subsampled = new HashMap<>(4);
+            final SoftReference<BufferedImage> ref = subsampled.get(factor);
+            ret = (ref == null) ? null : ref.get();
+            if (ret == null)
+            {
+                ret = decode(factor);
+                if (ret != null)
+                    subsampled.put(factor, new SoftReference<>(ret));
+                else
+                    subsamplingFailed = true; //do not try again, use the complete image
+            }
+        }
+        if (ret == null)
+            ret = getBufferedImage();
+        return ret;
+    }
+
+    private BufferedImage decode(int subsampling)
+    {
+        if (data != null)
+            return GraphicsImageLoader.decodeImage(data, format, getUrl(), subsampling);
+        else
+            return GraphicsImageLoader.decodeDataURL(getUrl(), format, subsampling);
+    }
+
+    /**
+     * Computes the subsampling factor used for decoding the image for the given target size. The
+     * subsampled image is never smaller than the target size.
+     * @param targetWidth the target width in device pixels
+     * @param targetHeight the target height in device pixels
+     * @return the subsampling factor (1 for no subsampling)
+     */
+    protected int getSubsampling(int targetWidth, int targetHeight)
+    {
+        if (targetWidth <= 0 || targetHeight <= 0)
+            return 1;
+        return Math.max(1, Math.min(width / targetWidth, height / targetHeight));
+    }
+
+    /**
+     * Checks whether the decoded pixels are currently available.
+     * @return {@code true} when the image has been decoded and the pixels have not been discarded yet
+     */
+    public synchronized boolean isDecoded()
+    {
+        return pixels != null && pixels.get() != null;
+    }
+
+    /**
+     * Discards the decoded pixels. They will be decoded again on the next use.
+     */
+    public synchronized void discardPixels()
+    {
+        pixels = null;
+        subsampled = null;
+    }
+
+    /**
+     * Obtains the size of the encoded image data kept in memory.
+     * @return the data length in bytes or 0 when the image is decoded from a data: URL
+     */
+    public int getDataLength()
+    {
+        return (data == null) ? 0 : data.length;
+    }
+
+    @Override
+    public float getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public float getHeight()
+    {
+        return height;
+    }
+
+}
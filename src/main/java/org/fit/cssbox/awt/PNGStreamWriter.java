@@ -0,0 +1,278 @@
+/*
+ * PNGStreamWriter.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder that writes the image row by row. The image size must be known in advance
+ * but the pixel data may be supplied gradually (e.g. in horizontal strips) so that the whole
+ * image never has to be kept in memory. The resulting image is an 8-bit RGB PNG.
+ *
+ * @author burgetr
+ */
+public class PNGStreamWriter implements Closeable
+{
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    /** Maximal size of a single IDAT chunk */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final IDATOutputStream idat;
+    private final DeflaterOutputStream zout;
+    private final Deflater deflater;
+
+    private int rowsWritten;
+    private int[] pixels;
+    private byte[] prevRow;
+    private byte[] curRow;
+    private byte[] filtered;
+    private boolean closed;
+
+
+    /**
+     * Creates a new writer and writes the PNG header.
+     * @param out the target output stream
+     * @param width the total image width
+     * @param height the total image height
+     * @throws IOException
+     */
+    public PNGStreamWriter(OutputStream out, int width, int height) throws IOException
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        rowsWritten = 0;
+        pixels = new int[width];
+        prevRow = new byte[width * 3];
+        curRow = new byte[width * 3];
+        filtered = new byte[width * 3 + 1];
+
+        this.out.write(SIGNATURE);
+        final byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8; //bit depth
+        ihdr[9] = 2; //color type: RGB
+        ihdr[10] = 0; //compression: deflate
+        ihdr[11] = 0; //filter method: adaptive
+        ihdr[12] = 0; //no interlace
+        writeChunk("IHDR", ihdr, 0, ihdr.length);
+
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        idat = new IDATOutputStream();
+        zout = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Obtains the number of image rows written so far.
+     * @return the number of rows
+     */
+    public int getRowsWritten()
+    {
+        return rowsWritten;
+    }
+
+    /**
+     * Writes the given number of the top rows of the given image as the next image rows.
+     * @param image the source image. Its width must be equal to the target image width.
+     * @param rows the number of rows to be written starting from the top of the image
+     * @throws IOException
+     */
+    public void writeRows(BufferedImage image, int rows) throws IOException
+    {
+        if (image.getWidth() != width)
+            throw new IllegalArgumentException("Image width " + image.getWidth() + " does not match the PNG width " + width);
+        if (rows > image.getHeight() || rowsWritten + rows > height)
+            throw new IllegalArgumentException("Too many rows");
+        for (int y = 0; y < rows; y++)
+        {
+            image.getRGB(0, y, width, 1, pixels, 0, width);
+            for (int x = 0, i = 0; x < width; x++)
+            {
+                final int rgb = pixels[x];
+                curRow[i++] = (byte) (rgb >> 16);
+                curRow[i++] = (byte) (rgb >> 8);
+                curRow[i++] = (byte) rgb;
+            }
+            zout.write(filtered, 0, filterRow());
+            //swap the row buffers
+            final byte[] tmp = prevRow;
+            prevRow = curRow;
+            curRow = tmp;
+            rowsWritten++;
+        }
+    }
+
+    /**
+     * Finishes the image data and writes the PNG trailer. All the image rows must have been written before.
+     * The underlying output stream is not closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            zout.finish();
+            idat.flush();
+            deflater.end();
+            writeChunk("IEND", new byte[0], 0, 0);
+            out.flush();
+            if (rowsWritten != height)
+                throw new IOException("Incomplete PNG image: " + rowsWritten + " of " + height + " rows written");
+        }
+    }
+
+    //=========================================================================
+
+    /**
+     * Filters the current row into the output buffer. The filter (none, sub or up) is chosen
+     * by the minimal sum of absolute differences heuristic.
+     * @return the filtered row length including the filter type byte
+     */
+    private int filterRow()
+    {
+        final int len = curRow.length;
+        long sumNone = 0, sumSub = 0, sumUp = 0;
+        for (int i = 0; i < len; i++)
+        {
+            final int cur = curRow[i];
+            sumNone += Math.abs(cur);
+            sumSub += Math.abs((byte) (cur - (i >= 3 ? curRow[i - 3] : 0)));
+            sumUp += Math.abs((byte) (cur - prevRow[i]));
+        }
+        if (rowsWritten == 0)
+            sumUp = Long.MAX_VALUE; //no previous row
+
+        if (sumSub <= sumNone && sumSub <= sumUp)
+        {
+            filtered[0] = 1;
+            for (int i = 0; i < len; i++)
+                filtered[i + 1] = (byte) (curRow[i] - (i >= 3 ? curRow[i - 3] : 0));
+        }
+        else if (sumUp <= sumNone)
+        {
+            filtered[0] = 2;
+            for (int i = 0; i < len; i++)
+                filtered[i + 1] = (byte) (curRow[i] - prevRow[i]);
+        }
+        else
+        {
+            filtered[0] = 0;
+            System.arraycopy(curRow, 0, filtered, 1, len);
+        }
+        return len + 1;
+    }
+
+    private void writeChunk(String type, byte[] data, int off, int len) throws IOException
+    {
+        final byte[] btype = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(btype);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(btype);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] dest, int ofs, int value)
+    {
+        dest[ofs] = (byte) (value >>> 24);
+        dest[ofs + 1] = (byte) (value >>> 16);
+        dest[ofs + 2] = (byte) (value >>> 8);
+        dest[ofs + 3] = (byte) value;
+    }
+
+    /**
+     * An output stream that packs the compressed data to the IDAT chunks.
+     */
+    private class IDATOutputStream extends OutputStream
+    {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if (count == buffer.length)
+                flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (count == buffer.length)
+                    flushChunk();
+                final int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            flushChunk();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException
+        {
+            if (count > 0)
+            {
+                writeChunk("IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+}
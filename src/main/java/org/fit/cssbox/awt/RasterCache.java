@@ -0,0 +1,327 @@
+/*
+ * RasterCache.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.Graphics2D;
+import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
+import java.awt.RadialGradientPaint;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded cache of pre-scaled background images and pre-rendered gradient tiles. The rasters
+ * are identified by their source (image identity or gradient specification), the target size and
+ * the interpolation hint used for scaling. The least recently used rasters are discarded when
+ * the total number of cached pixels exceeds the configured limit. The source images are only
+ * referenced weakly; the scaled copies of an image are discarded when the source image is
+ * garbage-collected.
+ *
+ * A single shared instance is used by default so that the rasters may be reused across
+ * redraws and across documents that use the same assets. The cache is thread-safe.
+ *
+ * @author burgetr
+ */
+public class RasterCache
+{
+    /** Default maximal number of cached pixels (64 MB of ARGB data) */
+    public static final long DEFAULT_MAX_PIXELS = 16L * 1024 * 1024;
+
+    private static final RasterCache sharedInstance = new RasterCache(DEFAULT_MAX_PIXELS);
+
+    private final long maxPixels;
+    private long pixels;
+    private final LinkedHashMap<Object, BufferedImage> cache;
+    /** The queue of the scaled image keys whose source images have been garbage-collected */
+    private final ReferenceQueue<BufferedImage> clearedSources;
+
+
+    /**
+     * Creates a new cache.
+     * @param maxPixels the maximal total number of pixels of all the cached rasters
+     */
+    public RasterCache(long maxPixels)
+    {
+        this.maxPixels = maxPixels;
+        this.pixels = 0;
+        this.cache = new LinkedHashMap<>(64, 0.75f, true);
+        this.clearedSources = new ReferenceQueue<>();
+    }
+
+    /**
+     * Obtains the shared cache instance used by default by all the renderers.
+     * @return the shared cache
+     */
+    public static RasterCache getSharedInstance()
+    {
+        return sharedInstance;
+    }
+
+    public long getMaxPixels()
+    {
+        return maxPixels;
+    }
+
+    /**
+     * Obtains the total number of pixels currently stored in the cache.
+     * @return the number of pixels
+     */
+    public synchronized long getPixels()
+    {
+        return pixels;
+    }
+
+    /**
+     * Removes all the rasters from the cache.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+        pixels = 0;
+        while (clearedSources.poll() != null)
+            ; //the cleared keys are not present anymore
+    }
+
+    /**
+     * Checks whether a raster of the given size may be stored in the cache. Larger rasters
+     * are never cached so that a single raster cannot flush the whole cache.
+     * @param width the raster width
+     * @param height the raster height
+     * @return {@code true} when the raster may be cached
+     */
+    public boolean isCacheable(int width, int height)
+    {
+        return (long) width * height <= maxPixels / 4;
+    }
+
+    /**
+     * Obtains a copy of the image scaled to the given size. The scaled copy is created
+     * when not present in the cache. Note that the scaled copies that are not
+     * {@link #isCacheable(int, int) cacheable} are created again on every call; the callers
+     * should rather scale such images directly while drawing.
+     * @param image the source image
+     * @param width target width
+     * @param height target height
+     * @param interpolation the interpolation hint value used for scaling or {@code null} for default
+     * @return the scaled image
+     */
+    public BufferedImage getScaledImage(BufferedImage image, int width, int height, Object interpolation)
+    {
+        if (image.getWidth() == width && image.getHeight() == height)
+            return image; //no scaling necessary
+        BufferedImage ret = lookup(new ScaledKey(image, width, height, interpolation, null));
+        if (ret == null)
+        {
+            ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D g = ret.createGraphics();
+            if (interpolation != null)
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.drawImage(image, 0, 0, width, height, 0, 0, image.getWidth(), image.getHeight(), null);
+            g.dispose();
+            store(new ScaledKey(image, width, height, interpolation, clearedSources), ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Obtains a tile of the given size filled with the given gradient paint. The tile is rendered
+     * when not present in the cache.
+     * @param paint the gradient paint
+     * @param width tile width
+     * @param height tile height
+     * @return the rendered tile
+     */
+    public BufferedImage getGradientTile(MultipleGradientPaint paint, int width, int height)
+    {
+        final GradientKey key = new GradientKey(paint, width, height);
+        BufferedImage ret = lookup(key);
+        if (ret == null)
+        {
+            ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            final Graphics2D g = ret.createGraphics();
+            g.setPaint(paint);
+            g.fill(new Rectangle2D.Float(0, 0, width, height));
+            g.dispose();
+            store(key, ret);
+        }
+        return ret;
+    }
+
+    //=========================================================================
+
+    private synchronized BufferedImage lookup(Object key)
+    {
+        purgeCleared();
+        return cache.get(key);
+    }
+
+    private synchronized void store(Object key, BufferedImage image)
+    {
+        purgeCleared();
+        final long size = (long) image.getWidth() * image.getHeight();
+        if (isCacheable(image.getWidth(), image.getHeight()))
+        {
+            final BufferedImage prev = cache.put(key, image);
+            if (prev != null)
+                pixels -= (long) prev.getWidth() * prev.getHeight();
+            pixels += size;
+            //evict the least recently used rasters
+            final Iterator<Map.Entry<Object, BufferedImage>> it = cache.entrySet().iterator();
+            while (pixels > maxPixels && it.hasNext())
+            {
+                final BufferedImage old = it.next().getValue();
+                pixels -= (long) old.getWidth() * old.getHeight();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the scaled images whose source images have been garbage-collected.
+     */
+    private void purgeCleared()
+    {
+        Object key;
+        while ((key = clearedSources.poll()) != null)
+        {
+            final BufferedImage old = cache.remove(key);
+            if (old != null)
+                pixels -= (long) old.getWidth() * old.getHeight();
+        }
+    }
+
+    //=========================================================================
+
+    /**
+     * A key of a scaled image. The source image is compared by identity and it is only referenced
+     * weakly so that the cached copies do not prevent the source image from being collected.
+     */
+    private static class ScaledKey extends WeakReference<BufferedImage>
+    {
+        private final int hash;
+        private final int width;
+        private final int height;
+        private final Object interpolation;
+
+        public ScaledKey(BufferedImage image, int width, int height, Object interpolation,
+                ReferenceQueue<BufferedImage> queue)
+        {
+            super(image, queue);
+            this.width = width;
+            this.height = height;
+            this.interpolation = interpolation;
+            this.hash = Objects.hash(System.identityHashCode(image), width, height, interpolation);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) return true;
+            if (!(obj instanceof ScaledKey)) return false;
+            final ScaledKey other = (ScaledKey) obj;
+            final BufferedImage image = get();
+            return image != null && image == other.get() && width == other.width && height == other.height
+                    && Objects.equals(interpolation, other.interpolation);
+        }
+    }
+
+    /**
+     * A key of a gradient tile. It is based on the complete gradient paint specification.
+     */
+    private static class GradientKey
+    {
+        private final boolean radial;
+        private final float[] geometry;
+        private final float[] fractions;
+        private final int[] colors;
+        private final MultipleGradientPaint.CycleMethod cycle;
+        private final AffineTransform transform;
+        private final int width;
+        private final int height;
+
+        public GradientKey(MultipleGradientPaint paint, int width, int height)
+        {
+            if (paint instanceof RadialGradientPaint)
+            {
+                final RadialGradientPaint rp = (RadialGradientPaint) paint;
+                radial = true;
+                geometry = new float[] {
+                        (float) rp.getCenterPoint().getX(), (float) rp.getCenterPoint().getY(),
+                        (float) rp.getFocusPoint().getX(), (float) rp.getFocusPoint().getY(),
+                        rp.getRadius() };
+            }
+            else
+            {
+                final LinearGradientPaint lp = (LinearGradientPaint) paint;
+                radial = false;
+                geometry = new float[] {
+                        (float) lp.getStartPoint().getX(), (float) lp.getStartPoint().getY(),
+                        (float) lp.getEndPoint().getX(), (float) lp.getEndPoint().getY() };
+            }
+            fractions = paint.getFractions();
+            final java.awt.Color[] pcolors = paint.getColors();
+            colors = new int[pcolors.length];
+            for (int i = 0; i < pcolors.length; i++)
+                colors[i] = pcolors[i].getRGB();
+            cycle = paint.getCycleMethod();
+            transform = paint.getTransform();
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = Objects.hash(radial, cycle, transform, width, height);
+            result = 31 * result + Arrays.hashCode(geometry);
+            result = 31 * result + Arrays.hashCode(fractions);
+            result = 31 * result + Arrays.hashCode(colors);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) return true;
+            if (!(obj instanceof GradientKey)) return false;
+            final GradientKey other = (GradientKey) obj;
+            return radial == other.radial && width == other.width && height == other.height
+                    && cycle == other.cycle
+                    && Arrays.equals(geometry, other.geometry)
+                    && Arrays.equals(fractions, other.fractions)
+                    && Arrays.equals(colors, other.colors)
+                    && Objects.equals(transform, other.transform);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * RenderRequest.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.net.URL;
+
+import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.layout.Dimension;
+
+/**
+ * A request for rendering a single document using the {@link RenderService}. The document is
+ * specified either by its URL or by an open document source.
+ *
+ * @author burgetr
+ */
+public class RenderRequest
+{
+    /** The output format of the rendered page */
+    public enum OutputFormat
+    {
+        /** The rendered page is returned as an image ({@link RenderResult#getImage()}) */
+        IMAGE,
+        /** The rendered page is returned encoded in the PNG format ({@link RenderResult#getData()}) */
+        PNG
+    }
+
+    private final URL url;
+    private final DocumentSource source;
+    private Dimension viewport;
+    private String media;
+    private OutputFormat outputFormat;
+
+
+    /**
+     * Creates a request for rendering the document at the given URL. The document source is created
+     * by the service.
+     * @param url the document URL
+     */
+    public RenderRequest(URL url)
+    {
+        this(url, null);
+    }
+
+    /**
+     * Creates a request for rendering the document obtained from the given source. The source
+     * is closed by the service when the document is rendered.
+     * @param source the document source
+     */
+    public RenderRequest(DocumentSource source)
+    {
+        this(source.getURL(), source);
+    }
+
+    private RenderRequest(URL url, DocumentSource source)
+    {
+        this.url = url;
+        this.source = source;
+        this.viewport = new Dimension(1200, 600);
+        this.media = "screen";
+        this.outputFormat = OutputFormat.IMAGE;
+    }
+
+    public URL getURL()
+    {
+        return url;
+    }
+
+    /**
+     * Obtains the document source passed to the request.
+     * @return the document source or {@code null} when the request has been created for an URL
+     */
+    public DocumentSource getDocumentSource()
+    {
+        return source;
+    }
+
+    public Dimension getViewport()
+    {
+        return viewport;
+    }
+
+    /**
+     * Sets the viewport size used for the layout. The default size is 1200x600 pixels.
+     * @param width the viewport width
+     * @param height the viewport height
+     */
+    public void setViewport(float width, float height)
+    {
+        this.viewport = new Dimension(width, height);
+    }
+
+    public String getMedia()
+    {
+        return media;
+    }
+
+    /**
+     * Sets the media type used for the style sheets. The default is {@code screen}.
+     * @param media the media type name
+     */
+    public void setMedia(String media)
+    {
+        this.media = media;
+    }
+
+    public OutputFormat getOutputFormat()
+    {
+        return outputFormat;
+    }
+
+    /**
+     * Sets the output format. The default is {@link OutputFormat#IMAGE}.
+     * @param outputFormat the output format
+     */
+    public void setOutputFormat(OutputFormat outputFormat)
+    {
+        this.outputFormat = outputFormat;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RenderRequest[" + url + ", " + viewport.width + "x" + viewport.height + ", " + media + ", " + outputFormat + "]";
+    }
+
+}
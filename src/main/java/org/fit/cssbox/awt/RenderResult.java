@@ -0,0 +1,170 @@
+/*
+ * RenderResult.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.fit.cssbox.layout.LayoutMetrics;
+
+/**
+ * The result of a {@link RenderRequest} processed by the {@link RenderService}. Besides the rendered
+ * page, it contains the time spent in the individual rendering phases.
+ *
+ * @author burgetr
+ */
+public class RenderResult
+{
+    /** The rendering phases */
+    public enum Phase
+    {
+        /** Obtaining and parsing the document */
+        LOAD,
+        /** Loading and parsing the style sheets */
+        STYLE,
+        /** Creating the boxes and computing the layout (including the style computation) */
+        LAYOUT,
+        /** Drawing the page */
+        PAINT,
+        /** Encoding the output */
+        ENCODE
+    }
+
+    private final RenderRequest request;
+    private final URL url;
+    private final Map<Phase, Long> times;
+    private BufferedImage image;
+    private byte[] data;
+    private LayoutMetrics layoutMetrics;
+
+
+    protected RenderResult(RenderRequest request, URL url)
+    {
+        this.request = request;
+        this.url = url;
+        this.times = new EnumMap<>(Phase.class);
+    }
+
+    public RenderRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Obtains the URL of the rendered document. This may differ from the requested URL e.g.
+     * after a redirect.
+     * @return the document URL
+     */
+    public URL getURL()
+    {
+        return url;
+    }
+
+    /**
+     * Obtains the rendered page image.
+     * @return the page image or {@code null} when a different output format has been requested
+     */
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+
+    protected void setImage(BufferedImage image)
+    {
+        this.image = image;
+    }
+
+    /**
+     * Obtains the encoded page.
+     * @return the page encoded in the requested output format or {@code null} for the
+     * {@link RenderRequest.OutputFormat#IMAGE} output
+     */
+    public byte[] getData()
+    {
+        return data;
+    }
+
+    protected void setData(byte[] data)
+    {
+        this.data = data;
+    }
+
+    /**
+     * Obtains the detailed statistics of the layout creation and drawing.
+     * @return the layout metrics
+     */
+    public LayoutMetrics getLayoutMetrics()
+    {
+        return layoutMetrics;
+    }
+
+    protected void setLayoutMetrics(LayoutMetrics layoutMetrics)
+    {
+        this.layoutMetrics = layoutMetrics;
+    }
+
+    /**
+     * Obtains the time spent in the given phase.
+     * @param phase the rendering phase
+     * @return the time in nanoseconds
+     */
+    public long getTime(Phase phase)
+    {
+        final Long ret = times.get(phase);
+        return (ret == null) ? 0 : ret;
+    }
+
+    /**
+     * Obtains the total time spent in all the phases.
+     * @return the time in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        long ret = 0;
+        for (long t : times.values())
+            ret += t;
+        return ret;
+    }
+
+    /**
+     * Obtains the times of all the phases that have been executed.
+     * @return a map of phases to the times in nanoseconds
+     */
+    public Map<Phase, Long> getTimes()
+    {
+        return Collections.unmodifiableMap(times);
+    }
+
+    protected void addTime(Phase phase, long nanos)
+    {
+        times.merge(phase, nanos, Long::sum);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder ret = new StringBuilder("RenderResult[").append(url);
+        for (Map.Entry<Phase, Long> entry : times.entrySet())
+            ret.append(", ").append(entry.getKey().name().toLowerCase()).append("=").append(entry.getValue() / 1000000).append("ms");
+        return ret.append("]").toString();
+    }
+
+}
@@ -0,0 +1,390 @@
+/*
+ * RenderService.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.awt;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fit.cssbox.css.CSSNorm;
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DOMSourceFactory;
+import org.fit.cssbox.io.DefaultDOMSource;
+import org.fit.cssbox.io.DefaultDocumentSource;
+import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.io.DocumentSourceFactory;
+import org.fit.cssbox.io.ReflectiveDOMSourceFactory;
+import org.fit.cssbox.io.ReflectiveDocumentSourceFactory;
+import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.cssbox.layout.Dimension;
+import org.fit.cssbox.layout.ImageCache;
+import org.fit.cssbox.layout.LimitedImageCache;
+import org.fit.cssbox.layout.Rectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import cz.vutbr.web.css.CSSException;
+import cz.vutbr.web.css.MediaSpec;
+import cz.vutbr.web.css.StyleSheet;
+
+/**
+ * A service for rendering many documents concurrently. The service owns the resources that
+ * may be shared by all the rendered documents: the parsed user agent style sheets, the image cache,
+ * the document source and DOM source factories (e.g. a caching document source) and a pool
+ * of worker threads. Each document is rendered by a separate engine with its own configuration
+ * created by {@link #createConfig()}.
+ *
+ * The number of documents rendered at the same time is limited by the parallelism and the number
+ * of waiting requests is limited by the queue capacity. When the queue is full, {@link #submit(RenderRequest)}
+ * blocks until there is a free slot so that the producer cannot outrun the rendering.
+ * <pre>
+ * try (RenderService service = new RenderService(8)) {
+ *     CompletableFuture&lt;RenderResult&gt; result = service.submit(new RenderRequest(url));
+ *     ImageIO.write(result.get().getImage(), "png", out);
+ * }
+ * </pre>
+ *
+ * @author burgetr
+ */
+public class RenderService implements Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(RenderService.class);
+
+    /** Default maximal number of images kept in the shared image cache */
+    public static final int DEFAULT_IMAGE_CACHE_SIZE = 1000;
+
+    private final int parallelism;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots; //running and waiting requests
+    private final List<StyleSheet> agentStyleSheets;
+    private volatile ImageCache imageCache;
+    private volatile DocumentSourceFactory documentSourceFactory;
+    private volatile DOMSourceFactory domSourceFactory;
+
+
+    /**
+     * Creates a new service with the queue capacity of four times the parallelism.
+     * @param parallelism the maximal number of documents rendered at the same time
+     */
+    public RenderService(int parallelism)
+    {
+        this(parallelism, parallelism * 4);
+    }
+
+    /**
+     * Creates a new service.
+     * @param parallelism the maximal number of documents rendered at the same time
+     * @param queueCapacity the maximal number of requests waiting for rendering
+     */
+    public RenderService(int parallelism, int queueCapacity)
+    {
+        if (parallelism < 1 || queueCapacity < 0)
+            throw new IllegalArgumentException("Invalid parallelism or queue capacity");
+        this.parallelism = parallelism;
+        this.slots = new Semaphore(parallelism + queueCapacity);
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.agentStyleSheets = parseAgentStyleSheets();
+        this.imageCache = new LimitedImageCache(DEFAULT_IMAGE_CACHE_SIZE);
+        this.documentSourceFactory = new ReflectiveDocumentSourceFactory(DefaultDocumentSource.class);
+        this.domSourceFactory = new ReflectiveDOMSourceFactory(DefaultDOMSource.class);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public ImageCache getImageCache()
+    {
+        return imageCache;
+    }
+
+    /**
+     * Sets the image cache shared by all the rendered documents. By default, a {@link LimitedImageCache}
+     * is used.
+     * @param imageCache the image cache or {@code null} for disabling the caching
+     */
+    public void setImageCache(ImageCache imageCache)
+    {
+        this.imageCache = imageCache;
+    }
+
+    public DocumentSourceFactory getDocumentSourceFactory()
+    {
+        return documentSourceFactory;
+    }
+
+    /**
+     * Sets the factory used for obtaining the documents and all their resources. This may be used
+     * e.g. for using a shared resource cache by all the rendered documents.
+     * @param documentSourceFactory the document source factory
+     */
+    public void setDocumentSourceFactory(DocumentSourceFactory documentSourceFactory)
+    {
+        this.documentSourceFactory = documentSourceFactory;
+    }
+
+    public DOMSourceFactory getDOMSourceFactory()
+    {
+        return domSourceFactory;
+    }
+
+    /**
+     * Sets the factory used for parsing the documents.
+     * @param domSourceFactory the DOM source factory
+     */
+    public void setDOMSourceFactory(DOMSourceFactory domSourceFactory)
+    {
+        this.domSourceFactory = domSourceFactory;
+    }
+
+    /**
+     * Obtains the number of requests that are currently being rendered or waiting for rendering.
+     * @return the number of requests
+     */
+    public int getPendingCount()
+    {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    //=========================================================================
+
+    /**
+     * Submits a request for rendering. When the maximal number of waiting requests has been reached,
+     * the method blocks until some of the requests is finished.
+     * @param request the render request
+     * @return a future that completes with the render result
+     * @throws InterruptedException when interrupted while waiting for a free slot
+     * @throws RejectedExecutionException when the service has been closed
+     */
+    public CompletableFuture<RenderResult> submit(RenderRequest request) throws InterruptedException
+    {
+        checkOpen();
+        slots.acquire();
+        return execute(request);
+    }
+
+    /**
+     * Submits a request for rendering when there is a free slot within the given timeout.
+     * @param request the render request
+     * @param timeout the maximal time to wait for a free slot
+     * @param unit the timeout unit
+     * @return a future that completes with the render result or {@code null} when there has been
+     * no free slot within the timeout
+     * @throws InterruptedException when interrupted while waiting for a free slot
+     * @throws RejectedExecutionException when the service has been closed
+     */
+    public CompletableFuture<RenderResult> trySubmit(RenderRequest request, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        checkOpen();
+        if (slots.tryAcquire(timeout, unit))
+            return execute(request);
+        else
+            return null;
+    }
+
+    /**
+     * Renders a document synchronously in the calling thread using the shared resources
+     * of the service.
+     * @param request the render request
+     * @return the render result
+     * @throws IOException when the document could not be obtained
+     * @throws SAXException when the document could not be parsed
+     */
+    public RenderResult render(RenderRequest request) throws IOException, SAXException
+    {
+        final BrowserConfig config = createConfig();
+        final DocumentSource docSource = (request.getDocumentSource() != null) ?
+                request.getDocumentSource() : config.createDocumentSource(request.getURL());
+        try
+        {
+            //load and parse the document
+            long t = System.nanoTime();
+            final DOMSource parser = config.createDOMSource(docSource);
+            if (parser == null)
+                throw new IOException("Could not create a parser for " + request.getURL());
+            final Document doc = parser.parse();
+            final RenderResult result = new RenderResult(request, docSource.getURL());
+            t = lap(result, RenderResult.Phase.LOAD, t);
+
+            //load the style sheets
+            final Dimension dim = request.getViewport();
+            final MediaSpec media = new MediaSpec(request.getMedia());
+            media.setDimensions(dim.width, dim.height);
+            media.setDeviceDimensions(dim.width, dim.height);
+            final DOMAnalyzer da = new DOMAnalyzer(doc, docSource.getURL());
+            da.setMediaSpec(media);
+            da.attributesToStyles();
+            for (StyleSheet sheet : agentStyleSheets)
+                da.addStyleSheet(sheet);
+            da.setConfig(config); //load the style sheets using the configured document sources
+            da.getStyleSheets(media);
+            t = lap(result, RenderResult.Phase.STYLE, t);
+
+            //create the layout
+            final GraphicsEngine engine = new GraphicsEngine(da.getRoot(), da, docSource.getURL());
+            engine.setConfig(config);
+            engine.setAutoMediaUpdate(false); //we have a correct media specification
+            engine.createLayout(dim, new Rectangle(dim), false);
+            t = lap(result, RenderResult.Phase.LAYOUT, t);
+
+            //draw the page
+            engine.redrawBoxes();
+            t = lap(result, RenderResult.Phase.PAINT, t);
+            result.setLayoutMetrics(engine.getLayoutMetrics());
+
+            final BufferedImage image = engine.getImage();
+            if (request.getOutputFormat() == RenderRequest.OutputFormat.PNG)
+            {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (PNGStreamWriter writer = new PNGStreamWriter(out, image.getWidth(), image.getHeight())) {
+                    writer.writeRows(image, image.getHeight());
+                }
+                result.setData(out.toByteArray());
+                lap(result, RenderResult.Phase.ENCODE, t);
+            }
+            else
+                result.setImage(image);
+            return result;
+        }
+        finally
+        {
+            docSource.close();
+        }
+    }
+
+    /**
+     * Stops accepting new requests and waits for the submitted requests to be finished.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                log.debug("Waiting for {} pending requests", getPendingCount());
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //=========================================================================
+
+    /**
+     * Creates the browser configuration for rendering a single document. The created configuration
+     * uses the shared image cache and the configured factories. It may be overriden in order to
+     * change further configuration options.
+     * @return the new configuration
+     */
+    protected BrowserConfig createConfig()
+    {
+        final BrowserConfig config = new BrowserConfig();
+        config.setImageCache(imageCache);
+        config.setDocumentSourceFactory(documentSourceFactory);
+        config.setDOMSourceFactory(domSourceFactory);
+        return config;
+    }
+
+    /**
+     * Parses the user agent style sheets that are shared by all the rendered documents.
+     * @return the list of the parsed style sheets
+     */
+    protected List<StyleSheet> parseAgentStyleSheets()
+    {
+        final List<StyleSheet> ret = new ArrayList<>(3);
+        for (String css : new String[] { CSSNorm.stdStyleSheet(), CSSNorm.userStyleSheet(), CSSNorm.formsStyleSheet() })
+        {
+            try {
+                ret.add(DOMAnalyzer.parseStyleSheet(null, css, DOMAnalyzer.Origin.AGENT));
+            } catch (IOException | CSSException e) {
+                log.error("Couldn't parse the user agent style sheet: {}", e.getMessage());
+            }
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    private CompletableFuture<RenderResult> execute(RenderRequest request)
+    {
+        final CompletableFuture<RenderResult> ret = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    ret.complete(render(request));
+                } catch (Throwable e) {
+                    ret.completeExceptionally(e);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+        return ret;
+    }
+
+    private void checkOpen()
+    {
+        if (executor.isShutdown())
+            throw new RejectedExecutionException("The render service has been closed");
+    }
+
+    private static long lap(RenderResult result, RenderResult.Phase phase, long start)
+    {
+        final long now = System.nanoTime();
+        result.addTime(phase, now - start);
+        return now;
+    }
+
+    /**
+     * Creates the daemon worker threads.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private static final AtomicInteger poolCount = new AtomicInteger();
+        private final int poolId = poolCount.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            final Thread ret = new Thread(r, "cssbox-render-" + poolId + "-" + threadCount.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+
+}
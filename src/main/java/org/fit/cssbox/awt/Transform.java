@@ -21,15 +21,8 @@ package org.fit.cssbox.awt;
 
 import java.awt.geom.AffineTransform;
 
-import org.fit.cssbox.layout.CSSDecoder;
 import org.fit.cssbox.layout.ElementBox;
-import org.fit.cssbox.layout.Rectangle;
-
-import cz.vutbr.web.css.CSSProperty;
-import cz.vutbr.web.css.Term;
-import cz.vutbr.web.css.TermFunction;
-import cz.vutbr.web.css.TermLengthOrPercent;
-import cz.vutbr.web.css.TermList;
+import org.fit.cssbox.layout.TransformMatrix;
 
 /**
  * Shared graphical transformation methods that may be shared among renderers.
@@ -41,108 +34,28 @@ public class Transform
 
     /**
      * Creates an AffineTransform that corresponds to the CSS transformations delared
-     * for a given element.
+     * for a given element. The transformation is obtained from the matrix resolved
+     * by the element box itself (see {@link ElementBox#getTransformMatrix()}).
      * @param elem The source element box.
      * @return an AffineTransform object describing the transformation or {@code null} when
      * no transformation should be applied on the given element.
      */
     public static AffineTransform createTransform(ElementBox elem)
     {
-        if (elem.isBlock() || elem.isReplaced())
-        {
-            CSSDecoder dec = new CSSDecoder(elem.getVisualContext());
-            Rectangle bounds = elem.getAbsoluteBorderBounds();
-            //decode the origin
-            float ox, oy;
-            CSSProperty.TransformOrigin origin = elem.getStyle().getProperty("transform-origin");
-            if (origin == CSSProperty.TransformOrigin.list_values)
-            {
-                TermList values = elem.getStyle().getValue(TermList.class, "transform-origin");
-                ox = dec.getLength((TermLengthOrPercent) values.get(0), false, bounds.width / 2, 0, bounds.width);
-                oy = dec.getLength((TermLengthOrPercent) values.get(1), false, bounds.height / 2, 0, bounds.height);
-            }
-            else
-            {
-                ox = bounds.width / 2;
-                oy = bounds.height / 2;
-            }
-            ox += bounds.x;
-            oy += bounds.y;
-            //compute the transformation matrix
-            AffineTransform ret = null;
-            CSSProperty.Transform trans = elem.getStyle().getProperty("transform");
-            if (trans == CSSProperty.Transform.list_values)
-            {
-                ret = new AffineTransform();
-                ret.translate(ox, oy);
-                TermList values = elem.getStyle().getValue(TermList.class, "transform");
-                for (Term<?> term : values)
-                {
-                    if (term instanceof TermFunction.Rotate)
-                    {
-                        double theta = dec.getAngle(((TermFunction.Rotate) term).getAngle());
-                        ret.rotate(theta);
-                    }
-                    else if (term instanceof TermFunction.Translate)
-                    {
-                        float tx = dec.getLength(((TermFunction.Translate) term).getTranslateX(), false, 0, 0, bounds.width);
-                        float ty = dec.getLength(((TermFunction.Translate) term).getTranslateY(), false, 0, 0, bounds.height);
-                        ret.translate(tx, ty);
-                    }
-                    else if (term instanceof TermFunction.TranslateX)
-                    {
-                        float tx = dec.getLength(((TermFunction.TranslateX) term).getTranslate(), false, 0, 0, bounds.width);
-                        ret.translate(tx, 0.0);
-                    }
-                    else if (term instanceof TermFunction.TranslateY)
-                    {
-                        float ty = dec.getLength(((TermFunction.TranslateY) term).getTranslate(), false, 0, 0, bounds.height);
-                        ret.translate(0.0, ty);
-                    }
-                    else if (term instanceof TermFunction.Scale)
-                    {
-                        float sx = ((TermFunction.Scale) term).getScaleX();
-                        float sy = ((TermFunction.Scale) term).getScaleY();
-                        ret.scale(sx, sy);
-                    }
-                    else if (term instanceof TermFunction.ScaleX)
-                    {
-                        float sx = ((TermFunction.ScaleX) term).getScale();
-                        ret.scale(sx, 1.0);
-                    }
-                    else if (term instanceof TermFunction.ScaleY)
-                    {
-                        float sy = ((TermFunction.ScaleY) term).getScale();
-                        ret.scale(1.0, sy);
-                    }
-                    else if (term instanceof TermFunction.Skew)
-                    {
-                        double ax = dec.getAngle(((TermFunction.Skew) term).getSkewX());
-                        double ay = dec.getAngle(((TermFunction.Skew) term).getSkewY());
-                        ret.shear(Math.tan(ax), Math.tan(ay));
-                    }
-                    else if (term instanceof TermFunction.SkewX)
-                    {
-                        double ax = dec.getAngle(((TermFunction.SkewX) term).getSkew());
-                        ret.shear(Math.tan(ax), 0.0);
-                    }
-                    else if (term instanceof TermFunction.SkewY)
-                    {
-                        double ay = dec.getAngle(((TermFunction.SkewY) term).getSkew());
-                        ret.shear(0.0, Math.tan(ay));
-                    }
-                    
-                    else if (term instanceof TermFunction.Matrix)
-                    {
-                        float[] vals = ((TermFunction.Matrix) term).getValues();
-                        ret.concatenate(new AffineTransform(vals));
-                    }
-                }
-                ret.translate(-ox, -oy);
-            }
-            
-            return ret;
-        }
+        return toAffineTransform(elem.getTransformMatrix());
+    }
+    
+    /**
+     * Converts a transformation matrix to the corresponding AffineTransform.
+     * @param matrix The source matrix or {@code null}.
+     * @return the resulting AffineTransform or {@code null} when the source matrix is {@code null}.
+     */
+    public static AffineTransform toAffineTransform(TransformMatrix matrix)
+    {
+        if (matrix != null)
+            return new AffineTransform(matrix.getScaleX(), matrix.getShearY(),
+                                       matrix.getShearX(), matrix.getScaleY(),
+                                       matrix.getTranslateX(), matrix.getTranslateY());
         else
             return null;
     }
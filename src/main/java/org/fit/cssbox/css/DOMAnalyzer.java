@@ -24,6 +24,11 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import org.fit.cssbox.io.DocumentSourceNetworkProcessor;
+import org.fit.cssbox.jfr.StyleComputationEvent;
+import org.fit.cssbox.jfr.StyleSheetsEvent;
+import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.net.DataURLHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.*;
@@ -63,6 +68,8 @@ public class DOMAnalyzer
     private StyleMap stylemap; //style map for DOM nodes
     private StyleMap istylemap; //style map with inheritance
     private FontTable fontTable; //local font table
+    private NetworkProcessor networkProcessor; //the processor used for loading the style sheets or null for the default one
+    private BrowserConfig config; //the configuration used for loading the style sheets or null for the default one
     
     /** The origin of a style sheet */
     public enum Origin 
@@ -360,6 +367,50 @@ public class DOMAnalyzer
         style.appendChild(styletext);
     }
     
+    /**
+     * Obtains the network processor used for loading the external style sheets when no processor
+     * is specified explicitly.
+     * @return the network processor or {@code null} when it is not set
+     */
+    public NetworkProcessor getNetworkProcessor()
+    {
+        return networkProcessor;
+    }
+
+    /**
+     * Sets the network processor used for loading the external style sheets when no processor
+     * is specified explicitly. This processor takes precedence over the browser configuration
+     * set by {@link #setConfig(BrowserConfig)}.
+     * @param networkProcessor the network processor or {@code null} when it is not set
+     */
+    public void setNetworkProcessor(NetworkProcessor networkProcessor)
+    {
+        this.networkProcessor = networkProcessor;
+    }
+
+    /**
+     * Obtains the browser configuration used for loading the external style sheets.
+     * @return the configuration or {@code null} when it is not set
+     */
+    public BrowserConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * Sets the browser configuration used for loading the external style sheets when no processor
+     * is specified explicitly. The style sheets are then loaded using a {@link DocumentSourceNetworkProcessor}
+     * created by {@link BrowserConfig#createNetworkProcessor()}, i.e. using the document source factory
+     * and the I/O executor of the configuration; the linked style sheets are fetched in parallel.
+     * When neither the configuration nor the network processor is set, the default network
+     * processor of the CSS parser is used.
+     * @param config the browser configuration or {@code null} when it is not set
+     */
+    public void setConfig(BrowserConfig config)
+    {
+        this.config = config;
+    }
+
     /** 
      * Returns a vector of CSSStyleSheet objects referenced from the document for the specified
      * media type with default values of the remaining media features. The internal style sheets
@@ -368,9 +419,7 @@ public class DOMAnalyzer
      */
     public void getStyleSheets(String media)
     {
-    	this.media = new MediaSpec(media);
-        StyleSheet newsheet = CSSFactory.getUsedStyles(doc, encoding, baseUrl, this.media);
-        styles.add(newsheet);
+        getStyleSheets(new MediaSpec(media));
     }
 
     /** 
@@ -380,10 +429,65 @@ public class DOMAnalyzer
      * @param media the media specification
      */
     public void getStyleSheets(MediaSpec media)
+    {
+        final NetworkProcessor processor;
+        if (networkProcessor != null)
+            processor = networkProcessor;
+        else if (config != null)
+            processor = config.createNetworkProcessor();
+        else
+            processor = CSSFactory.getNetworkProcessor();
+        getStyleSheets(media, processor);
+    }
+
+    /** 
+     * Returns a vector of CSSStyleSheet objects referenced from the document for the specified
+     * media type and features using the network processor to obtain the external style sheets.
+     * The internal style sheets are read from the document directly, the external ones (including
+     * the imported ones) are downloaded using the processor and parsed automatically. When the processor
+     * is a {@link DocumentSourceNetworkProcessor}, all the linked style sheets are prefetched
+     * before parsing.
+     * @param media the media specification
+     * @param processor the network processor used for handling the URL connections
+     */
+    public void getStyleSheets(MediaSpec media, NetworkProcessor processor)
     {
         this.media = media;
-        StyleSheet newsheet = CSSFactory.getUsedStyles(doc, encoding, baseUrl, this.media);
+        final StyleSheetsEvent event = new StyleSheetsEvent();
+        event.begin();
+        if (processor instanceof DocumentSourceNetworkProcessor)
+            prefetchStyleSheets((DocumentSourceNetworkProcessor) processor);
+        StyleSheet newsheet = CSSFactory.getUsedStyles(doc, encoding, baseUrl, this.media, processor);
         styles.add(newsheet);
+        commitEvent(event, newsheet);
+    }
+
+    /**
+     * Starts fetching the linked style sheets that may be used for the current media.
+     * @param processor the processor used for fetching
+     */
+    protected void prefetchStyleSheets(DocumentSourceNetworkProcessor processor)
+    {
+        if (processor.getExecutor() == null)
+            return;
+        final NodeList links = doc.getElementsByTagName("link");
+        for (int i = 0; i < links.getLength(); i++)
+        {
+            final Element link = (Element) links.item(i);
+            final String rel = link.getAttribute("rel").toLowerCase();
+            final String mediaAttr = link.getAttribute("media").toLowerCase();
+            final String href = link.getAttribute("href");
+            if (rel.contains("stylesheet") && !rel.contains("alternate") && !href.trim().isEmpty()
+                    && (mediaAttr.isEmpty() || mediaAttr.contains("all")
+                            || (media.getType() != null && mediaAttr.contains(media.getType()))))
+            {
+                try {
+                    processor.prefetch(DataURLHandler.createURL(baseUrl, href));
+                } catch (MalformedURLException e) {
+                    //reported later by the parser
+                }
+            }
+        }
     }
 
     /** 
@@ -527,6 +631,35 @@ public class DOMAnalyzer
         }
     }
 	
+    /**
+     * Adds an already parsed style sheet to the end of the used style sheet list. The style sheet
+     * is not modified by the analyzer so that a single parsed instance (e.g. a user agent style sheet
+     * obtained using {@link #parseStyleSheet(URL, String, Origin)}) may be shared by multiple analyzers.
+     * @param sheet the style sheet to be added
+     */
+    public void addStyleSheet(StyleSheet sheet)
+    {
+        styles.add(sheet);
+        fontTable = null; //force recomputing the font table the next time
+    }
+    
+    /**
+     * Parses a style sheet represented as a string without adding it to any analyzer. The resulting
+     * style sheet may be later added to one or more analyzers using {@link #addStyleSheet(StyleSheet)}.
+     * @param base the base URL used for the relative URLs in the style sheet
+     * @param cssdata the style string
+     * @param origin the style sheet origin (AUTHOR, AGENT or USER)
+     * @return the parsed style sheet
+     * @throws IOException when the imported style sheets could not be read
+     * @throws CSSException when the style sheet could not be parsed
+     */
+    public static StyleSheet parseStyleSheet(URL base, String cssdata, Origin origin) throws IOException, CSSException
+    {
+        StyleSheet newsheet = CSSFactory.parseString(cssdata, base);
+        newsheet.setOrigin(translateOrigin(origin));
+        return newsheet;
+    }
+	
 	/**
 	 * Forces recomputing the element styles. This method should be called when a new style sheet
 	 * has been added or a DOM has changed after some styles have been read from the analyzer.
@@ -551,7 +684,12 @@ public class DOMAnalyzer
     		analyzer = new Analyzer(styles);
     	
     	if (stylemap == null)
+    	{
+    		final StyleComputationEvent event = new StyleComputationEvent();
+    		event.begin();
     		stylemap = analyzer.evaluateDOM(doc, media, false);
+    		commitEvent(event, stylemap, false);
+    	}
     	
     	return stylemap.get(el);
     }
@@ -565,7 +703,36 @@ public class DOMAnalyzer
     		analyzer = new Analyzer(styles);
         
         if (istylemap == null)
+        {
+            final StyleComputationEvent event = new StyleComputationEvent();
+            event.begin();
             istylemap = analyzer.evaluateDOM(doc, media, true);
+            commitEvent(event, istylemap, true);
+        }
+    }
+    
+    private void commitEvent(StyleSheetsEvent event, StyleSheet sheet)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.setURL(baseUrl);
+            event.media = (media == null) ? null : media.getType();
+            event.rules = sheet.size();
+            event.commit();
+        }
+    }
+    
+    private void commitEvent(StyleComputationEvent event, StyleMap map, boolean inherited)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.setURL(baseUrl);
+            event.elements = map.size();
+            event.inherited = inherited;
+            event.commit();
+        }
     }
     
     /**
@@ -744,7 +911,7 @@ public class DOMAnalyzer
      * Translates the origin from the CSSBox API to jStyleParser API
      * (in order not to expose the jStyleParser API in CSSBox)
      */
-    private StyleSheet.Origin translateOrigin(Origin origin)
+    private static StyleSheet.Origin translateOrigin(Origin origin)
     {
     	if (origin == Origin.AUTHOR)
     		return StyleSheet.Origin.AUTHOR;
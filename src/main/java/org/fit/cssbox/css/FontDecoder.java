@@ -23,33 +23,44 @@ import java.awt.Font;
 import java.awt.FontFormatException;
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.fit.cssbox.io.DocumentSource;
 
 
 /**
+ * Decodes the fonts referenced from the style sheets and keeps track of the fonts that have been
+ * already registered. The registry is shared by all the engines in the JVM (as the fonts are registered
+ * globally in the graphics environment) and it may be safely used from multiple threads.
  *
  * @author burgetr
  */
 public class FontDecoder
 {
-    public static List<String> supportedFormats;
-    static {
-        supportedFormats = new ArrayList<String>(1);
-        supportedFormats.add("truetype");
-    }
+    /** The supported font formats as used in the {@code @font-face} rules */
+    public static final List<String> supportedFormats = new CopyOnWriteArrayList<>(new String[] { "truetype" });
     
-    private static Map<URL, String> registeredFonts = new HashMap<>();
+    /** The registered font family names by the source URLs */
+    private static final Map<URL, String> registeredFonts = new ConcurrentHashMap<>();
 
+    /**
+     * Records a font loaded from the given URL.
+     * @param url the font source URL
+     * @param family the family name of the registered font
+     */
     public static void registerFont(URL url, String family)
     {
         registeredFonts.put(url, family);
     }
     
+    /**
+     * Finds a font that has been already loaded from the given URL.
+     * @param url the font source URL
+     * @return the font family name or {@code null} when no font has been registered for the URL
+     */
     public static String findRegisteredFont(URL url)
     {
         return registeredFonts.get(url);
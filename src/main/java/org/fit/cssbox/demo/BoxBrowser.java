@@ -167,6 +167,7 @@ public class BoxBrowser
             updateCurrentMedia(media);
             
             DOMAnalyzer da = new DOMAnalyzer(doc, docSource.getURL());
+            da.setConfig(config);
             if (encoding == null)
                 encoding = da.getCharacterEncoding();
             da.setDefaultEncoding(encoding);
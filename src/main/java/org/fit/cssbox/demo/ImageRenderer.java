@@ -53,6 +53,7 @@ public class ImageRenderer
     private boolean cropWindow = false;
     private boolean loadImages = true;
     private boolean loadBackgroundImages = true;
+    private int stripHeight = 0;
 
     public ImageRenderer()
     {
@@ -76,6 +77,16 @@ public class ImageRenderer
         loadBackgroundImages = background;
     }
     
+    /**
+     * Configures the page to be rendered and encoded in horizontal strips of the given height
+     * instead of allocating an image of the whole page. This is useful for very tall pages.
+     * @param stripHeight the strip height in pixels or 0 for rendering the whole page at once
+     */
+    public void setStripHeight(int stripHeight)
+    {
+        this.stripHeight = stripHeight;
+    }
+    
     /**
      * Renders the URL and prints the result to the specified output stream in the specified
      * format.
@@ -104,8 +115,15 @@ public class ImageRenderer
         media.setDimensions(windowSize.width, windowSize.height);
         media.setDeviceDimensions(windowSize.width, windowSize.height);
 
+        //Create the browser configuration
+        BrowserConfig config = new BrowserConfig();
+        config.setClipViewport(cropWindow);
+        config.setLoadImages(loadImages);
+        config.setLoadBackgroundImages(loadBackgroundImages);
+        
         //Create the CSS analyzer
         DOMAnalyzer da = new DOMAnalyzer(doc, docSource.getURL());
+        da.setConfig(config); //use the configured document sources for the style sheets
         da.setMediaSpec(media);
         da.attributesToStyles(); //convert the HTML presentation attributes to inline styles
         da.addStyleSheet(null, CSSNorm.stdStyleSheet(), DOMAnalyzer.Origin.AGENT); //use the standard style sheet
@@ -114,13 +132,15 @@ public class ImageRenderer
         da.getStyleSheets(); //load the author style sheets
         
         GraphicsEngine contentCanvas = new GraphicsEngine(da.getRoot(), da, docSource.getURL());
+        contentCanvas.setConfig(config);
         contentCanvas.setAutoMediaUpdate(false); //we have a correct media specification, do not update
-        contentCanvas.getConfig().setClipViewport(cropWindow);
-        contentCanvas.getConfig().setLoadImages(loadImages);
-        contentCanvas.getConfig().setLoadBackgroundImages(loadBackgroundImages);
+        contentCanvas.setStripHeight(stripHeight);
 
         contentCanvas.createLayout(windowSize);
-        ImageIO.write(contentCanvas.getImage(), "png", out);
+        if (stripHeight > 0)
+            contentCanvas.writePNG(out); //stream the strips directly to the output
+        else
+            ImageIO.write(contentCanvas.getImage(), "png", out);
         
         docSource.close();
 
@@ -141,12 +161,14 @@ public class ImageRenderer
     
     public static void main(String[] args)
     {
-        if (args.length != 2)
+        if (args.length < 2 || args.length > 3)
         {
-            System.err.println("Usage: ImageRenderer <url> <output_file>");
+            System.err.println("Usage: ImageRenderer <url> <output_file> [strip_height]");
             System.err.println();
             System.err.println("Renders a document at the specified URL and stores the document image");
             System.err.println("to the specified file in PNG format.");
+            System.err.println("When the strip height is specified, the image is rendered and written");
+            System.err.println("in horizontal strips of the given height (for very tall pages).");
             System.err.println();
             System.err.println("See the CSSBoxSvg and CSSBoxPdf or WebVector projects if you want");
             System.err.println("to produce vector graphics in SVG or PDF.");
@@ -157,6 +179,8 @@ public class ImageRenderer
             FileOutputStream os = new FileOutputStream(args[1]);
             
             ImageRenderer r = new ImageRenderer();
+            if (args.length == 3)
+                r.setStripHeight(Integer.parseInt(args[2]));
             r.renderURL(args[0], os);
             
             os.close();
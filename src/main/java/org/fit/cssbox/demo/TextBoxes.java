@@ -27,6 +27,7 @@ import org.fit.cssbox.io.DefaultDOMSource;
 import org.fit.cssbox.io.DefaultDocumentSource;
 import org.fit.cssbox.io.DocumentSource;
 import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.layout.BrowserConfig;
 import org.fit.cssbox.layout.Dimension;
 import org.fit.cssbox.layout.ElementBox;
 import org.fit.cssbox.layout.TextBox;
@@ -81,8 +82,15 @@ public class TextBoxes
             DOMSource parser = new DefaultDOMSource(docSource);
             Document doc = parser.parse();
             
+            //Create the browser configuration
+            BrowserConfig config = new BrowserConfig();
+            //Disable the image loading
+            config.setLoadImages(false);
+            config.setLoadBackgroundImages(false);
+            
             //Create the CSS analyzer
             DOMAnalyzer da = new DOMAnalyzer(doc, docSource.getURL());
+            da.setConfig(config); //use the configured document sources for the style sheets
             da.attributesToStyles(); //convert the HTML presentation attributes to inline styles
             da.addStyleSheet(null, CSSNorm.stdStyleSheet(), DOMAnalyzer.Origin.AGENT); //use the standard style sheet
             da.addStyleSheet(null, CSSNorm.userStyleSheet(), DOMAnalyzer.Origin.AGENT); //use the additional style sheet
@@ -90,9 +98,7 @@ public class TextBoxes
             
             //Create the browser canvas
             GraphicsEngine browser = new GraphicsEngine(da.getRoot(), da, docSource.getURL());
-            //Disable the image loading
-            browser.getConfig().setLoadImages(false);
-            browser.getConfig().setLoadBackgroundImages(false);
+            browser.setConfig(config);
             
             //Create the layout for 1000x600 pixels
             browser.createLayout(new Dimension(1000, 600));
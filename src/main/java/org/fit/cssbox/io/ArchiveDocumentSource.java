@@ -0,0 +1,170 @@
+/*
+ * ArchiveDocumentSource.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.fit.net.DataURLHandler;
+
+/**
+ * A document source that obtains all the documents from a {@link ResourceArchive} (a WARC or ZIP
+ * file) instead of the network. The resources that are not present in the archive are reported
+ * as missing; only the data: URLs are resolved without the archive. This allows a completely
+ * hermetic and reproducible rendering of captured pages.
+ *
+ * A shared archive may be passed using a document source factory:
+ * <pre>
+ * ResourceArchive archive = ResourceArchive.open(path);
+ * config.setDocumentSourceFactory((base, urlstring) -&gt; new ArchiveDocumentSource(base, urlstring, archive));
+ * </pre>
+ * Alternatively, the class may be registered using {@code config.registerDocumentSource(ArchiveDocumentSource.class)};
+ * the archive configured using {@link #setDefaultArchive(ResourceArchive)} is used in that case.
+ *
+ * @author burgetr
+ */
+public class ArchiveDocumentSource extends DocumentSource
+{
+    private static volatile ResourceArchive defaultArchive;
+
+    private URL url;
+    private DocumentSource dataSource; //used for the data: URLs
+    private ResourceArchive.Resource resource;
+    private InputStream is;
+
+
+    /**
+     * Creates a document source using the default archive.
+     * @param url the document URL
+     * @throws IOException when the document is not available in the archive
+     */
+    public ArchiveDocumentSource(URL url) throws IOException
+    {
+        this(url, requireDefaultArchive());
+    }
+
+    /**
+     * Creates a document source using the default archive.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @throws IOException when the document is not available in the archive
+     */
+    public ArchiveDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(base, urlstring, requireDefaultArchive());
+    }
+
+    /**
+     * Creates a document source using the given archive.
+     * @param url the document URL
+     * @param archive the archive to be used
+     * @throws IOException when the document is not available in the archive
+     */
+    public ArchiveDocumentSource(URL url, ResourceArchive archive) throws IOException
+    {
+        super(url);
+        init(url, archive);
+    }
+
+    /**
+     * Creates a document source using the given archive.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param archive the archive to be used
+     * @throws IOException when the document is not available in the archive
+     */
+    public ArchiveDocumentSource(URL base, String urlstring, ResourceArchive archive) throws IOException
+    {
+        super(base, urlstring);
+        init(DataURLHandler.createURL(base, urlstring), archive);
+    }
+
+    private void init(URL url, ResourceArchive archive) throws IOException
+    {
+        this.url = url;
+        if ("data".equalsIgnoreCase(url.getProtocol()))
+            dataSource = new DefaultDocumentSource(url);
+        else
+        {
+            resource = archive.getResource(url);
+            if (resource == null)
+                throw new FileNotFoundException("Not found in the archive: " + url);
+        }
+    }
+
+    /**
+     * Obtains the archive used by the document sources created without specifying the archive.
+     * @return the default archive or {@code null} when not set
+     */
+    public static ResourceArchive getDefaultArchive()
+    {
+        return defaultArchive;
+    }
+
+    /**
+     * Configures the archive used by the document sources created without specifying the archive.
+     * @param archive the new default archive
+     */
+    public static void setDefaultArchive(ResourceArchive archive)
+    {
+        defaultArchive = archive;
+    }
+
+    @Override
+    public URL getURL()
+    {
+        return (resource != null) ? resource.getURL() : url;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return (resource != null) ? resource.getContentType() : dataSource.getContentType();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (is == null)
+        {
+            if (resource != null)
+                is = new ByteBufferInputStream(resource.getData());
+            else
+                is = dataSource.getInputStream();
+        }
+        return is;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (dataSource != null)
+            dataSource.close();
+    }
+
+    private static ResourceArchive requireDefaultArchive() throws IOException
+    {
+        final ResourceArchive ret = defaultArchive;
+        if (ret == null)
+            throw new IOException("No default resource archive configured");
+        return ret;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Base64DecodingInputStream.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * An input stream that decodes Base64 data directly from a character sequence (e.g. a part of
+ * a data: URL string) without creating any intermediate copies of the source or the decoded data.
+ * Both the standard and the URL-safe alphabets are accepted; the whitespace is ignored and the
+ * percent-encoded characters (as they may appear in URLs) are decoded on the fly.
+ *
+ * @author burgetr
+ */
+public class Base64DecodingInputStream extends InputStream
+{
+    private static final int[] DECODE = new int[128];
+    static {
+        Arrays.fill(DECODE, -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++)
+            DECODE[alphabet.charAt(i)] = i;
+        DECODE['-'] = 62; //URL-safe alphabet
+        DECODE['_'] = 63;
+    }
+
+    private final CharSequence src;
+    private final int end;
+    private int pos;
+
+    /** Decoded bytes waiting to be read */
+    private final byte[] out = new byte[3];
+    private int outPos;
+    private int outLen;
+    private boolean finished;
+
+
+    /**
+     * Creates a stream decoding the whole character sequence.
+     * @param src the Base64 encoded data
+     */
+    public Base64DecodingInputStream(CharSequence src)
+    {
+        this(src, 0, src.length());
+    }
+
+    /**
+     * Creates a stream decoding a part of a character sequence.
+     * @param src the source sequence
+     * @param start the index of the first Base64 character
+     * @param end the index after the last Base64 character
+     */
+    public Base64DecodingInputStream(CharSequence src, int start, int end)
+    {
+        this.src = src;
+        this.pos = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (outPos >= outLen && !fill())
+            return -1;
+        return out[outPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        int cnt = 0;
+        while (cnt < len)
+        {
+            if (outPos >= outLen)
+            {
+                //decode the complete quantums directly to the target array
+                while (len - cnt >= 3 && !finished)
+                {
+                    final int n = decodeQuantum(b, off + cnt);
+                    cnt += n;
+                    if (n < 3)
+                        break;
+                }
+                if (cnt >= len || !fill())
+                    break;
+            }
+            b[off + cnt++] = out[outPos++];
+        }
+        return (cnt == 0) ? -1 : cnt;
+    }
+
+    @Override
+    public int available()
+    {
+        return (outLen - outPos) + (finished ? 0 : (end - pos) / 4 * 3);
+    }
+
+    //=========================================================================
+
+    private boolean fill() throws IOException
+    {
+        if (finished)
+            return false;
+        outPos = 0;
+        outLen = decodeQuantum(out, 0);
+        return outLen > 0;
+    }
+
+    /**
+     * Decodes the next 4 Base64 characters to up to 3 bytes.
+     * @return the number of decoded bytes
+     */
+    private int decodeQuantum(byte[] dest, int off) throws IOException
+    {
+        int bits = 0;
+        int cnt = 0;
+        while (cnt < 4)
+        {
+            final int c = nextChar();
+            if (c == -1 || c == '=')
+            {
+                finished = true;
+                break;
+            }
+            final int v = (c < 128) ? DECODE[c] : -1;
+            if (v == -1)
+            {
+                if (Character.isWhitespace(c))
+                    continue;
+                throw new IOException("Invalid Base64 character: '" + (char) c + "'");
+            }
+            bits = (bits << 6) | v;
+            cnt++;
+        }
+        switch (cnt)
+        {
+            case 4:
+                dest[off] = (byte) (bits >> 16);
+                dest[off + 1] = (byte) (bits >> 8);
+                dest[off + 2] = (byte) bits;
+                return 3;
+            case 3:
+                bits <<= 6;
+                dest[off] = (byte) (bits >> 16);
+                dest[off + 1] = (byte) (bits >> 8);
+                return 2;
+            case 2:
+                bits <<= 12;
+                dest[off] = (byte) (bits >> 16);
+                return 1;
+            case 0:
+                return 0;
+            default:
+                throw new IOException("Truncated Base64 data");
+        }
+    }
+
+    /**
+     * Reads the next source character with the percent escapes decoded.
+     * @return the character or -1 at the end
+     */
+    private int nextChar()
+    {
+        if (pos >= end)
+            return -1;
+        final char c = src.charAt(pos++);
+        if (c == '%' && pos + 1 < end)
+        {
+            final int hi = Character.digit(src.charAt(pos), 16);
+            final int lo = Character.digit(src.charAt(pos + 1), 16);
+            if (hi >= 0 && lo >= 0)
+            {
+                pos += 2;
+                return (hi << 4) | lo;
+            }
+        }
+        return c;
+    }
+
+}
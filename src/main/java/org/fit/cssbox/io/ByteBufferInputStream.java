@@ -0,0 +1,105 @@
+/*
+ * ByteBufferInputStream.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads the remaining bytes of a byte buffer. When used with a memory-mapped
+ * buffer, the data is read directly from the mapped file without any intermediate copies.
+ * The source buffer is not modified; the stream uses its own view of the buffer.
+ *
+ * @author burgetr
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+    private int mark;
+
+
+    /**
+     * Creates a stream reading the remaining bytes of the given buffer.
+     * @param buffer the source buffer
+     */
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer.slice();
+        this.mark = 0;
+    }
+
+    /**
+     * Obtains a read-only view of the data that have not been read yet.
+     * @return the buffer
+     */
+    public ByteBuffer getRemainingBuffer()
+    {
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        final int cnt = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + cnt);
+        return cnt;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        buffer.position(mark);
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * CachingDocumentSource.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.fit.net.DataURLHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A document source that stores the HTTP resources in a persistent {@link DiskResourceCache}.
+ * The cached entries are used without contacting the server while they are fresh according
+ * to the {@code Cache-Control: max-age} directive. Otherwise, they are revalidated using a conditional
+ * request ({@code If-None-Match} / {@code If-Modified-Since}) and the cached data is used when
+ * the server responds with {@code 304 Not Modified}. When the server cannot be contacted at all,
+ * the stale cached data is used. The cached data is read through memory-mapped buffers.
+ *
+ * The network access is performed using {@link HttpClientDocumentSource}; the non-HTTP URLs are
+ * passed to it without caching. The class may be registered using
+ * {@code config.registerDocumentSource(CachingDocumentSource.class)}. In that case, the cache
+ * configured using {@link #setDefaultCache(DiskResourceCache)} is used.
+ *
+ * @author burgetr
+ */
+public class CachingDocumentSource extends DocumentSource
+{
+    private static Logger log = LoggerFactory.getLogger(CachingDocumentSource.class);
+
+    /** Default maximal size of the default cache */
+    public static final long DEFAULT_CACHE_SIZE = 512L * 1024 * 1024;
+
+    private static DiskResourceCache defaultCache;
+
+    private final DiskResourceCache cache;
+    private final NetworkSettings settings;
+    private final URL url;
+    private HttpClientDocumentSource source; //the network source when the cache is not used
+    private DiskResourceCache.Entry entry; //the cache entry when the cache is used
+    private InputStream is;
+
+
+    /**
+     * Creates a document source using the default cache.
+     * @param url the document URL
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL url) throws IOException
+    {
+        this(url, getDefaultCache());
+    }
+
+    /**
+     * Creates a document source using the default cache. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(base, urlstring, getDefaultCache());
+    }
+
+    /**
+     * Creates a document source using the default cache and the given connection settings.
+     * @param url the document URL
+     * @param settings the settings of the network connections
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL url, NetworkSettings settings) throws IOException
+    {
+        this(url, getDefaultCache(), settings);
+    }
+
+    /**
+     * Creates a document source using the default cache and the given connection settings.
+     * The data: urls are automatically recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param settings the settings of the network connections
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL base, String urlstring, NetworkSettings settings) throws IOException
+    {
+        this(base, urlstring, getDefaultCache(), settings);
+    }
+
+    /**
+     * Creates a document source using the given cache.
+     * @param url the document URL
+     * @param cache the cache to be used
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL url, DiskResourceCache cache) throws IOException
+    {
+        this(url, cache, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a document source using the given cache and connection settings.
+     * @param url the document URL
+     * @param cache the cache to be used
+     * @param settings the settings of the network connections
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL url, DiskResourceCache cache, NetworkSettings settings) throws IOException
+    {
+        super(url);
+        this.cache = cache;
+        this.settings = settings;
+        this.url = url;
+    }
+
+    /**
+     * Creates a document source using the given cache. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param cache the cache to be used
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL base, String urlstring, DiskResourceCache cache) throws IOException
+    {
+        this(base, urlstring, cache, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a document source using the given cache and connection settings. The data: urls
+     * are automatically recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param cache the cache to be used
+     * @param settings the settings of the network connections
+     * @throws IOException
+     */
+    public CachingDocumentSource(URL base, String urlstring, DiskResourceCache cache, NetworkSettings settings) throws IOException
+    {
+        super(base, urlstring);
+        this.cache = cache;
+        this.settings = settings;
+        this.url = DataURLHandler.createURL(base, urlstring);
+    }
+
+    /**
+     * Obtains the cache used by the document sources created without specifying the cache.
+     * When no cache has been configured, a cache in the {@code cssbox-cache} subdirectory
+     * of the system temporary directory is created.
+     * @return the default cache
+     * @throws IOException when the default cache cannot be created
+     */
+    public static synchronized DiskResourceCache getDefaultCache() throws IOException
+    {
+        if (defaultCache == null)
+        {
+            final Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "cssbox-cache");
+            defaultCache = new DiskResourceCache(dir, DEFAULT_CACHE_SIZE);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Configures the cache used by the document sources created without specifying the cache.
+     * @param cache the new default cache
+     */
+    public static synchronized void setDefaultCache(DiskResourceCache cache)
+    {
+        defaultCache = cache;
+    }
+
+    public DiskResourceCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Checks whether the document is served from the cache.
+     * @return {@code true} when the cached data is used
+     * @throws IOException
+     */
+    public boolean isCached() throws IOException
+    {
+        resolve();
+        return entry != null;
+    }
+
+    @Override
+    public URL getURL()
+    {
+        try {
+            resolve();
+        } catch (IOException e) {
+            return url;
+        }
+        return (entry != null) ? entry.getFinalURL() : source.getURL();
+    }
+
+    @Override
+    public String getContentType()
+    {
+        try {
+            resolve();
+        } catch (IOException e) {
+            return null;
+        }
+        return (entry != null) ? entry.getContentType() : source.getContentType();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (is == null)
+        {
+            resolve();
+            if (entry != null)
+                is = new ByteBufferInputStream(entry.map());
+            else
+                is = source.getInputStream();
+        }
+        return is;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (is != null)
+            is.close();
+        if (source != null)
+            source.close();
+    }
+
+    //====================================================================================
+
+    /**
+     * Decides whether to use the cache or the network source and revalidates or updates
+     * the cache entry when necessary.
+     */
+    private void resolve() throws IOException
+    {
+        if (entry != null || source != null)
+            return; //already resolved
+        if (!isHttp(url))
+        {
+            source = new HttpClientDocumentSource(url, settings);
+            return;
+        }
+
+        final DiskResourceCache.Entry cached = cache.lookup(url);
+        if (cached != null && cached.isFresh())
+        {
+            entry = cached;
+            return;
+        }
+        //concurrent requests for the same URL share a single revalidation or download
+        entry = cache.fetches.execute(url.toExternalForm(), this::fetch);
+        if (entry == null && source == null)
+            source = new HttpClientDocumentSource(url, settings); //the shared response was not cacheable
+    }
+
+    /**
+     * Revalidates or downloads the resource and updates the cache.
+     * @return the cache entry to be used or {@code null} when the response is not cacheable. In that
+     * case, the network source is used directly.
+     */
+    private DiskResourceCache.Entry fetch() throws IOException
+    {
+        final DiskResourceCache.Entry cached = cache.lookup(url);
+        if (cached != null && cached.isFresh())
+            return cached; //updated by a concurrent request meanwhile
+
+        final HttpClientDocumentSource src = createSource(url, cached);
+        final int status;
+        try {
+            status = src.getStatusCode();
+        } catch (IOException e) {
+            src.close();
+            if (cached != null)
+            {
+                log.warn("Using stale cache entry for {}: {}", url, e.getMessage());
+                return cached;
+            }
+            throw e;
+        }
+
+        if (status == 304 && cached != null)
+        {
+            src.close();
+            return cache.updateExpiration(cached, getExpiration(src));
+        }
+        else if (status == 200 && isStorable(src))
+        {
+            try {
+                return cache.store(url, src.getURL(), src.getContentType(),
+                        src.getHeader("ETag"), src.getHeader("Last-Modified"),
+                        getExpiration(src), src.getInputStream());
+            } finally {
+                src.close();
+            }
+        }
+        else
+        {
+            source = src; //not cacheable, pass the response directly
+            return null;
+        }
+    }
+
+    /**
+     * Creates the network source for the given URL that sends the conditional request headers
+     * for the existing cache entry.
+     * @param url the target URL
+     * @param cached the existing cache entry or {@code null}
+     * @return the created source
+     * @throws IOException
+     */
+    protected HttpClientDocumentSource createSource(URL url, final DiskResourceCache.Entry cached) throws IOException
+    {
+        return new HttpClientDocumentSource(url, settings) {
+            @Override
+            protected HttpRequest.Builder createRequest(URL url) throws IOException
+            {
+                final HttpRequest.Builder ret = super.createRequest(url);
+                if (cached != null)
+                {
+                    if (cached.getETag() != null)
+                        ret.header("If-None-Match", cached.getETag());
+                    if (cached.getLastModified() != null)
+                        ret.header("If-Modified-Since", cached.getLastModified());
+                }
+                return ret;
+            }
+        };
+    }
+
+    private static boolean isStorable(HttpClientDocumentSource src) throws IOException
+    {
+        final String cc = src.getHeader("Cache-Control");
+        return cc == null || !cc.toLowerCase().contains("no-store");
+    }
+
+    /**
+     * Computes the expiration time of the response using the {@code Cache-Control} header.
+     * The responses without {@code max-age} are revalidated on every use.
+     */
+    private static long getExpiration(HttpClientDocumentSource src) throws IOException
+    {
+        final String cc = src.getHeader("Cache-Control");
+        if (cc != null)
+        {
+            long maxAge = 0;
+            for (String directive : cc.toLowerCase().split(","))
+            {
+                directive = directive.trim();
+                if (directive.equals("no-cache"))
+                    return 0;
+                else if (directive.startsWith("max-age="))
+                {
+                    try {
+                        maxAge = Long.parseLong(directive.substring(8).replace("\"", "").trim());
+                    } catch (NumberFormatException e) {
+                        maxAge = 0;
+                    }
+                }
+            }
+            if (maxAge > 0)
+                return System.currentTimeMillis() + maxAge * 1000;
+        }
+        return 0;
+    }
+
+    private static boolean isHttp(URL url)
+    {
+        final String protocol = url.getProtocol();
+        return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+    }
+
+}
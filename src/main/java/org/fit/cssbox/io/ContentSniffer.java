@@ -0,0 +1,160 @@
+/*
+ * ContentSniffer.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content type and character encoding detection for the document sources that do not obtain
+ * the content type from a server.
+ *
+ * @author burgetr
+ */
+class ContentSniffer
+{
+    /** The number of bytes examined when detecting the content type and encoding */
+    private static final int SNIFF_LENGTH = 1024;
+
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?([A-Za-z0-9_\\-:.]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern XML_ENCODING = Pattern.compile(
+            "^<\\?xml[^>]+encoding\\s*=\\s*[\"']([A-Za-z0-9_\\-:.]+)[\"']");
+
+    /**
+     * Detects the content type and the character encoding based on the file name and the
+     * beginning of the data. The files with a known text extension are always treated as text.
+     * For the remaining files, the binary formats are recognized by their signatures; the short
+     * signatures that may appear at the beginning of a text are only used when the type cannot
+     * be guessed from the file name.
+     * @param name the file name
+     * @param data the file data
+     * @return the content type possibly including the charset parameter or {@code null}
+     * when it cannot be detected
+     */
+    public static String detectContentType(String name, ByteBuffer data)
+    {
+        final int len = Math.min(SNIFF_LENGTH, data.remaining());
+        final byte[] head = new byte[len];
+        data.duplicate().get(head);
+
+        final String lname = name.toLowerCase(Locale.ROOT);
+        String type;
+        if (lname.endsWith(".css"))
+            type = "text/css";
+        else if (lname.endsWith(".svg"))
+            type = "image/svg+xml";
+        else if (lname.endsWith(".xhtml") || lname.endsWith(".xht"))
+            type = "application/xhtml+xml";
+        else
+            type = URLConnection.guessContentTypeFromName(name);
+
+        if (!isText(type))
+        {
+            final String binary = sniffBinaryType(head, type == null);
+            if (binary != null)
+                return binary;
+        }
+
+        final String text = new String(head, StandardCharsets.ISO_8859_1);
+        if (type == null)
+        {
+            final String start = text.stripLeading().toLowerCase(Locale.ROOT);
+            if (start.startsWith("<!doctype html") || start.startsWith("<html") || start.startsWith("<head"))
+                type = "text/html";
+            else if (start.startsWith("<?xml"))
+                type = "application/xml";
+        }
+        if (isText(type))
+        {
+            final String charset = detectCharset(head, text);
+            if (charset != null)
+                type = type + "; charset=" + charset;
+        }
+        return type;
+    }
+
+    private static boolean isText(String type)
+    {
+        return type != null && (type.startsWith("text/") || type.endsWith("xml"));
+    }
+
+    /**
+     * Recognizes the binary formats by their signatures.
+     * @param h the beginning of the data
+     * @param weak use also the short signatures (two or four bytes that may appear in a text file)
+     * @return the content type or {@code null} when not recognized
+     */
+    private static String sniffBinaryType(byte[] h, boolean weak)
+    {
+        if (startsWith(h, 0x89, 'P', 'N', 'G'))
+            return "image/png";
+        else if (startsWith(h, 0xff, 0xd8, 0xff))
+            return "image/jpeg";
+        else if (startsWith(h, 'G', 'I', 'F', '8'))
+            return "image/gif";
+        else if (startsWith(h, 'R', 'I', 'F', 'F') && h.length >= 12 && h[8] == 'W' && h[9] == 'E' && h[10] == 'B' && h[11] == 'P')
+            return "image/webp";
+        else if (startsWith(h, 'w', 'O', 'F', 'F'))
+            return "font/woff";
+        else if (startsWith(h, 'w', 'O', 'F', '2'))
+            return "font/woff2";
+        else if (startsWith(h, 'O', 'T', 'T', 'O'))
+            return "font/otf";
+        else if (weak && startsWith(h, 'B', 'M'))
+            return "image/bmp";
+        else if (weak && (startsWith(h, 0x00, 0x01, 0x00, 0x00) || startsWith(h, 't', 'r', 'u', 'e')))
+            return "font/ttf";
+        else
+            return null;
+    }
+
+    private static String detectCharset(byte[] h, String text)
+    {
+        if (startsWith(h, 0xef, 0xbb, 0xbf))
+            return "utf-8";
+        else if (startsWith(h, 0xfe, 0xff))
+            return "utf-16be";
+        else if (startsWith(h, 0xff, 0xfe))
+            return "utf-16le";
+        Matcher m = XML_ENCODING.matcher(text);
+        if (m.find())
+            return m.group(1).toLowerCase(Locale.ROOT);
+        m = META_CHARSET.matcher(text);
+        if (m.find())
+            return m.group(1).toLowerCase(Locale.ROOT);
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix)
+    {
+        if (data.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if ((data[i] & 0xff) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * DOMSourceFactory.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+/**
+ * A factory that creates the DOM sources (parsers) for the document sources. The factory is used
+ * through the {@link org.fit.cssbox.layout.BrowserConfig}. It may carry any shared state (e.g.
+ * a parser configuration) that is passed to the created sources. The factory may be used from
+ * several threads at the same time.
+ *
+ * @author burgetr
+ */
+@FunctionalInterface
+public interface DOMSourceFactory
+{
+
+    /**
+     * Creates a DOM source for the given document source.
+     * @param src the document source to be parsed
+     * @return the created DOM source
+     */
+    public DOMSource createDOMSource(DocumentSource src);
+
+}
@@ -0,0 +1,252 @@
+/*
+ * DataURLDocumentSource.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+
+import org.fit.net.DataURLHandler;
+
+/**
+ * A document source for the data: URLs (RFC 2397). Unlike the connections created by
+ * {@link DataURLHandler}, the data is not decoded in advance; the input stream decodes the Base64
+ * or percent-encoded data directly from the URL string while it is being read so that no full-size
+ * copies of the data are created. The other document sources use this class for the data: URLs.
+ *
+ * @author burgetr
+ */
+public class DataURLDocumentSource extends DocumentSource
+{
+    private final URL url;
+    private final String data; //the URL string containing the data
+    private final int dataStart; //the index of the first data character
+    private final String mimeType;
+    private final String charset;
+    private final boolean base64;
+    private InputStream is;
+
+
+    /**
+     * Creates a document source for a data: URL.
+     * @param url the data: URL
+     * @throws IOException when the URL is not a valid data: URL
+     */
+    public DataURLDocumentSource(URL url) throws IOException
+    {
+        super(url);
+        this.url = url;
+        if (!isDataURL(url))
+            throw new MalformedURLException("Not a data: URL: " + url);
+        //the path contains everything after 'data:' unless there are '?' or '#' characters in the data
+        String str = url.getPath();
+        if (url.getQuery() != null)
+            str = str + "?" + url.getQuery();
+        if (url.getRef() != null)
+            str = str + "#" + url.getRef();
+        data = str;
+
+        final int comma = data.indexOf(',');
+        if (comma == -1)
+            throw new MalformedURLException("Invalid data: URL, missing ','");
+        dataStart = comma + 1;
+        //parse the media type and parameters
+        String mime = null;
+        String cs = null;
+        boolean b64 = false;
+        final String[] params = data.substring(0, comma).split(";");
+        for (int i = 0; i < params.length; i++)
+        {
+            final String p = params[i].trim();
+            if (i == 0 && p.indexOf('/') != -1)
+                mime = p.toLowerCase(Locale.ROOT);
+            else if (p.equalsIgnoreCase("base64"))
+                b64 = true;
+            else if (p.toLowerCase(Locale.ROOT).startsWith("charset="))
+                cs = p.substring("charset=".length()).trim();
+        }
+        if (mime == null)
+        {
+            mime = "text/plain";
+            if (cs == null)
+                cs = "US-ASCII";
+        }
+        mimeType = mime;
+        charset = cs;
+        base64 = b64;
+    }
+
+    /**
+     * Creates a document source for a data: URL string.
+     * @param base the base URL (not used for the data: URLs)
+     * @param urlstring the URL string
+     * @throws IOException when the URL is not a valid data: URL
+     */
+    public DataURLDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(DataURLHandler.createURL(base, urlstring));
+    }
+
+    /**
+     * Checks whether the URL is a data: URL.
+     * @param url the URL to check
+     * @return {@code true} for the data: URLs
+     */
+    public static boolean isDataURL(URL url)
+    {
+        return "data".equalsIgnoreCase(url.getProtocol());
+    }
+
+    public String getMimeType()
+    {
+        return mimeType;
+    }
+
+    public String getCharset()
+    {
+        return charset;
+    }
+
+    public boolean isBase64()
+    {
+        return base64;
+    }
+
+    @Override
+    public URL getURL()
+    {
+        return url;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return (charset == null) ? mimeType : mimeType + "; charset=" + charset;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (is == null)
+        {
+            if (base64)
+                is = new Base64DecodingInputStream(data, dataStart, data.length());
+            else
+                is = new PercentDecodingInputStream(data, dataStart, data.length(), getEncodingCharset());
+        }
+        return is;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (is != null)
+            is.close();
+    }
+
+    private Charset getEncodingCharset()
+    {
+        if (charset != null)
+        {
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                //use the default below
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    //=========================================================================
+
+    /**
+     * A stream that decodes the percent-encoded URL data. The unencoded non-ASCII characters
+     * are encoded using the given charset.
+     */
+    private static class PercentDecodingInputStream extends InputStream
+    {
+        private final CharSequence src;
+        private final int end;
+        private final Charset charset;
+        private int pos;
+        private byte[] pending; //the encoded bytes of a non-ASCII character
+        private int pendingPos;
+
+        public PercentDecodingInputStream(CharSequence src, int start, int end, Charset charset)
+        {
+            this.src = src;
+            this.pos = start;
+            this.end = end;
+            this.charset = charset;
+        }
+
+        @Override
+        public int read()
+        {
+            if (pending != null)
+            {
+                final int b = pending[pendingPos++] & 0xff;
+                if (pendingPos >= pending.length)
+                    pending = null;
+                return b;
+            }
+            if (pos >= end)
+                return -1;
+            final char c = src.charAt(pos++);
+            if (c == '%' && pos + 1 < end)
+            {
+                final int hi = Character.digit(src.charAt(pos), 16);
+                final int lo = Character.digit(src.charAt(pos + 1), 16);
+                if (hi >= 0 && lo >= 0)
+                {
+                    pos += 2;
+                    return (hi << 4) | lo;
+                }
+            }
+            if (c < 128)
+                return c;
+            //non-ASCII character: encode it (including a possible surrogate pair)
+            int cend = pos;
+            if (Character.isHighSurrogate(c) && cend < end && Character.isLowSurrogate(src.charAt(cend)))
+                cend++;
+            final byte[] bytes = src.subSequence(pos - 1, cend).toString().getBytes(charset);
+            pos = cend;
+            if (bytes.length == 0)
+                return read();
+            if (bytes.length > 1)
+            {
+                pending = bytes;
+                pendingPos = 1;
+            }
+            return bytes[0] & 0xff;
+        }
+
+        @Override
+        public int available()
+        {
+            return (pending != null ? pending.length - pendingPos : 0) + (end - pos) / 3;
+        }
+    }
+
+}
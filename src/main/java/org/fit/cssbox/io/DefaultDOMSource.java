@@ -21,6 +21,7 @@ package org.fit.cssbox.io;
 
 import java.io.IOException;
 
+import org.fit.cssbox.jfr.ParseEvent;
 import org.htmlunit.cyberneko.html.dom.HTMLDocumentImpl;
 import org.htmlunit.cyberneko.parsers.DOMParser;
 import org.w3c.dom.Document;
@@ -41,11 +42,20 @@ public class DefaultDOMSource extends DOMSource
     @Override
     public Document parse() throws SAXException, IOException
     {
+        final ParseEvent event = new ParseEvent();
+        event.begin();
         DOMParser parser = new DOMParser(HTMLDocumentImpl.class);
         parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
         if (charset != null)
             parser.setProperty("http://cyberneko.org/html/properties/default-encoding", charset);
         parser.parse(new org.xml.sax.InputSource(getDocumentSource().getInputStream()));
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.setURL(getDocumentSource().getURL());
+            event.charset = charset;
+            event.commit();
+        }
         return parser.getDocument();
     }
 
@@ -28,16 +28,17 @@ import org.fit.net.DataURLHandler;
 
 /**
  * This class implements the document source with the standard {@link java.net.URLConnection}
- * with an additional support for the data: URLs.
+ * with an additional support for the data: URLs. The user-agent string is taken from
+ * the {@link NetworkSettings} passed to the constructor (the default settings are used
+ * when not specified).
  *  
  * @author burgetr
  */
 public class DefaultDocumentSource extends DocumentSource
 {
-    /** The user-agent string used for HTTP connection */
-    private static String USER_AGENT = "Mozilla/5.0 (compatible; BoxBrowserTest/4.x; Linux) CSSBox/4.x (like Gecko)";
-
+    private final NetworkSettings settings;
     private URLConnection con;
+    private DataURLDocumentSource dataSource; //used for the data: URLs instead of the connection
     private InputStream is;
     
     /**
@@ -46,10 +47,21 @@ public class DefaultDocumentSource extends DocumentSource
      * @throws IOException
      */
     public DefaultDocumentSource(URL url) throws IOException
+    {
+        this(url, NetworkSettings.getDefault());
+    }
+    
+    /**
+     * Creates a network data source based on the target document URL.
+     * @param url the document URL
+     * @param settings the connection settings
+     * @throws IOException
+     */
+    public DefaultDocumentSource(URL url, NetworkSettings settings) throws IOException
     {
         super(url);
-        con = createConnection(url);
-        is = null;
+        this.settings = settings;
+        init(url);
     }
     
     /**
@@ -60,10 +72,7 @@ public class DefaultDocumentSource extends DocumentSource
      */
     public DefaultDocumentSource(String urlstring) throws IOException
     {
-        super(null, urlstring);
-        URL url = DataURLHandler.createURL(null, urlstring);
-        con = createConnection(url);
-        is = null;
+        this(null, urlstring);
     }
     
     /**
@@ -74,10 +83,31 @@ public class DefaultDocumentSource extends DocumentSource
      * @throws IOException
      */
     public DefaultDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(base, urlstring, NetworkSettings.getDefault());
+    }
+    
+    /**
+     * Creates a data source based on the URL string. The data: urls are automatically
+     * recognized and  processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param settings the connection settings
+     * @throws IOException
+     */
+    public DefaultDocumentSource(URL base, String urlstring, NetworkSettings settings) throws IOException
     {
         super(base, urlstring);
-        URL url = DataURLHandler.createURL(base, urlstring);
-        con = createConnection(url);
+        this.settings = settings;
+        init(DataURLHandler.createURL(base, urlstring));
+    }
+    
+    private void init(URL url) throws IOException
+    {
+        if (DataURLDocumentSource.isDataURL(url))
+            dataSource = new DataURLDocumentSource(url); //decode the data while reading
+        else
+            con = createConnection(url);
         is = null;
     }
     
@@ -90,46 +120,37 @@ public class DefaultDocumentSource extends DocumentSource
     protected URLConnection createConnection(URL url) throws IOException
     {
         URLConnection con = url.openConnection();
-        con.setRequestProperty("User-Agent", USER_AGENT);
+        con.setRequestProperty("User-Agent", settings.getUserAgent());
         return con;
     }
     
     @Override
     public URL getURL()
     {
-        return con.getURL();
+        return (dataSource != null) ? dataSource.getURL() : con.getURL();
     }
     
     @Override
     public InputStream getInputStream() throws IOException
     {
         if (is == null)
-            is = con.getInputStream();
+            is = (dataSource != null) ? dataSource.getInputStream() : con.getInputStream();
         return is;
     }
     
     @Override
     public String getContentType()
     {
-        return con.getHeaderField("Content-Type");
-    }
-
-    /**
-     * Obtains the current User-agent string used for new connections.
-     * @return the user-agent string.
-     */
-    public static String getUserAgent()
-    {
-        return USER_AGENT;
+        return (dataSource != null) ? dataSource.getContentType() : con.getHeaderField("Content-Type");
     }
 
     /**
-     * Sets the user agent string that will be used for new connections.
-     * @param userAgent the user-agent string
+     * Obtains the connection settings used by this source.
+     * @return the settings
      */
-    public static void setUserAgent(String userAgent)
+    public NetworkSettings getSettings()
     {
-        USER_AGENT = userAgent;
+        return settings;
     }
 
     @Override
@@ -0,0 +1,533 @@
+/*
+ * DiskResourceCache.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.fit.cssbox.misc.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent cache of HTTP resources stored in a local directory. For each URL, the response body
+ * is stored in a data file and the response metadata (content type, validators, expiration) in
+ * a metadata file. The total size of the stored data is bounded; the least recently used entries
+ * are removed when the limit is exceeded. The access order is persisted using the modification
+ * time of the data files so that it survives between the runs.
+ *
+ * The cached data is read using memory-mapped buffers. The entries that have been used are kept
+ * in memory together with their buffers so that every data file is mapped only once; the mapping
+ * is released when the entry is removed from the cache and not used anymore. The cache is thread-safe and a single
+ * instance may be shared by any number of document sources. However, the cache directory
+ * should not be used by several cache instances at the same time.
+ *
+ * @see CachingDocumentSource
+ * @author burgetr
+ */
+public class DiskResourceCache
+{
+    private static Logger log = LoggerFactory.getLogger(DiskResourceCache.class);
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+
+    private final Path directory;
+    private final long maxBytes;
+    /** The stored entries and their sizes in the access order */
+    private final LinkedHashMap<String, Long> index;
+    /** The entries that have been read or stored, they share the mapped buffers */
+    private final Map<String, Entry> entries;
+    private long totalBytes;
+    /** The running downloads and revalidations shared by the concurrent document sources */
+    final SingleFlight<String, Entry> fetches;
+
+
+    /**
+     * Creates a cache in the given directory. The directory is created when it does not exist,
+     * the existing entries are loaded and the cache is trimmed to the given size.
+     * @param directory the cache directory
+     * @param maxBytes the maximal total size of the cached data
+     * @throws IOException when the cache directory cannot be created or read
+     */
+    public DiskResourceCache(Path directory, long maxBytes) throws IOException
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.index = new LinkedHashMap<>(256, 0.75f, true);
+        this.entries = new HashMap<>();
+        this.fetches = new SingleFlight<>();
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Obtains the total size of the cached data.
+     * @return the size in bytes
+     */
+    public synchronized long getSize()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Obtains the number of cached entries.
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount()
+    {
+        return index.size();
+    }
+
+    /**
+     * Finds the cache entry for the given URL.
+     * @param url the resource URL
+     * @return the entry or {@code null} when the URL is not cached
+     */
+    public Entry lookup(URL url)
+    {
+        final String key = getKey(url);
+        Entry entry;
+        synchronized (this)
+        {
+            if (index.get(key) == null)
+                return null;
+            entry = entries.get(key);
+        }
+        try {
+            if (entry == null)
+            {
+                final Entry read = readEntry(key);
+                synchronized (this)
+                {
+                    if (index.get(key) == null)
+                        return null; //removed meanwhile
+                    entry = entries.putIfAbsent(key, read);
+                    if (entry == null)
+                        entry = read;
+                }
+            }
+            touch(entry);
+            return entry;
+        } catch (IOException e) {
+            log.warn("Removing unreadable cache entry for {}: {}", url, e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a new resource in the cache, replacing the existing entry for the same URL.
+     * The input stream is read completely but it is not closed.
+     * @param url the requested URL
+     * @param finalUrl the final resource URL after redirects
+     * @param contentType the content type or {@code null} when unknown
+     * @param etag the ETag validator or {@code null}
+     * @param lastModified the Last-Modified validator or {@code null}
+     * @param expires the expiration time in milliseconds (the entry is used without revalidation until then)
+     * @param data the resource data
+     * @return the stored entry
+     * @throws IOException
+     */
+    public Entry store(URL url, URL finalUrl, String contentType, String etag, String lastModified,
+            long expires, InputStream data) throws IOException
+    {
+        final String key = getKey(url);
+        final Path tmpData = Files.createTempFile(directory, key, ".tmp");
+        final Path tmpMeta = Files.createTempFile(directory, key, ".tmp");
+        try {
+            final long size;
+            try (OutputStream out = Files.newOutputStream(tmpData))
+            {
+                size = data.transferTo(out);
+            }
+            final Entry entry = new Entry(key, getDataPath(key), url, finalUrl, contentType, etag, lastModified, expires, size);
+            try (Writer w = Files.newBufferedWriter(tmpMeta, StandardCharsets.UTF_8))
+            {
+                entry.toProperties().store(w, null);
+            }
+            synchronized (this)
+            {
+                Files.move(tmpData, getDataPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpMeta, getMetaPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                final Long prev = index.put(key, size);
+                if (prev != null)
+                    totalBytes -= prev;
+                totalBytes += size;
+                entry.map(); //keep the data available even if the entry gets evicted
+                entries.put(key, entry);
+                evict();
+            }
+            return entry;
+        } finally {
+            Files.deleteIfExists(tmpData);
+            Files.deleteIfExists(tmpMeta);
+        }
+    }
+
+    /**
+     * Updates the expiration time of an existing entry, e.g. after a successful revalidation.
+     * @param entry the entry to be updated
+     * @param expires the new expiration time in milliseconds
+     * @return the updated entry
+     * @throws IOException
+     */
+    public Entry updateExpiration(Entry entry, long expires) throws IOException
+    {
+        final Entry updated = new Entry(entry.key, entry.dataFile, entry.url, entry.finalUrl, entry.contentType,
+                entry.etag, entry.lastModified, expires, entry.size);
+        updated.buffer = entry.getBuffer(); //the same data file, reuse the mapping
+        final Path tmpMeta = Files.createTempFile(directory, entry.key, ".tmp");
+        try {
+            try (Writer w = Files.newBufferedWriter(tmpMeta, StandardCharsets.UTF_8))
+            {
+                updated.toProperties().store(w, null);
+            }
+            synchronized (this)
+            {
+                if (index.get(entry.key) != null)
+                {
+                    Files.move(tmpMeta, getMetaPath(entry.key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    entries.put(entry.key, updated);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmpMeta);
+        }
+        return updated;
+    }
+
+    /**
+     * Removes the entry for the given URL.
+     * @param url the resource URL
+     */
+    public void remove(URL url)
+    {
+        remove(getKey(url));
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public synchronized void clear()
+    {
+        for (String key : new ArrayList<>(index.keySet()))
+            remove(key);
+    }
+
+    //=========================================================================
+
+    private void loadIndex() throws IOException
+    {
+        final List<Path> dataFiles = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory))
+        {
+            for (Path p : ds)
+            {
+                final String name = p.getFileName().toString();
+                if (name.endsWith(".tmp"))
+                    Files.deleteIfExists(p); //an interrupted store
+                else if (name.endsWith(DATA_SUFFIX))
+                {
+                    final String key = name.substring(0, name.length() - DATA_SUFFIX.length());
+                    if (Files.exists(getMetaPath(key)))
+                        dataFiles.add(p);
+                    else
+                        Files.deleteIfExists(p);
+                }
+            }
+        }
+        //the least recently used first
+        final Map<Path, Long> times = new LinkedHashMap<>();
+        for (Path p : dataFiles)
+            times.put(p, Files.getLastModifiedTime(p).toMillis());
+        dataFiles.sort((a, b) -> Long.compare(times.get(a), times.get(b)));
+        synchronized (this)
+        {
+            for (Path p : dataFiles)
+            {
+                final String name = p.getFileName().toString();
+                final long size = Files.size(p);
+                index.put(name.substring(0, name.length() - DATA_SUFFIX.length()), size);
+                totalBytes += size;
+            }
+            evict();
+        }
+    }
+
+    private Entry readEntry(String key) throws IOException
+    {
+        final Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(getMetaPath(key), StandardCharsets.UTF_8))
+        {
+            props.load(r);
+        } catch (NoSuchFileException e) {
+            throw new IOException("Missing metadata", e);
+        }
+        return Entry.fromProperties(key, getDataPath(key), props);
+    }
+
+    private void touch(Entry entry)
+    {
+        try {
+            Files.setLastModifiedTime(getDataPath(entry.key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //the access time is only used for eviction, ignore
+        }
+    }
+
+    private synchronized void remove(String key)
+    {
+        final Long size = index.remove(key);
+        if (size != null)
+            totalBytes -= size;
+        entries.remove(key);
+        deleteFiles(key);
+    }
+
+    /**
+     * Removes the least recently used entries until the size limit is met. The most recently
+     * stored entry is kept even when it exceeds the limit itself so that it may be served.
+     */
+    private void evict()
+    {
+        final Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && index.size() > 1 && it.hasNext())
+        {
+            final Map.Entry<String, Long> e = it.next();
+            totalBytes -= e.getValue();
+            it.remove();
+            entries.remove(e.getKey());
+            deleteFiles(e.getKey());
+        }
+    }
+
+    private void deleteFiles(String key)
+    {
+        try {
+            Files.deleteIfExists(getMetaPath(key));
+            Files.deleteIfExists(getDataPath(key));
+        } catch (IOException e) {
+            log.warn("Could not delete cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private Path getDataPath(String key)
+    {
+        return directory.resolve(key + DATA_SUFFIX);
+    }
+
+    private Path getMetaPath(String key)
+    {
+        return directory.resolve(key + META_SUFFIX);
+    }
+
+    private static String getKey(URL url)
+    {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            final byte[] digest = md.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+                sb.append(Character.forDigit(b & 0x0f, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //SHA-256 is always available
+        }
+    }
+
+    //=========================================================================
+
+    /**
+     * A single cache entry.
+     */
+    public static class Entry
+    {
+        private final String key;
+        private final Path dataFile;
+        private final URL url;
+        private final URL finalUrl;
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+        private final long size;
+        private ByteBuffer buffer;
+
+        private Entry(String key, Path dataFile, URL url, URL finalUrl, String contentType, String etag,
+                String lastModified, long expires, long size)
+        {
+            this.key = key;
+            this.dataFile = dataFile;
+            this.url = url;
+            this.finalUrl = finalUrl;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.size = size;
+        }
+
+        public URL getURL()
+        {
+            return url;
+        }
+
+        public URL getFinalURL()
+        {
+            return finalUrl;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        public String getETag()
+        {
+            return etag;
+        }
+
+        public String getLastModified()
+        {
+            return lastModified;
+        }
+
+        public long getExpires()
+        {
+            return expires;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         * Checks whether the entry may be used without revalidation.
+         * @return {@code true} when the entry has not expired yet
+         */
+        public boolean isFresh()
+        {
+            return System.currentTimeMillis() < expires;
+        }
+
+        /**
+         * Checks whether the entry may be revalidated using a conditional request.
+         * @return {@code true} when the entry has a validator
+         */
+        public boolean hasValidator()
+        {
+            return etag != null || lastModified != null;
+        }
+
+        private synchronized ByteBuffer getBuffer()
+        {
+            return buffer;
+        }
+
+        /**
+         * Maps the cached data to the memory. The data file is mapped on the first call only.
+         * @return a read-only buffer containing the data
+         * @throws IOException when the data is not available anymore
+         */
+        public synchronized ByteBuffer map() throws IOException
+        {
+            if (buffer == null)
+            {
+                try (FileChannel ch = FileChannel.open(dataFile, StandardOpenOption.READ))
+                {
+                    if (ch.size() != size)
+                        throw new IOException("Cache entry size mismatch");
+                    buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            return buffer.duplicate();
+        }
+
+        private Properties toProperties()
+        {
+            final Properties props = new Properties();
+            props.setProperty("url", url.toExternalForm());
+            props.setProperty("finalUrl", finalUrl.toExternalForm());
+            if (contentType != null)
+                props.setProperty("contentType", contentType);
+            if (etag != null)
+                props.setProperty("etag", etag);
+            if (lastModified != null)
+                props.setProperty("lastModified", lastModified);
+            props.setProperty("expires", String.valueOf(expires));
+            props.setProperty("size", String.valueOf(size));
+            return props;
+        }
+
+        private static Entry fromProperties(String key, Path dataFile, Properties props) throws IOException
+        {
+            try {
+                return new Entry(key, dataFile,
+                        new URL(props.getProperty("url")),
+                        new URL(props.getProperty("finalUrl")),
+                        props.getProperty("contentType"),
+                        props.getProperty("etag"),
+                        props.getProperty("lastModified"),
+                        Long.parseLong(props.getProperty("expires")),
+                        Long.parseLong(props.getProperty("size")));
+            } catch (MalformedURLException | NumberFormatException | NullPointerException e) {
+                throw new IOException("Invalid cache metadata", e);
+            }
+        }
+    }
+
+}
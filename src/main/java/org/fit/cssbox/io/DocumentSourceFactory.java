@@ -0,0 +1,60 @@
+/*
+ * DocumentSourceFactory.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * A factory that creates the document sources used for obtaining the documents, style sheets,
+ * images and fonts. The factory is used through the {@link org.fit.cssbox.layout.BrowserConfig}.
+ * Unlike registering a document source class, the factory may carry any shared state (e.g.
+ * a connection pool, a cache or statistics) that is passed to the created sources:
+ * <pre>
+ * config.setDocumentSourceFactory((base, urlstring) -&gt; new CachingDocumentSource(base, urlstring, cache));
+ * </pre>
+ * The factory may be used from several threads at the same time.
+ *
+ * @author burgetr
+ */
+@FunctionalInterface
+public interface DocumentSourceFactory
+{
+
+    /**
+     * Creates a document source based on the URL string. The data: URLs should be supported as well.
+     * @param base the base URL to be used for the relative URLs in the urlstring (may be {@code null})
+     * @param urlstring the URL string
+     * @return the created document source
+     * @throws IOException when the document source cannot be created
+     */
+    public DocumentSource createDocumentSource(URL base, String urlstring) throws IOException;
+
+    /**
+     * Creates a document source for the given URL. The default implementation passes the URL
+     * string to {@link #createDocumentSource(URL, String)}.
+     * @param url the document URL
+     * @return the created document source
+     * @throws IOException when the document source cannot be created
+     */
+    public default DocumentSource createDocumentSource(URL url) throws IOException
+    {
+        return createDocumentSource(null, url.toExternalForm());
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * DocumentSourceNetworkProcessor.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.fit.cssbox.jfr.ResourceFetchEvent;
+
+import cz.vutbr.web.css.NetworkProcessor;
+
+/**
+ * A jStyleParser network processor that obtains the style sheets using a document source factory.
+ * It allows loading the external and imported style sheets through the same document sources
+ * (e.g. a cache or an archive) as the remaining resources:
+ * <pre>
+ * analyzer.setConfig(config);
+ * analyzer.getStyleSheets(media);
+ * </pre>
+ * The analyzer creates such a processor using {@link org.fit.cssbox.layout.BrowserConfig#createNetworkProcessor()}
+ * when a browser configuration is set and no processor is specified.
+ * When an executor is provided, the style sheets may be fetched in advance using {@link #prefetch(URL)}.
+ * The {@link org.fit.cssbox.css.DOMAnalyzer} prefetches all the linked style sheets of the document
+ * so that they are downloaded in parallel.
+ *
+ * @author burgetr
+ */
+public class DocumentSourceNetworkProcessor implements NetworkProcessor
+{
+    private final DocumentSourceFactory factory;
+    private final Executor executor;
+    /** The prefetched style sheets keyed by the URL string */
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> prefetched;
+
+
+    /**
+     * Creates a processor that fetches the style sheets when requested.
+     * @param factory the factory used for creating the document sources
+     */
+    public DocumentSourceNetworkProcessor(DocumentSourceFactory factory)
+    {
+        this(factory, null);
+    }
+
+    /**
+     * Creates a processor that is able to fetch the style sheets in advance.
+     * @param factory the factory used for creating the document sources
+     * @param executor the executor used for prefetching or {@code null} when the prefetching is disabled
+     */
+    public DocumentSourceNetworkProcessor(DocumentSourceFactory factory, Executor executor)
+    {
+        this.factory = factory;
+        this.executor = executor;
+        this.prefetched = new ConcurrentHashMap<>();
+    }
+
+    public DocumentSourceFactory getFactory()
+    {
+        return factory;
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Starts fetching the given URL in background. The subsequent {@link #fetch(URL)} of the same URL
+     * returns the prefetched data. When there is no executor, nothing is done.
+     * @param url the URL to fetch
+     */
+    public void prefetch(URL url)
+    {
+        if (executor != null)
+        {
+            final CompletableFuture<byte[]> future = new CompletableFuture<>();
+            if (prefetched.putIfAbsent(url.toExternalForm(), future) == null)
+            {
+                try {
+                    executor.execute(() -> {
+                        final ResourceFetchEvent event = new ResourceFetchEvent();
+                        event.begin();
+                        try (DocumentSource src = factory.createDocumentSource(url)) {
+                            final byte[] data = src.getInputStream().readAllBytes();
+                            event.end();
+                            event.commit(url, ResourceFetchEvent.STYLESHEET, src.getContentType(), data.length, true);
+                            future.complete(data);
+                        } catch (Throwable e) {
+                            if (!future.isDone())
+                            {
+                                event.end();
+                                event.commit(url, ResourceFetchEvent.STYLESHEET, null, -1, false);
+                            }
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future.completeExceptionally(e); //fetch() will fetch it directly
+                }
+            }
+        }
+    }
+
+    @Override
+    public InputStream fetch(URL url) throws IOException
+    {
+        final CompletableFuture<byte[]> pending = prefetched.remove(url.toExternalForm());
+        if (pending != null)
+        {
+            try {
+                return new ByteArrayInputStream(pending.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                //otherwise try to fetch it directly
+            }
+        }
+        final ResourceFetchEvent event = new ResourceFetchEvent();
+        event.begin();
+        final DocumentSource src;
+        try {
+            src = factory.createDocumentSource(url);
+        } catch (IOException e) {
+            event.end();
+            event.commit(url, ResourceFetchEvent.STYLESHEET, null, -1, false);
+            throw e;
+        }
+        final InputStream is;
+        try {
+            is = src.getInputStream();
+        } catch (IOException e) {
+            try {
+                src.close();
+            } catch (IOException ce) {
+                e.addSuppressed(ce);
+            }
+            event.end();
+            event.commit(url, ResourceFetchEvent.STYLESHEET, null, -1, false);
+            throw e;
+        }
+        //close the document source together with the stream
+        return new FilterInputStream(is) {
+            private long bytes = 0;
+            private boolean closed = false;
+            
+            @Override
+            public int read() throws IOException
+            {
+                final int ret = super.read();
+                if (ret != -1)
+                    bytes++;
+                return ret;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                final int ret = super.read(b, off, len);
+                if (ret > 0)
+                    bytes += ret;
+                return ret;
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                if (closed)
+                    return;
+                closed = true;
+                final String contentType = src.getContentType();
+                try {
+                    super.close();
+                } finally {
+                    src.close();
+                    event.end();
+                    event.commit(url, ResourceFetchEvent.STYLESHEET, contentType, bytes, true);
+                }
+            }
+        };
+    }
+
+}
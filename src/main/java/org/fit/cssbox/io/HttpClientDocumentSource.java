@@ -0,0 +1,480 @@
+/*
+ * HttpClientDocumentSource.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.fit.net.DataURLHandler;
+
+/**
+ * A document source based on the {@link java.net.http.HttpClient}. The instances with the same
+ * connection timeout share a single client (see {@link NetworkSettings#getClient()}) so that
+ * the connections are pooled and reused across the individual documents, style sheets,
+ * images and fonts. HTTP/2 is used when supported by the server and the compressed (gzip or deflate)
+ * responses are decoded transparently; a response with an unsupported content encoding is reported
+ * as an error. The user-agent string and the timeouts are taken from the {@link NetworkSettings}
+ * passed to the constructor (the default settings are used when not specified). The read timeout limits both the time until the response headers are received and
+ * the time of waiting for every further part of the response body. The data: URLs are decoded using the {@link DataURLDocumentSource}
+ * and the other URL schemes (file:, jar:, ...) are processed using the standard {@link java.net.URLConnection}.
+ *
+ * The class may be used instead of the default document source by calling
+ * {@code config.registerDocumentSource(HttpClientDocumentSource.class)} on the browser configuration.
+ *
+ * @author burgetr
+ */
+public class HttpClientDocumentSource extends DocumentSource
+{
+    private final NetworkSettings settings;
+    private URL url;
+    private URLConnection con; //used for non-HTTP URLs
+    private DataURLDocumentSource dataSource; //used for the data: URLs
+    private HttpResponse<InputStream> response; //used for HTTP URLs
+    private InputStream is;
+
+
+    /**
+     * Creates a network data source based on the target document URL.
+     * @param url the document URL
+     * @throws IOException
+     */
+    public HttpClientDocumentSource(URL url) throws IOException
+    {
+        this(url, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a network data source based on the target document URL.
+     * @param url the document URL
+     * @param settings the connection settings
+     * @throws IOException
+     */
+    public HttpClientDocumentSource(URL url, NetworkSettings settings) throws IOException
+    {
+        super(url);
+        this.settings = settings;
+        init(url);
+    }
+
+    /**
+     * Creates a data source based on the URL string. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @throws IOException
+     */
+    public HttpClientDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(base, urlstring, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a data source based on the URL string. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param settings the connection settings
+     * @throws IOException
+     */
+    public HttpClientDocumentSource(URL base, String urlstring, NetworkSettings settings) throws IOException
+    {
+        super(base, urlstring);
+        this.settings = settings;
+        init(DataURLHandler.createURL(base, urlstring));
+    }
+
+    private void init(URL url) throws IOException
+    {
+        this.url = url;
+        if (DataURLDocumentSource.isDataURL(url))
+            dataSource = new DataURLDocumentSource(url); //decode the data while reading
+        else if (!isHttp(url))
+        {
+            con = url.openConnection();
+            con.setConnectTimeout((int) settings.getConnectTimeout().toMillis());
+            con.setReadTimeout((int) settings.getReadTimeout().toMillis());
+            con.setRequestProperty("User-Agent", settings.getUserAgent());
+        }
+    }
+
+    @Override
+    public URL getURL()
+    {
+        if (dataSource != null)
+            return dataSource.getURL();
+        else if (con != null)
+            return con.getURL();
+        else if (response != null)
+        {
+            try {
+                return response.uri().toURL(); //the final URL after redirects
+            } catch (MalformedURLException e) {
+                return url;
+            }
+        }
+        else
+            return url;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        if (dataSource != null)
+            return dataSource.getContentType();
+        else if (con != null)
+            return con.getHeaderField("Content-Type");
+        else
+        {
+            try {
+                return getResponse().headers().firstValue("Content-Type").orElse(null);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Obtains the HTTP status code of the response. The request is sent when it has not been sent yet.
+     * @return the status code or -1 for non-HTTP URLs
+     * @throws IOException
+     */
+    public int getStatusCode() throws IOException
+    {
+        if (con != null || dataSource != null)
+            return -1;
+        else
+            return getResponse().statusCode();
+    }
+
+    /**
+     * Obtains the value of a response header.
+     * @param name the header name
+     * @return the first header value or {@code null} when the header is not present
+     * @throws IOException
+     */
+    public String getHeader(String name) throws IOException
+    {
+        if (dataSource != null)
+            return "Content-Type".equalsIgnoreCase(name) ? dataSource.getContentType() : null;
+        else if (con != null)
+            return con.getHeaderField(name);
+        else
+            return getResponse().headers().firstValue(name).orElse(null);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (is == null)
+        {
+            if (dataSource != null)
+                is = dataSource.getInputStream();
+            else if (con != null)
+                is = con.getInputStream();
+            else
+            {
+                final HttpResponse<InputStream> resp = getResponse();
+                if (resp.statusCode() >= 400)
+                {
+                    resp.body().close();
+                    throw new IOException("Server returned HTTP response code: " + resp.statusCode() + " for URL: " + url);
+                }
+                try {
+                    is = decode(resp.body(), resp.headers().firstValue("Content-Encoding").orElse(null));
+                } catch (IOException e) {
+                    resp.body().close();
+                    throw e;
+                }
+            }
+        }
+        return is;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (is != null)
+            is.close();
+        else if (response != null)
+            response.body().close(); //release the connection
+    }
+
+    //====================================================================================
+
+    /**
+     * Obtains the connection settings used by this source.
+     * @return the settings
+     */
+    public NetworkSettings getSettings()
+    {
+        return settings;
+    }
+
+    //====================================================================================
+
+    /**
+     * Creates the HTTP request for the given URL. May be overriden in order to add
+     * further headers.
+     * @param url the target URL
+     * @return the request builder
+     * @throws IOException
+     */
+    protected HttpRequest.Builder createRequest(URL url) throws IOException
+    {
+        try {
+            return HttpRequest.newBuilder(url.toURI())
+                    .timeout(settings.getReadTimeout())
+                    .header("User-Agent", settings.getUserAgent())
+                    .header("Accept-Encoding", "gzip, deflate")
+                    .GET();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported URL: " + url, e);
+        }
+    }
+
+    private HttpResponse<InputStream> getResponse() throws IOException
+    {
+        if (response == null)
+        {
+            final HttpRequest request = createRequest(url).build();
+            try {
+                final Duration timeout = settings.getReadTimeout();
+                response = settings.getClient().send(request, info -> new BodyStream(timeout));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + url);
+            }
+        }
+        return response;
+    }
+
+    private static InputStream decode(InputStream body, String encoding) throws IOException
+    {
+        if (encoding == null)
+            return body;
+        encoding = encoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+            return new GZIPInputStream(body, 8192);
+        else if (encoding.equals("deflate"))
+        {
+            //the servers send either the zlib-wrapped or the raw deflate data
+            final PushbackInputStream pis = new PushbackInputStream(body, 2);
+            final byte[] head = new byte[2];
+            final int n = pis.readNBytes(head, 0, 2);
+            if (n > 0)
+                pis.unread(head, 0, n);
+            final boolean zlib = n == 2 && (head[0] & 0x0f) == 8 && (((head[0] & 0xff) << 8) | (head[1] & 0xff)) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(pis, inflater, 8192) {
+                @Override
+                public void close() throws IOException
+                {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        else if (encoding.isEmpty() || encoding.equals("identity"))
+            return body;
+        else
+            throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    private static boolean isHttp(URL url)
+    {
+        final String protocol = url.getProtocol();
+        return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+    }
+
+    //====================================================================================
+
+    /**
+     * A response body stream that receives the body parts from the HTTP client and limits the time
+     * of waiting for every part. When the timeout expires, the response is cancelled and the reading
+     * fails with a {@link SocketTimeoutException}.
+     */
+    private static class BodyStream extends InputStream implements HttpResponse.BodySubscriber<InputStream>
+    {
+        /** Marks the end of the body in the queue */
+        private static final List<ByteBuffer> END = new ArrayList<>(0);
+
+        private final long timeout; //milliseconds
+        private final BlockingQueue<List<ByteBuffer>> parts;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private Iterator<ByteBuffer> current;
+        private ByteBuffer buffer;
+        private boolean finished;
+        private boolean closed;
+
+        public BodyStream(Duration timeout)
+        {
+            this.timeout = timeout.toMillis();
+            this.parts = new LinkedBlockingQueue<>();
+            this.current = Collections.emptyIterator();
+        }
+
+        @Override
+        public CompletionStage<InputStream> getBody()
+        {
+            return CompletableFuture.completedFuture(this);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item)
+        {
+            parts.offer(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error = throwable;
+            parts.offer(END);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            parts.offer(END);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final ByteBuffer buf = nextBuffer();
+            return (buf == null) ? -1 : (buf.get() & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+            final ByteBuffer buf = nextBuffer();
+            if (buf == null)
+                return -1;
+            final int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (buffer == null) ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!closed)
+            {
+                closed = true;
+                if (!finished)
+                    cancel();
+            }
+        }
+
+        /**
+         * Obtains the buffer with the next data to be read.
+         * @return the buffer with some remaining data or {@code null} at the end of the body
+         */
+        private ByteBuffer nextBuffer() throws IOException
+        {
+            if (closed)
+                throw new IOException("Stream closed");
+            while (buffer == null || !buffer.hasRemaining())
+            {
+                if (current.hasNext())
+                    buffer = current.next();
+                else if (finished)
+                {
+                    if (error != null) //keep reporting the failure
+                        throw (error instanceof IOException) ? (IOException) error : new IOException(error);
+                    return null;
+                }
+                else
+                {
+                    final List<ByteBuffer> part;
+                    try {
+                        part = parts.poll(timeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading the response");
+                    }
+                    if (part == null)
+                    {
+                        error = new SocketTimeoutException("Read timed out");
+                        finished = true;
+                        cancel();
+                    }
+                    else if (part == END)
+                        finished = true;
+                    else
+                    {
+                        current = part.iterator();
+                        subscription.request(1);
+                    }
+                }
+            }
+            return buffer;
+        }
+
+        private void cancel()
+        {
+            final Flow.Subscription s = subscription;
+            if (s != null)
+                s.cancel();
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * MappedFileDocumentSource.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.fit.net.DataURLHandler;
+
+/**
+ * A document source optimized for local files. The {@code file:} URLs are mapped to the memory
+ * using {@link FileChannel#map} and the data is read directly from the mapped buffer without any
+ * intermediate copies. The content type and the character encoding are detected from the file
+ * name and the first bytes of the mapped data. The other URLs are processed using the
+ * {@link DefaultDocumentSource} so that the class may be registered as the only document source
+ * using {@code config.registerDocumentSource(MappedFileDocumentSource.class)}.
+ *
+ * @author burgetr
+ */
+public class MappedFileDocumentSource extends DocumentSource
+{
+    private final NetworkSettings settings; //the settings of the fallback source
+    private URL url;
+    private ByteBuffer data; //the mapped file or null for other URLs
+    private DocumentSource fallback; //the source used for non-file URLs
+    private String contentType;
+    private InputStream is;
+
+
+    /**
+     * Creates a document source for the given URL.
+     * @param url the document URL
+     * @throws IOException when the file cannot be mapped
+     */
+    public MappedFileDocumentSource(URL url) throws IOException
+    {
+        this(url, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a document source for the given URL.
+     * @param url the document URL
+     * @param settings the connection settings used for the non-file URLs
+     * @throws IOException when the file cannot be mapped
+     */
+    public MappedFileDocumentSource(URL url, NetworkSettings settings) throws IOException
+    {
+        super(url);
+        this.settings = settings;
+        init(url);
+    }
+
+    /**
+     * Creates a data source based on the URL string. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @throws IOException when the file cannot be mapped
+     */
+    public MappedFileDocumentSource(URL base, String urlstring) throws IOException
+    {
+        this(base, urlstring, NetworkSettings.getDefault());
+    }
+
+    /**
+     * Creates a data source based on the URL string. The data: urls are automatically
+     * recognized and processed.
+     * @param base The base URL to be used for the relative URLs in the urlstring
+     * @param urlstring The URL string
+     * @param settings the connection settings used for the non-file URLs
+     * @throws IOException when the file cannot be mapped
+     */
+    public MappedFileDocumentSource(URL base, String urlstring, NetworkSettings settings) throws IOException
+    {
+        super(base, urlstring);
+        this.settings = settings;
+        init(DataURLHandler.createURL(base, urlstring));
+    }
+
+    private void init(URL url) throws IOException
+    {
+        this.url = url;
+        if ("file".equalsIgnoreCase(url.getProtocol()))
+        {
+            final Path path = toPath(url);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                final long size = ch.size();
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException("File too large to be mapped: " + path);
+                data = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            contentType = detectContentType(path.getFileName() == null ? "" : path.getFileName().toString(), data);
+        }
+        else
+            fallback = new DefaultDocumentSource(url, settings);
+    }
+
+    @Override
+    public URL getURL()
+    {
+        return (fallback != null) ? fallback.getURL() : url;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return (fallback != null) ? fallback.getContentType() : contentType;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (is == null)
+        {
+            if (fallback != null)
+                is = fallback.getInputStream();
+            else
+                is = new ByteBufferInputStream(data);
+        }
+        return is;
+    }
+
+    /**
+     * Obtains a read-only view of the complete mapped file.
+     * @return the file data or {@code null} when the source does not represent a local file
+     */
+    public ByteBuffer getByteBuffer()
+    {
+        return (data != null) ? data.asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (fallback != null)
+            fallback.close();
+        data = null; //the mapping is released by the garbage collector
+    }
+
+    //====================================================================================
+
+    /**
+     * Detects the content type and the character encoding based on the file name and the
+     * beginning of the data.
+     * @param name the file name
+     * @param data the file data
+     * @return the content type possibly including the charset parameter or {@code null}
+     * when it cannot be detected
+     */
+    protected String detectContentType(String name, ByteBuffer data)
+    {
+        return ContentSniffer.detectContentType(name, data);
+    }
+
+    private static Path toPath(URL url) throws IOException
+    {
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            //not a valid URI (e.g. unescaped spaces), use the path directly
+            return Paths.get(url.getPath());
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * NetworkSettings.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable settings of the network connections used by the document sources: the user-agent
+ * string and the timeouts. The settings are passed to the document sources when they are created,
+ * usually by the document source factory of the browser configuration
+ * (see {@link org.fit.cssbox.layout.BrowserConfig#setNetworkSettings(NetworkSettings)}), so that
+ * the concurrent renderings may use different settings. A modified copy is obtained using
+ * the {@code with...()} methods:
+ * <pre>
+ * config.setNetworkSettings(NetworkSettings.getDefault().withUserAgent("MyBot/1.0"));
+ * </pre>
+ *
+ * @author burgetr
+ */
+public final class NetworkSettings
+{
+    /** The default user-agent string */
+    public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (compatible; BoxBrowserTest/4.x; Linux) CSSBox/4.x (like Gecko)";
+    /** Default connection timeout */
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    /** Default timeout for receiving the response headers and the individual parts of the body */
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final NetworkSettings defaultSettings = new NetworkSettings(DEFAULT_USER_AGENT,
+            DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
+    /** The HTTP clients by their connection timeouts; the settings with the same timeout share the connection pool */
+    private static final Map<Duration, HttpClient> clients = new ConcurrentHashMap<>();
+
+    private final String userAgent;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+
+
+    /**
+     * Creates new settings.
+     * @param userAgent the user-agent string sent with the requests
+     * @param connectTimeout the connection timeout
+     * @param readTimeout the timeout of waiting for the response headers and the individual parts of the response body
+     */
+    public NetworkSettings(String userAgent, Duration connectTimeout, Duration readTimeout)
+    {
+        this.userAgent = Objects.requireNonNull(userAgent);
+        this.connectTimeout = Objects.requireNonNull(connectTimeout);
+        this.readTimeout = Objects.requireNonNull(readTimeout);
+    }
+
+    /**
+     * Obtains the default settings.
+     * @return the default settings
+     */
+    public static NetworkSettings getDefault()
+    {
+        return defaultSettings;
+    }
+
+    public String getUserAgent()
+    {
+        return userAgent;
+    }
+
+    public Duration getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public Duration getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    /**
+     * Creates a copy of the settings with a different user-agent string.
+     * @param userAgent the new user-agent string
+     * @return the new settings
+     */
+    public NetworkSettings withUserAgent(String userAgent)
+    {
+        return new NetworkSettings(userAgent, connectTimeout, readTimeout);
+    }
+
+    /**
+     * Creates a copy of the settings with a different connection timeout.
+     * @param timeout the new timeout
+     * @return the new settings
+     */
+    public NetworkSettings withConnectTimeout(Duration timeout)
+    {
+        return new NetworkSettings(userAgent, timeout, readTimeout);
+    }
+
+    /**
+     * Creates a copy of the settings with a different read timeout.
+     * @param timeout the new timeout
+     * @return the new settings
+     */
+    public NetworkSettings withReadTimeout(Duration timeout)
+    {
+        return new NetworkSettings(userAgent, connectTimeout, timeout);
+    }
+
+    /**
+     * Obtains the HTTP client for these settings. The clients are created on first use and they
+     * are shared by all the settings with the same connection timeout so that the connections
+     * are pooled and reused across the individual documents, style sheets, images and fonts.
+     * @return the HTTP client
+     */
+    public HttpClient getClient()
+    {
+        return clients.computeIfAbsent(connectTimeout, timeout -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .build());
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof NetworkSettings))
+            return false;
+        final NetworkSettings other = (NetworkSettings) obj;
+        return userAgent.equals(other.userAgent) && connectTimeout.equals(other.connectTimeout)
+                && readTimeout.equals(other.readTimeout);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(userAgent, connectTimeout, readTimeout);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NetworkSettings [userAgent=" + userAgent + ", connectTimeout=" + connectTimeout
+                + ", readTimeout=" + readTimeout + "]";
+    }
+
+}
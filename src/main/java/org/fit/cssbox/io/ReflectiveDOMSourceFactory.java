@@ -0,0 +1,66 @@
+/*
+ * ReflectiveDOMSourceFactory.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+
+/**
+ * A DOM source factory that creates the instances of a given DOM source class using its
+ * {@code (DocumentSource)} constructor. This adapter is used when a DOM source class is registered using
+ * {@link org.fit.cssbox.layout.BrowserConfig#registerDOMSource(Class)}. The constructor is looked up
+ * only once when the factory is created.
+ *
+ * @author burgetr
+ */
+public class ReflectiveDOMSourceFactory implements DOMSourceFactory
+{
+    private final Class<? extends DOMSource> domSourceClass;
+    private final Constructor<? extends DOMSource> constructor;
+
+
+    /**
+     * Creates a factory for the given class.
+     * @param domSourceClass the DOM source class
+     * @throws IllegalArgumentException when the class has no public {@code (DocumentSource)} constructor
+     */
+    public ReflectiveDOMSourceFactory(Class<? extends DOMSource> domSourceClass)
+    {
+        this.domSourceClass = domSourceClass;
+        this.constructor = ReflectiveDocumentSourceFactory.findConstructor(domSourceClass, DocumentSource.class);
+        if (constructor == null)
+            throw new IllegalArgumentException(domSourceClass.getName() + " has no public (DocumentSource) constructor");
+    }
+
+    public Class<? extends DOMSource> getDOMSourceClass()
+    {
+        return domSourceClass;
+    }
+
+    @Override
+    public DOMSource createDOMSource(DocumentSource src)
+    {
+        try {
+            return ReflectiveDocumentSourceFactory.newInstance(constructor, src);
+        } catch (IOException e) {
+            //the DOMSource constructors do not declare any checked exceptions
+            throw new IllegalStateException("Could not create " + domSourceClass.getName(), e);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * ReflectiveDocumentSourceFactory.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+
+import org.fit.net.DataURLHandler;
+
+/**
+ * A document source factory that creates the instances of a given document source class
+ * using its {@code (URL)} and {@code (URL, String)} constructors. This adapter is used when
+ * a document source class is registered using
+ * {@link org.fit.cssbox.layout.BrowserConfig#registerDocumentSource(Class)}.
+ * When the factory is created with the connection settings and the class provides the
+ * {@code (URL, NetworkSettings)} and {@code (URL, String, NetworkSettings)} constructors,
+ * these constructors are used and the settings are passed to the created sources.
+ * The constructors are looked up only once when the factory is created.
+ *
+ * @author burgetr
+ */
+public class ReflectiveDocumentSourceFactory implements DocumentSourceFactory
+{
+    private final Class<? extends DocumentSource> documentSourceClass;
+    private final Constructor<? extends DocumentSource> urlConstructor;
+    private final Constructor<? extends DocumentSource> stringConstructor;
+    private final NetworkSettings settings;
+    private final Constructor<? extends DocumentSource> urlSettingsConstructor;
+    private final Constructor<? extends DocumentSource> stringSettingsConstructor;
+
+
+    /**
+     * Creates a factory for the given class.
+     * @param documentSourceClass the document source class
+     * @throws IllegalArgumentException when the class has none of the required public constructors
+     */
+    public ReflectiveDocumentSourceFactory(Class<? extends DocumentSource> documentSourceClass)
+    {
+        this(documentSourceClass, null);
+    }
+
+    /**
+     * Creates a factory for the given class that passes the connection settings to the created sources.
+     * @param documentSourceClass the document source class
+     * @param settings the connection settings or {@code null} when the constructors without
+     * the settings should be always used
+     * @throws IllegalArgumentException when the class has none of the required public constructors
+     */
+    public ReflectiveDocumentSourceFactory(Class<? extends DocumentSource> documentSourceClass, NetworkSettings settings)
+    {
+        this.documentSourceClass = documentSourceClass;
+        this.settings = settings;
+        this.urlConstructor = findConstructor(documentSourceClass, URL.class);
+        this.stringConstructor = findConstructor(documentSourceClass, URL.class, String.class);
+        if (urlConstructor == null && stringConstructor == null)
+            throw new IllegalArgumentException(documentSourceClass.getName()
+                    + " has no public (URL) or (URL, String) constructor");
+        if (settings != null)
+        {
+            this.urlSettingsConstructor = findConstructor(documentSourceClass, URL.class, NetworkSettings.class);
+            this.stringSettingsConstructor = findConstructor(documentSourceClass, URL.class, String.class, NetworkSettings.class);
+        }
+        else
+        {
+            this.urlSettingsConstructor = null;
+            this.stringSettingsConstructor = null;
+        }
+    }
+
+    public Class<? extends DocumentSource> getDocumentSourceClass()
+    {
+        return documentSourceClass;
+    }
+
+    /**
+     * Obtains the connection settings passed to the created sources.
+     * @return the settings or {@code null} when no settings are passed
+     */
+    public NetworkSettings getSettings()
+    {
+        return settings;
+    }
+
+    @Override
+    public DocumentSource createDocumentSource(URL base, String urlstring) throws IOException
+    {
+        if (stringSettingsConstructor != null)
+            return newInstance(stringSettingsConstructor, base, urlstring, settings);
+        else if (urlSettingsConstructor != null && stringConstructor == null)
+            return newInstance(urlSettingsConstructor, DataURLHandler.createURL(base, urlstring), settings);
+        else if (stringConstructor != null)
+            return newInstance(stringConstructor, base, urlstring);
+        else
+            return newInstance(urlConstructor, DataURLHandler.createURL(base, urlstring));
+    }
+
+    @Override
+    public DocumentSource createDocumentSource(URL url) throws IOException
+    {
+        if (urlSettingsConstructor != null)
+            return newInstance(urlSettingsConstructor, url, settings);
+        else if (stringSettingsConstructor != null && urlConstructor == null)
+            return newInstance(stringSettingsConstructor, null, url.toExternalForm(), settings);
+        else if (urlConstructor != null)
+            return newInstance(urlConstructor, url);
+        else
+            return newInstance(stringConstructor, null, url.toExternalForm());
+    }
+
+    //====================================================================================
+
+    /**
+     * Creates a new instance and passes the exceptions thrown by the constructor to the caller.
+     */
+    static <T> T newInstance(Constructor<T> constructor, Object... args) throws IOException
+    {
+        try {
+            return constructor.newInstance(args);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new IOException("Could not create " + constructor.getDeclaringClass().getName(), cause);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not create " + constructor.getDeclaringClass().getName(), e);
+        }
+    }
+
+    static <T> Constructor<T> findConstructor(Class<T> clazz, Class<?>... parameterTypes)
+    {
+        try {
+            return clazz.getConstructor(parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
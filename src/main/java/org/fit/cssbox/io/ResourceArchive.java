@@ -0,0 +1,134 @@
+/*
+ * ResourceArchive.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * An archive of captured web resources (documents, style sheets, images, fonts) that may be
+ * used for rendering the pages without any network access. The archive is indexed when opened
+ * and the individual resources are then obtained using random access. The implementations are
+ * thread-safe so that a single archive may be shared by any number of concurrent renders.
+ *
+ * @see ArchiveDocumentSource
+ * @author burgetr
+ */
+public abstract class ResourceArchive implements Closeable
+{
+
+    /**
+     * Opens an archive. The archive type is determined by the file name: the {@code .warc}
+     * and {@code .warc.gz} files are opened as WARC archives, the other files as ZIP archives.
+     * @param path the archive file
+     * @return the opened archive
+     * @throws IOException when the archive cannot be read
+     */
+    public static ResourceArchive open(Path path) throws IOException
+    {
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".warc") || name.endsWith(".warc.gz"))
+            return new WarcResourceArchive(path);
+        else
+            return new ZipResourceArchive(path);
+    }
+
+    /**
+     * Obtains the resource stored for the given URL.
+     * @param url the resource URL
+     * @return the resource or {@code null} when the archive does not contain the URL
+     * @throws IOException when the resource cannot be read from the archive
+     */
+    public abstract Resource getResource(URL url) throws IOException;
+
+    /**
+     * Obtains the number of resources in the archive.
+     * @return the number of resources
+     */
+    public abstract int getResourceCount();
+
+    /**
+     * Creates a normalized string representation of the URL used as the archive index key:
+     * the scheme and host are converted to lower case, the default port and the fragment
+     * are removed and an empty path is replaced by {@code /}.
+     * @param url the URL
+     * @return the normalized URL string
+     */
+    public static String normalizeURL(URL url)
+    {
+        final StringBuilder sb = new StringBuilder();
+        final String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        sb.append(protocol).append("://");
+        if (url.getHost() != null)
+            sb.append(url.getHost().toLowerCase(Locale.ROOT));
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+            sb.append(':').append(url.getPort());
+        final String path = url.getPath();
+        sb.append((path == null || path.isEmpty()) ? "/" : path);
+        if (url.getQuery() != null)
+            sb.append('?').append(url.getQuery());
+        return sb.toString();
+    }
+
+    //=========================================================================
+
+    /**
+     * A resource obtained from the archive.
+     */
+    public static class Resource
+    {
+        private final URL url;
+        private final String contentType;
+        private final ByteBuffer data;
+
+        public Resource(URL url, String contentType, ByteBuffer data)
+        {
+            this.url = url;
+            this.contentType = contentType;
+            this.data = data;
+        }
+
+        /**
+         * Obtains the final URL of the resource (after following the archived redirects).
+         * @return the URL
+         */
+        public URL getURL()
+        {
+            return url;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * Obtains the resource data.
+         * @return a read-only view of the data
+         */
+        public ByteBuffer getData()
+        {
+            return data.asReadOnlyBuffer();
+        }
+    }
+
+}
@@ -0,0 +1,542 @@
+/*
+ * WarcResourceArchive.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A resource archive stored in a WARC file (ISO 28500). Both the uncompressed ({@code .warc})
+ * and the record-compressed ({@code .warc.gz}, one gzip member per record) files are supported.
+ * The {@code response} and {@code resource} records are indexed by their target URI when the archive
+ * is opened; the records are then read on demand using positional reads so that the archive may be
+ * used by several threads at the same time. The archived HTTP redirects are followed within
+ * the archive and the chunked and compressed HTTP payloads are decoded.
+ *
+ * @author burgetr
+ */
+public class WarcResourceArchive extends ResourceArchive
+{
+    private static Logger log = LoggerFactory.getLogger(WarcResourceArchive.class);
+
+    /** Maximal number of archived redirects followed */
+    private static final int MAX_REDIRECTS = 10;
+    /** Read buffer size used for indexing and inflating */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final boolean compressed;
+    private final Map<String, RecordRef> index;
+
+
+    /**
+     * Opens and indexes the archive.
+     * @param path the WARC file path
+     * @throws IOException when the file cannot be read or it is not a valid WARC file
+     */
+    public WarcResourceArchive(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        index = new HashMap<>();
+        try {
+            compressed = isGzip();
+            buildIndex();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        log.debug("Indexed {} records in {}", index.size(), path);
+    }
+
+    @Override
+    public Resource getResource(URL url) throws IOException
+    {
+        URL current = url;
+        for (int i = 0; i <= MAX_REDIRECTS; i++)
+        {
+            final RecordRef ref = index.get(normalizeURL(current));
+            if (ref == null)
+                return null;
+            final Record rec = readRecord(ref);
+            if (!ref.response)
+                return new Resource(current, rec.headers.get("content-type"), ByteBuffer.wrap(rec.block));
+
+            final HttpMessage msg = new HttpMessage(rec.block);
+            final String location = msg.headers.get("location");
+            if (msg.status >= 300 && msg.status < 400 && location != null)
+            {
+                try {
+                    current = new URL(current, location.trim());
+                } catch (MalformedURLException e) {
+                    throw new IOException("Invalid archived redirect to " + location, e);
+                }
+            }
+            else
+                return new Resource(current, msg.headers.get("content-type"), ByteBuffer.wrap(msg.getPayload()));
+        }
+        throw new IOException("Too many redirects for " + url);
+    }
+
+    @Override
+    public int getResourceCount()
+    {
+        return index.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    //=========================================================================
+
+    private boolean isGzip() throws IOException
+    {
+        final ByteBuffer head = ByteBuffer.allocate(2);
+        channel.read(head, 0);
+        return head.position() == 2 && (head.get(0) & 0xff) == 0x1f && (head.get(1) & 0xff) == 0x8b;
+    }
+
+    private void buildIndex() throws IOException
+    {
+        final long size = channel.size();
+        long pos = 0;
+        while (pos < size)
+        {
+            final long recordStart = pos;
+            final Record rec;
+            if (compressed)
+            {
+                final Member member = inflateMember(recordStart);
+                rec = parseRecord(member.data);
+                pos += member.compressedLength;
+            }
+            else
+            {
+                final ChannelReader reader = new ChannelReader(pos);
+                final Map<String, String> headers = readHeaders(reader);
+                if (headers == null)
+                    break; //only whitespace at the end of the file
+                final long length = getContentLength(headers);
+                rec = new Record(headers, null, reader.getPosition(), length);
+                pos = reader.getPosition() + length;
+                pos = skipLineBreaks(pos, size);
+            }
+            addToIndex(rec, recordStart);
+        }
+    }
+
+    private void addToIndex(Record rec, long recordStart)
+    {
+        final String type = rec.headers.get("warc-type");
+        String uri = rec.headers.get("warc-target-uri");
+        if (uri != null && ("response".equals(type) || "resource".equals(type)))
+        {
+            uri = uri.trim();
+            if (uri.startsWith("<") && uri.endsWith(">"))
+                uri = uri.substring(1, uri.length() - 1); //WARC 1.0 examples use angle brackets
+            try {
+                final String key = normalizeURL(new URL(uri));
+                if (!index.containsKey(key)) //the first capture wins
+                    index.put(key, new RecordRef(recordStart, rec.blockOffset, rec.blockLength, "response".equals(type)));
+            } catch (MalformedURLException e) {
+                log.debug("Skipping record with invalid URI {}", uri);
+            }
+        }
+    }
+
+    private Record readRecord(RecordRef ref) throws IOException
+    {
+        if (compressed)
+            return parseRecord(inflateMember(ref.recordOffset).data);
+        else
+        {
+            if (ref.blockLength > Integer.MAX_VALUE)
+                throw new IOException("Record too large");
+            final ByteBuffer buf = ByteBuffer.allocate((int) ref.blockLength);
+            long pos = ref.blockOffset;
+            while (buf.hasRemaining())
+            {
+                final int n = channel.read(buf, pos); //positional reads are safe for concurrent use
+                if (n < 0)
+                    throw new EOFException("Truncated WARC record");
+                pos += n;
+            }
+            final Map<String, String> headers = readHeaders(new ChannelReader(ref.recordOffset));
+            return new Record(headers, buf.array(), ref.blockOffset, ref.blockLength);
+        }
+    }
+
+    /**
+     * Parses a complete (decompressed) WARC record.
+     */
+    private static Record parseRecord(byte[] data) throws IOException
+    {
+        final ByteArrayInputStream in = new ByteArrayInputStream(data);
+        final Map<String, String> headers = readHeaders(in);
+        if (headers == null)
+            throw new IOException("Empty WARC record");
+        final int offset = data.length - in.available();
+        final int length = (int) Math.min(getContentLength(headers), data.length - offset);
+        final byte[] block = new byte[length];
+        System.arraycopy(data, offset, block, 0, length);
+        return new Record(headers, block, offset, length);
+    }
+
+    private static long getContentLength(Map<String, String> headers) throws IOException
+    {
+        try {
+            return Long.parseLong(headers.get("content-length").trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IOException("Missing or invalid Content-Length in WARC record");
+        }
+    }
+
+    /**
+     * Reads the WARC version line and the named fields up to the empty line.
+     * @return the header map with lower-case names or {@code null} when there are no more records
+     */
+    private static Map<String, String> readHeaders(InputStream in) throws IOException
+    {
+        String line;
+        do {
+            line = readLine(in);
+            if (line == null)
+                return null;
+        } while (line.isEmpty());
+        if (!line.startsWith("WARC/"))
+            throw new IOException("Invalid WARC record header: " + line);
+        return readFields(in);
+    }
+
+    /**
+     * Reads the header fields in the "Name: value" format up to an empty line.
+     */
+    private static Map<String, String> readFields(InputStream in) throws IOException
+    {
+        final Map<String, String> ret = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty())
+        {
+            final int colon = line.indexOf(':');
+            if (colon > 0)
+                ret.putIfAbsent(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a single line terminated by LF or CRLF.
+     * @return the line without the terminator or {@code null} at the end of the input
+     */
+    private static String readLine(InputStream in) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+        int c;
+        while ((c = in.read()) != -1 && c != '\n')
+            buf.write(c);
+        if (c == -1 && buf.size() == 0)
+            return null;
+        final byte[] bytes = buf.toByteArray();
+        final int len = (bytes.length > 0 && bytes[bytes.length - 1] == '\r') ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips the line breaks that separate the records.
+     */
+    private long skipLineBreaks(long pos, long size) throws IOException
+    {
+        final ByteBuffer buf = ByteBuffer.allocate(1);
+        while (pos < size)
+        {
+            buf.clear();
+            channel.read(buf, pos);
+            final byte b = buf.get(0);
+            if (b != '\r' && b != '\n')
+                break;
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Inflates a single gzip member starting at the given file offset.
+     */
+    private Member inflateMember(long offset) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long pos = offset;
+        int n = channel.read(buf, pos);
+        if (n < 10)
+            throw new EOFException("Truncated gzip member");
+        pos += n;
+        buf.flip();
+        final int headerLength = getGzipHeaderLength(buf);
+        buf.position(headerLength);
+
+        final Inflater inflater = new Inflater(true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        final byte[] obuf = new byte[BUFFER_SIZE];
+        long fed = 0;
+        try {
+            while (!inflater.finished())
+            {
+                if (inflater.needsInput())
+                {
+                    if (!buf.hasRemaining())
+                    {
+                        buf.clear();
+                        n = channel.read(buf, pos);
+                        if (n <= 0)
+                            throw new EOFException("Truncated gzip member");
+                        pos += n;
+                        buf.flip();
+                    }
+                    fed += buf.remaining();
+                    final byte[] input = new byte[buf.remaining()];
+                    buf.get(input);
+                    inflater.setInput(input);
+                }
+                final int cnt = inflater.inflate(obuf);
+                out.write(obuf, 0, cnt);
+                if (cnt == 0 && inflater.needsDictionary())
+                    throw new IOException("Invalid gzip member");
+            }
+            final long consumed = headerLength + fed - inflater.getRemaining();
+            return new Member(out.toByteArray(), consumed + 8); //CRC32 and ISIZE trailer
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid gzip member", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int getGzipHeaderLength(ByteBuffer buf) throws IOException
+    {
+        if ((buf.get(0) & 0xff) != 0x1f || (buf.get(1) & 0xff) != 0x8b || buf.get(2) != 8)
+            throw new IOException("Not a gzip member");
+        final int flags = buf.get(3) & 0xff;
+        int pos = 10;
+        if ((flags & 0x04) != 0) //FEXTRA
+            pos += 2 + ((buf.get(pos) & 0xff) | ((buf.get(pos + 1) & 0xff) << 8));
+        if ((flags & 0x08) != 0) //FNAME
+            while (buf.get(pos++) != 0);
+        if ((flags & 0x10) != 0) //FCOMMENT
+            while (buf.get(pos++) != 0);
+        if ((flags & 0x02) != 0) //FHCRC
+            pos += 2;
+        return pos;
+    }
+
+    //=========================================================================
+
+    /** An index entry */
+    private static class RecordRef
+    {
+        final long recordOffset;
+        final long blockOffset;
+        final long blockLength;
+        final boolean response;
+
+        public RecordRef(long recordOffset, long blockOffset, long blockLength, boolean response)
+        {
+            this.recordOffset = recordOffset;
+            this.blockOffset = blockOffset;
+            this.blockLength = blockLength;
+            this.response = response;
+        }
+    }
+
+    /** A parsed WARC record */
+    private static class Record
+    {
+        final Map<String, String> headers;
+        final byte[] block;
+        final long blockOffset;
+        final long blockLength;
+
+        public Record(Map<String, String> headers, byte[] block, long blockOffset, long blockLength)
+        {
+            this.headers = headers;
+            this.block = block;
+            this.blockOffset = blockOffset;
+            this.blockLength = blockLength;
+        }
+    }
+
+    /** An inflated gzip member */
+    private static class Member
+    {
+        final byte[] data;
+        final long compressedLength;
+
+        public Member(byte[] data, long compressedLength)
+        {
+            this.data = data;
+            this.compressedLength = compressedLength;
+        }
+    }
+
+    /**
+     * An archived HTTP response.
+     */
+    private static class HttpMessage
+    {
+        final int status;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        public HttpMessage(byte[] block) throws IOException
+        {
+            final ByteArrayInputStream in = new ByteArrayInputStream(block);
+            final String statusLine = readLine(in);
+            if (statusLine == null || !statusLine.startsWith("HTTP/"))
+                throw new IOException("Invalid archived HTTP response");
+            final String[] parts = statusLine.split(" ", 3);
+            try {
+                status = Integer.parseInt(parts[1].trim());
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Invalid archived HTTP status line: " + statusLine);
+            }
+            headers = readFields(in);
+            body = in.readAllBytes();
+        }
+
+        /**
+         * Obtains the payload with the transfer and content encodings removed.
+         */
+        public byte[] getPayload() throws IOException
+        {
+            byte[] ret = body;
+            final String te = headers.get("transfer-encoding");
+            if (te != null && te.toLowerCase(Locale.ROOT).contains("chunked"))
+                ret = decodeChunked(ret);
+            final String ce = headers.get("content-encoding");
+            if (ce != null)
+            {
+                final String enc = ce.trim().toLowerCase(Locale.ROOT);
+                if (enc.equals("gzip") || enc.equals("x-gzip"))
+                {
+                    try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(ret))) {
+                        ret = is.readAllBytes();
+                    }
+                }
+                else if (enc.equals("deflate"))
+                {
+                    final boolean zlib = ret.length >= 2 && (ret[0] & 0x0f) == 8 && (((ret[0] & 0xff) << 8) | (ret[1] & 0xff)) % 31 == 0;
+                    final Inflater inflater = new Inflater(!zlib);
+                    try (InputStream is = new InflaterInputStream(new ByteArrayInputStream(ret), inflater)) {
+                        ret = is.readAllBytes();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private static byte[] decodeChunked(byte[] data) throws IOException
+        {
+            final ByteArrayInputStream in = new ByteArrayInputStream(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            String line;
+            while ((line = readLine(in)) != null)
+            {
+                final int semi = line.indexOf(';');
+                final String hex = (semi >= 0 ? line.substring(0, semi) : line).trim();
+                if (hex.isEmpty())
+                    continue;
+                final int len;
+                try {
+                    len = Integer.parseInt(hex, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + hex);
+                }
+                if (len == 0)
+                    break;
+                final byte[] chunk = in.readNBytes(len);
+                out.write(chunk);
+                if (chunk.length < len)
+                    break; //truncated capture
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A sequential reader of the file channel used for reading the record headers.
+     */
+    private class ChannelReader extends InputStream
+    {
+        private final ByteBuffer buf = ByteBuffer.allocate(4096);
+        private long filePos;
+        private long position;
+
+        public ChannelReader(long position)
+        {
+            this.filePos = position;
+            this.position = position;
+            buf.limit(0);
+        }
+
+        /** The position of the next byte to be read */
+        public long getPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (!buf.hasRemaining())
+            {
+                buf.clear();
+                final int n = channel.read(buf, filePos);
+                buf.flip();
+                if (n <= 0)
+                    return -1;
+                filePos += n;
+            }
+            position++;
+            return buf.get() & 0xff;
+        }
+    }
+
+}
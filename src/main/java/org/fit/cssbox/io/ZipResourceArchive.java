@@ -0,0 +1,113 @@
+/*
+ * ZipResourceArchive.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A resource archive stored in a ZIP file. The resources are stored under the paths composed
+ * of the host name (including a non-default port) and the URL path, e.g. the URL
+ * {@code http://www.example.com/css/style.css} corresponds to the {@code www.example.com/css/style.css}
+ * entry. The URLs whose path ends with {@code /} correspond to the {@code index.html} entries
+ * in the appropriate directory. When the URL contains a query string, an entry with the query string
+ * appended to the name is preferred when it exists. The content type is detected from the entry
+ * name and data.
+ *
+ * @author burgetr
+ */
+public class ZipResourceArchive extends ResourceArchive
+{
+    private final ZipFile zip;
+
+
+    /**
+     * Opens the archive.
+     * @param path the ZIP file path
+     * @throws IOException when the file cannot be opened
+     */
+    public ZipResourceArchive(Path path) throws IOException
+    {
+        zip = new ZipFile(path.toFile()); //the ZipFile reads the central directory (the index) once
+    }
+
+    @Override
+    public Resource getResource(URL url) throws IOException
+    {
+        final String name = getEntryName(url);
+        ZipEntry entry = null;
+        if (url.getQuery() != null)
+            entry = zip.getEntry(name + "?" + url.getQuery());
+        if (entry == null)
+            entry = zip.getEntry(name);
+        if (entry == null || entry.isDirectory())
+            return null;
+
+        final byte[] data;
+        try (InputStream is = zip.getInputStream(entry)) //ZipFile supports concurrent reading
+        {
+            data = is.readAllBytes();
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        return new Resource(url, ContentSniffer.detectContentType(name, buffer), buffer);
+    }
+
+    @Override
+    public int getResourceCount()
+    {
+        return zip.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        zip.close();
+    }
+
+    /**
+     * Obtains the entry name that corresponds to the given URL (without the query string).
+     * @param url the resource URL
+     * @return the entry name
+     */
+    protected String getEntryName(URL url)
+    {
+        final StringBuilder sb = new StringBuilder();
+        if (url.getHost() != null && !url.getHost().isEmpty())
+        {
+            sb.append(url.getHost().toLowerCase(Locale.ROOT));
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+                sb.append(':').append(url.getPort());
+        }
+        String path = url.getPath();
+        if (path == null || path.isEmpty())
+            path = "/";
+        if (path.endsWith("/"))
+            path = path + "index.html";
+        if (sb.length() == 0)
+            path = path.substring(1); //no host, use the path only
+        sb.append(path);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * DocumentEvent.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.jfr;
+
+import java.net.URL;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * A base of the Java Flight Recorder events emitted by CSSBox. Each event is related to a document
+ * or a resource identified by its URL. The events are emitted using the usual pattern
+ * <pre>
+ * ParseEvent event = new ParseEvent();
+ * event.begin();
+ * //... the measured operation ...
+ * event.end();
+ * if (event.shouldCommit()) {
+ *     event.url = ...;
+ *     event.commit();
+ * }
+ * </pre>
+ * so that nothing but the event allocation (which is usually eliminated by the JIT compiler)
+ * is performed when the event is not enabled in the running recording.
+ *
+ * @author burgetr
+ */
+@Category("CSSBox")
+@StackTrace(false)
+public abstract class DocumentEvent extends Event
+{
+    @Label("URL")
+    public String url;
+
+    /**
+     * Sets the URL of the event from an URL object.
+     * @param url the URL or {@code null}
+     */
+    public void setURL(URL url)
+    {
+        this.url = (url == null) ? null : url.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ResourceFetchEvent.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.jfr;
+
+import java.net.URL;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Fetching a resource referenced by a document (an image, a style sheet or a font).
+ *
+ * @author burgetr
+ */
+@Name("org.fit.cssbox.ResourceFetch")
+@Label("Resource Fetch")
+@Description("Fetching an image, a style sheet or a font")
+public class ResourceFetchEvent extends DocumentEvent
+{
+    public static final String IMAGE = "image";
+    public static final String STYLESHEET = "stylesheet";
+    public static final String FONT = "font";
+
+    @Label("Kind")
+    public String kind;
+
+    @Label("Content Type")
+    public String contentType;
+
+    @Label("Size")
+    @Description("The number of bytes fetched or -1 when not known")
+    @DataAmount
+    public long bytes;
+
+    @Label("Success")
+    public boolean success;
+
+    /**
+     * Commits the event with the given values when it should be committed. The event must be ended
+     * using {@link #end()} before.
+     * @param url the resource URL
+     * @param kind the resource kind
+     * @param contentType the content type or {@code null} when not known
+     * @param bytes the number of bytes fetched or -1 when not known
+     * @param success {@code true} when the resource has been fetched successfully
+     */
+    public void commit(URL url, String kind, String contentType, long bytes, boolean success)
+    {
+        if (shouldCommit())
+        {
+            setURL(url);
+            this.kind = kind;
+            this.contentType = contentType;
+            this.bytes = bytes;
+            this.success = success;
+            commit();
+        }
+    }
+}
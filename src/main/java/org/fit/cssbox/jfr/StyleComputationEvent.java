@@ -0,0 +1,40 @@
+/*
+ * StyleComputationEvent.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Assigning the style sheet rules to the DOM elements and computing their styles.
+ *
+ * @author burgetr
+ */
+@Name("org.fit.cssbox.StyleComputation")
+@Label("Style Computation")
+@Description("Computing the styles of all the DOM elements")
+public class StyleComputationEvent extends DocumentEvent
+{
+    @Label("Elements")
+    public int elements;
+
+    @Label("Inherited")
+    @Description("The inherited values have been computed")
+    public boolean inherited;
+}
@@ -948,7 +948,7 @@ public class BlockBox extends ElementBox
                 //do the layout                
                 boolean fit = false;
                 if (space >= INFLOW_SPACE_THRESHOLD || !narrowed)
-                    fit = subbox.doLayout(wlimit - x - x2, f, x == x1);
+                    fit = layoutChild(subbox, wlimit - x - x2, f, x == x1);
                 if (fit) //positioning succeeded, at least a part fit -- set the x coordinate
                 {
                     if (subbox.isInFlow())
@@ -1045,6 +1045,8 @@ public class BlockBox extends ElementBox
         curline.setWidth(x - x1); 
         curline.setLimits(x1, x2);
         curline.setEnd(getSubBoxNumber());
+        if (ctx.getMetrics() != null)
+            ctx.getMetrics().addLines(lines.size());
         //align the lines according to the real box width
         for (Iterator<LineBox> it = lines.iterator(); it.hasNext();)
         {
@@ -1210,7 +1212,7 @@ public class BlockBox extends ElementBox
         //position the box
         subbox.setFloats(fleft, fright, newfloatXl, newfloatXr, stat.y + newfloatY);
         subbox.setPosition(0,  stat.y);
-        subbox.doLayout(wlimit, true, true);
+        layoutChild(subbox, wlimit, true, true);
         stat.y += subbox.getHeight();
         //maximal width
         if (subbox.getWidth() > stat.maxw)
@@ -1265,7 +1267,7 @@ public class BlockBox extends ElementBox
             subbox.setWidthAdjust(-flx - frx);
             //if (availw != 0)
             //    System.out.println("jo!");
-            subbox.doLayout(avail, true, true);
+            layoutChild(subbox, avail, true, true);
             //System.out.println("H=" + subbox.getHeight());
             
             //check the colisions after the layout
@@ -1290,7 +1292,7 @@ public class BlockBox extends ElementBox
     protected void layoutBlockFloating(BlockBox subbox, float wlimit, BlockLayoutStatus stat)
     {
         subbox.setFloats(new FloatList(subbox), new FloatList(subbox), 0, 0, 0);
-        subbox.doLayout(wlimit, true, true);
+        layoutChild(subbox, wlimit, true, true);
         FloatList f = (subbox.getFloating() == FLOAT_LEFT) ? fleft : fright;    //float list at my side
         FloatList of = (subbox.getFloating() == FLOAT_LEFT) ? fright : fleft;   //float list at the opposite side
         float floatX = (subbox.getFloating() == FLOAT_LEFT) ? floatXl : floatXr;  //float offset at this side
@@ -1344,7 +1346,7 @@ public class BlockBox extends ElementBox
         if (rightset) wlimit -= coords.right;
         //layout the contents
         subbox.setFloats(new FloatList(subbox), new FloatList(subbox), 0, 0, 0);
-        subbox.doLayout(wlimit, true, true);
+        layoutChild(subbox, wlimit, true, true);
     }
 
     /**
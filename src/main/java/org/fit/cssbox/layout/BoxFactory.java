@@ -20,6 +20,7 @@
 
 package org.fit.cssbox.layout;
 
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.List;
@@ -30,6 +31,7 @@ import java.util.Vector;
 import org.fit.cssbox.css.Counters;
 import org.fit.cssbox.css.DOMAnalyzer;
 import org.fit.cssbox.css.HTMLNorm;
+import org.fit.net.DataURLHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -99,6 +101,7 @@ public class BoxFactory
 
     protected int next_order;
     protected boolean overflowPropagated;
+    private LayoutProfiler profiler;
     
     
     /**
@@ -200,6 +203,7 @@ public class BoxFactory
         viewport = new Viewport(vp, ctx, this, root, width, height);
         viewport.setConfig(config);
         overflowPropagated = false;
+        profiler = ctx.getProfiler();
         BoxTreeCreationStatus stat = new BoxTreeCreationStatus(viewport);
         createSubtree(root, stat);
         log.debug("Root box is: " + viewport.getRootBox());
@@ -207,6 +211,71 @@ public class BoxFactory
         return viewport;
     }
     
+    /**
+     * Starts loading the images used by a DOM tree in the background using the image loader of the given
+     * visual context and the I/O executor from the configuration: the content images of the {@code img}
+     * elements and the background and list marker images of all the displayed elements. The box creation
+     * that follows then only waits for the images that are not loaded yet instead of loading them one by one.
+     * When there is no I/O executor configured, this method has no effect.
+     * 
+     * @param root the root element of the source DOM tree.
+     * @param ctx the visual context that will be used for creating the viewport tree.
+     */
+    public void prefetchImages(Element root, VisualContext ctx)
+    {
+        if (config.getIOExecutor() != null && (config.getLoadImages() || config.getLoadBackgroundImages()))
+            prefetchImages(root, ctx.getImageLoader());
+    }
+    
+    private void prefetchImages(Element e, ImageLoader loader)
+    {
+        final NodeData style = decoder.getElementStyleInherited(e);
+        if (style != null)
+        {
+            final CSSProperty.Display display = style.getProperty("display");
+            if (display == CSSProperty.Display.NONE)
+                return; //no boxes will be created for the subtree
+            //content images
+            if (config.getLoadImages() && config.getUseHTML() && !config.getReplaceImagesWithAlt()
+                    && e.getNodeName().equalsIgnoreCase("img"))
+                prefetchImage(loader, baseurl, HTMLNorm.getAttribute(e, "src"));
+            //backgrounds and list markers
+            if (config.getLoadBackgroundImages())
+            {
+                final int count = style.getListSize("background-image", true);
+                for (int i = 0; i < count; i++)
+                {
+                    if (style.getProperty("background-image", i) == CSSProperty.BackgroundImage.uri)
+                    {
+                        final TermURI uri = style.getValue(TermURI.class, "background-image", i);
+                        prefetchImage(loader, uri.getBase(), uri.getValue());
+                    }
+                }
+                if (display == CSSProperty.Display.LIST_ITEM
+                        && style.getProperty("list-style-image") == CSSProperty.ListStyleImage.uri)
+                {
+                    final TermURI uri = style.getValue(TermURI.class, "list-style-image");
+                    prefetchImage(loader, uri.getBase(), uri.getValue());
+                }
+            }
+        }
+        final NodeList children = e.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++)
+        {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE)
+                prefetchImages((Element) children.item(i), loader);
+        }
+    }
+    
+    private void prefetchImage(ImageLoader loader, URL base, String src)
+    {
+        try {
+            loader.prefetchImage(DataURLHandler.createURL(base, src));
+        } catch (MalformedURLException e) {
+            //the error is reported when the box is created
+        }
+    }
+    
     /**
      * Creates the box subtrees for all the child nodes of the DOM node corresponding to the box creatin status. Recursively creates the child boxes 
      * from the child nodes.
@@ -291,6 +360,21 @@ public class BoxFactory
      * @param stat curent box creation status for obtaining the containing boxes 
      */
     private void createSubtree(Node n, BoxTreeCreationStatus stat)
+    {
+        if (profiler != null)
+        {
+            profiler.enter(n, LayoutProfiler.Operation.BOX_TREE);
+            try {
+                createSubtreeBoxes(n, stat);
+            } finally {
+                profiler.exit();
+            }
+        }
+        else
+            createSubtreeBoxes(n, stat);
+    }
+    
+    private void createSubtreeBoxes(Node n, BoxTreeCreationStatus stat)
     {
         //store current status for the parent
         stat.parent.curstat = new BoxTreeCreationStatus(stat);
@@ -526,6 +610,8 @@ public class BoxFactory
         //TODO: in some whitespace processing modes, multiple boxes may be created
         TextBox text = new TextBox(n, stat.parent.getVisualContext().create());
         text.setOrder(next_order++);
+        if (text.getVisualContext().getMetrics() != null)
+            text.getVisualContext().getMetrics().addTextBox();
         text.setContainingBlockBox(stat.contbox);
         text.setClipBlock(stat.clipbox);
         text.setViewport(viewport);
@@ -20,19 +20,26 @@
 package org.fit.cssbox.layout;
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.fit.cssbox.io.ContentObserver;
 import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DOMSourceFactory;
 import org.fit.cssbox.io.DefaultDOMSource;
 import org.fit.cssbox.io.DefaultDocumentSource;
 import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.io.DocumentSourceFactory;
+import org.fit.cssbox.io.DocumentSourceNetworkProcessor;
+import org.fit.cssbox.io.NetworkSettings;
+import org.fit.cssbox.io.ReflectiveDOMSourceFactory;
+import org.fit.cssbox.io.ReflectiveDocumentSourceFactory;
+import org.fit.cssbox.misc.IOExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +72,9 @@ public class BrowserConfig
     /** Should we load CSS fonts? */
     private boolean loadFonts;
     
+    /** Should the image pixels be decoded only when the images are drawn? */
+    private boolean deferImageDecoding;
+    
     /** Image loading timeout [ms] */
     private int imageLoadTimeout;
     
@@ -77,17 +87,23 @@ public class BrowserConfig
     /** Should the viewport clip its contents? */
     private boolean clipViewport;
     
-    /** Registered DocumentSource implementation */
-    private Class<? extends DocumentSource> documentSourceClass;
+    /** Registered DocumentSource factory */
+    private DocumentSourceFactory documentSourceFactory;
+    
+    /** Settings of the network connections passed to the registered document source class */
+    private NetworkSettings networkSettings;
     
-    /** Registered DOMSource implementation */
-    private Class<? extends DOMSource> domSourceClass;
+    /** Registered DOMSource factory */
+    private DOMSourceFactory domSourceFactory;
     
     /** Registered content observer that tracks the image loading */
     private ContentObserver contentObserver;
 
     private ImageCache imageCache;
     
+    /** Executor used for fetching the resources in the background */
+    private Executor ioExecutor;
+    
     /** Logical font mapping */
     private Map<String, List<String>> logicalFonts;
     
@@ -100,13 +116,16 @@ public class BrowserConfig
         loadImages = true;
         loadBackgroundImages = true;
         loadFonts = true;
-        imageLoadTimeout = 500;
+        deferImageDecoding = true;
+        imageLoadTimeout = 10000;
         useHTML = true;
         replaceImagesWithAlt = false;
         clipViewport = false;
-        documentSourceClass = DefaultDocumentSource.class;
-        domSourceClass = DefaultDOMSource.class;
+        networkSettings = NetworkSettings.getDefault();
+        documentSourceFactory = new ReflectiveDocumentSourceFactory(DefaultDocumentSource.class, networkSettings);
+        domSourceFactory = new ReflectiveDOMSourceFactory(DefaultDOMSource.class);
         contentObserver = null;
+        ioExecutor = IOExecutors.getDefault();
         logicalFonts = getDefaultLogicalFonts();
     }
 
@@ -168,13 +187,36 @@ public class BrowserConfig
         this.loadBackgroundImages = loadBackgroundImages;
     }
 
+    public boolean getDeferImageDecoding()
+    {
+        return deferImageDecoding;
+    }
+
+    /**
+     * Sets whether the image pixels should be decoded only when the images are actually drawn.
+     * When enabled, only the image headers are decoded during the layout and the decoded pixels
+     * may be discarded under memory pressure. The default value is <code>true</code>.
+     * Note that with the deferred decoding, a corrupted image data (with a valid header) is
+     * discovered only when the image is drawn: the image is laid out using the size from
+     * the header, it is drawn as an empty box and the content observer is not notified about
+     * the failure. Disable the deferred decoding when the failed images should be always
+     * treated as missing images during the layout.
+     * @param deferImageDecoding
+     */
+    public void setDeferImageDecoding(boolean deferImageDecoding)
+    {
+        this.deferImageDecoding = deferImageDecoding;
+    }
+
     public int getImageLoadTimeout()
     {
         return imageLoadTimeout;
     }
 
     /**
-     * Configures the timeout for loading images. The default value is 500ms.
+     * Configures the timeout for loading images. This is the maximal time the layout waits for
+     * an image that is being loaded in background using the I/O executor; when the timeout
+     * expires, the image is treated as failed. The default value is 10000ms.
      * @param imageLoadTimeout The timeout for loading images in miliseconds.
      */
     public void setImageLoadTimeout(int imageLoadTimeout)
@@ -205,6 +247,25 @@ public class BrowserConfig
         this.imageCache = imageCache;
     }
 
+    public Executor getIOExecutor()
+    {
+        return ioExecutor;
+    }
+
+    /**
+     * Sets the executor used for fetching the external style sheets and images. The resources
+     * referenced by the document are requested from the executor before the style sheets are parsed
+     * and before the boxes are created so that they are fetched in parallel rather than one
+     * by one. By default, a shared executor obtained from {@link IOExecutors#getDefault()} is used
+     * which runs the fetches in virtual threads when running on Java 21 or newer.
+     * @param ioExecutor the executor or {@code null} for fetching all the resources sequentially
+     * by the thread that creates the layout
+     */
+    public void setIOExecutor(Executor ioExecutor)
+    {
+        this.ioExecutor = ioExecutor;
+    }
+
     public boolean getUseHTML()
     {
         return useHTML;
@@ -256,98 +317,174 @@ public class BrowserConfig
     }
 
     /**
-     * Sets the class used by CSSBox for obtaining documents based on their URLs.
+     * Sets the class used by CSSBox for obtaining documents based on their URLs. The class must
+     * provide public {@code (URL)} and/or {@code (URL, String)} constructors. It is used through
+     * a {@link ReflectiveDocumentSourceFactory} that replaces the current document source factory.
+     * When the class provides the {@code (URL, NetworkSettings)} and {@code (URL, String, NetworkSettings)}
+     * constructors, the network settings of this configuration are passed to the created sources.
      * @param documentSourceClass the new document source class
+     * @throws IllegalArgumentException when the class does not provide the required constructors
      */
     public void registerDocumentSource(Class<? extends DocumentSource> documentSourceClass)
     {
-        this.documentSourceClass = documentSourceClass;
+        setDocumentSourceFactory(new ReflectiveDocumentSourceFactory(documentSourceClass, networkSettings));
+    }
+    
+    /**
+     * Obtains the settings of the network connections (the user-agent string and the timeouts)
+     * used by the registered document source class.
+     * @return the network settings
+     */
+    public NetworkSettings getNetworkSettings()
+    {
+        return networkSettings;
+    }
+    
+    /**
+     * Sets the settings of the network connections (the user-agent string and the timeouts). The settings
+     * are passed to the document sources created for the class registered using {@link #registerDocumentSource(Class)}
+     * (including the default one) so that each configuration may use its own settings. A custom document
+     * source factory should pass the settings to the created sources itself. The default value is
+     * {@link NetworkSettings#getDefault()}.
+     * @param networkSettings the new settings
+     */
+    public void setNetworkSettings(NetworkSettings networkSettings)
+    {
+        this.networkSettings = networkSettings;
+        if (documentSourceFactory instanceof ReflectiveDocumentSourceFactory)
+            registerDocumentSource(((ReflectiveDocumentSourceFactory) documentSourceFactory).getDocumentSourceClass());
     }
     
     /**
      * Obtains the class used by CSSBox for obtaining documents based on their URLs.
-     * @return the used class
+     * @return the used class or {@code null} when the document sources are created by a factory
+     * that is not based on a registered class
      */
     public Class<? extends DocumentSource> getDocumentSourceClass()
     {
-        return documentSourceClass;
+        if (documentSourceFactory instanceof ReflectiveDocumentSourceFactory)
+            return ((ReflectiveDocumentSourceFactory) documentSourceFactory).getDocumentSourceClass();
+        else
+            return null;
+    }
+    
+    /**
+     * Sets the factory used by CSSBox for obtaining documents based on their URLs.
+     * @param documentSourceFactory the new document source factory
+     */
+    public void setDocumentSourceFactory(DocumentSourceFactory documentSourceFactory)
+    {
+        this.documentSourceFactory = documentSourceFactory;
+    }
+    
+    /**
+     * Obtains the factory used by CSSBox for obtaining documents based on their URLs.
+     * @return the used factory
+     */
+    public DocumentSourceFactory getDocumentSourceFactory()
+    {
+        return documentSourceFactory;
+    }
+    
+    /**
+     * Creates a network processor for loading the style sheets using the document source factory
+     * and the I/O executor of this configuration.
+     * @return the new network processor
+     */
+    public DocumentSourceNetworkProcessor createNetworkProcessor()
+    {
+        return new DocumentSourceNetworkProcessor(documentSourceFactory, ioExecutor);
     }
     
     /**
-     * Creates a new instance of the {@link org.fit.cssbox.io.DocumentSource} class registered in the browser configuration.
+     * Creates a new {@link org.fit.cssbox.io.DocumentSource} using the document source factory
+     * registered in the browser configuration.
      * @param url the URL to be given to the document source.
      * @return the document source.
-     * @throws IOException 
+     * @throws IOException when the document source could not be created
      */
     public DocumentSource createDocumentSource(URL url) throws IOException
     {
-        try
-        {
-            Constructor<? extends DocumentSource> constr = getDocumentSourceClass().getConstructor(URL.class);
-            return constr.newInstance(url);
-        } catch (Exception e) {
-            Throwable cause = e; //find if there is an IOException cause and throw it
-            while (cause != null && !(cause instanceof IOException))
-                cause = e.getCause();
-            if (cause != null && cause instanceof IOException)
-                throw (IOException) cause;
-            //no IO exception cause, this should not happen (some internal reflection problem)
-            log.error("Could not create the DocumentSource instance: " + e.getMessage());
-            e.printStackTrace();
-            return null;
-        }
+        return documentSourceFactory.createDocumentSource(url);
     }
     
     /**
-     * Creates a new instance of the {@link org.fit.cssbox.io.DocumentSource} class registered in the browser configuration.
+     * Creates a new {@link org.fit.cssbox.io.DocumentSource} using the document source factory
+     * registered in the browser configuration.
      * @param base the base URL
      * @param urlstring the URL suffix
-     * @return the document source.
+     * @return the document source or {@code null} when it could not be created (the reason is logged).
      */
     public DocumentSource createDocumentSource(URL base, String urlstring)
     {
         try
         {
-            Constructor<? extends DocumentSource> constr = getDocumentSourceClass().getConstructor(URL.class, String.class);
-            return constr.newInstance(base, urlstring);
-        } catch (Exception e) {
-            log.warn("Could not create the DocumentSource instance: " + e.getMessage());
+            return documentSourceFactory.createDocumentSource(base, urlstring);
+        } catch (IOException e) {
+            log.warn("Could not create the DocumentSource instance for {}: {}", urlstring, e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Could not create the DocumentSource instance for " + urlstring, e);
             return null;
         }
     }
     
     /**
-     * Sets the class used by CSSBox for the DOM tree from documents.
+     * Sets the class used by CSSBox for the DOM tree from documents. The class must provide
+     * a public {@code (DocumentSource)} constructor. It is used through a {@link ReflectiveDOMSourceFactory}
+     * that replaces the current DOM source factory.
      * @param domSourceClass the new DOM source class
+     * @throws IllegalArgumentException when the class does not provide the required constructor
      */
     public void registerDOMSource(Class<? extends DOMSource> domSourceClass)
     {
-        this.domSourceClass = domSourceClass;
+        setDOMSourceFactory(new ReflectiveDOMSourceFactory(domSourceClass));
     }
     
     /**
      * Obtains the class used by CSSBox for the DOM tree from documents.
-     * @return the used class
+     * @return the used class or {@code null} when the DOM sources are created by a factory
+     * that is not based on a registered class
      */
     public Class<? extends DOMSource> getDOMSourceClass()
     {
-        return domSourceClass;
+        if (domSourceFactory instanceof ReflectiveDOMSourceFactory)
+            return ((ReflectiveDOMSourceFactory) domSourceFactory).getDOMSourceClass();
+        else
+            return null;
     }
 
     /**
-     * Creates a new instance of the {@link org.fit.cssbox.io.DOMSource} class registered in the browser configuration
-     * ({@link org.fit.cssbox.layout.BrowserConfig}).
+     * Sets the factory used by CSSBox for creating the DOM tree from documents.
+     * @param domSourceFactory the new DOM source factory
+     */
+    public void setDOMSourceFactory(DOMSourceFactory domSourceFactory)
+    {
+        this.domSourceFactory = domSourceFactory;
+    }
+    
+    /**
+     * Obtains the factory used by CSSBox for creating the DOM tree from documents.
+     * @return the used factory
+     */
+    public DOMSourceFactory getDOMSourceFactory()
+    {
+        return domSourceFactory;
+    }
+    
+    /**
+     * Creates a new {@link org.fit.cssbox.io.DOMSource} using the DOM source factory registered
+     * in the browser configuration.
      * @param src the document source to be given to the DOM source.
-     * @return the DOM source.
+     * @return the DOM source or {@code null} when it could not be created (the reason is logged).
      */
     public DOMSource createDOMSource(DocumentSource src)
     {
         try
         {
-            Constructor<? extends DOMSource> constr = getDOMSourceClass().getConstructor(DocumentSource.class);
-            return constr.newInstance(src);
-        } catch (Exception e) {
-            log.warn("BoxFactory: Warning: could not create the DOMSource instance: " + e.getMessage());
+            return domSourceFactory.createDOMSource(src);
+        } catch (RuntimeException e) {
+            log.error("Could not create the DOMSource instance", e);
             return null;
         }
     }
@@ -31,9 +31,11 @@ import cz.vutbr.web.css.NodeData;
 import cz.vutbr.web.css.Selector;
 import cz.vutbr.web.css.Term;
 import cz.vutbr.web.css.TermColor;
+import cz.vutbr.web.css.TermFunction;
 import cz.vutbr.web.css.TermInteger;
 import cz.vutbr.web.css.TermLength;
 import cz.vutbr.web.css.TermLengthOrPercent;
+import cz.vutbr.web.css.TermList;
 import cz.vutbr.web.css.TermNumber;
 import cz.vutbr.web.css.TermPercent;
 import cz.vutbr.web.csskit.Color;
@@ -133,6 +135,12 @@ abstract public class ElementBox extends Box
     /** Tansform property value (output transformations) */
     protected CSSProperty.Transform transform;
     
+    /** The resolved transformation matrix (computed on demand after layout) */
+    private TransformMatrix transformMatrix;
+    
+    /** The border bounds used for computing the transformation matrix */
+    private float tmX, tmY, tmWidth, tmHeight;
+    
     /** Position property */
     protected CSSProperty.Position position;
     
@@ -746,6 +754,129 @@ abstract public class ElementBox extends Box
         return position != POS_STATIC || transform != TRANSFORM_NONE;
     }
     
+    /**
+     * Obtains the transformation matrix that corresponds to the CSS transformations declared
+     * for this element. The matrix is resolved once for the current box position and size
+     * and re-used by the subsequent calls (e.g. when the page is redrawn).
+     * @return the transformation matrix or {@code null} when no transformation should be applied
+     * on this element.
+     */
+    public TransformMatrix getTransformMatrix()
+    {
+        if (transform != CSSProperty.Transform.list_values)
+            return null;
+        
+        final float x = absbounds.x + emargin.left;
+        final float y = absbounds.y + emargin.top;
+        final float w = content.width + padding.left + padding.right + border.left + border.right;
+        final float h = content.height + padding.top + padding.bottom + border.top + border.bottom;
+        if (transformMatrix == null || x != tmX || y != tmY || w != tmWidth || h != tmHeight)
+        {
+            transformMatrix = computeTransformMatrix(new Rectangle(x, y, w, h));
+            tmX = x;
+            tmY = y;
+            tmWidth = w;
+            tmHeight = h;
+        }
+        return transformMatrix.isIdentity() ? null : transformMatrix;
+    }
+    
+    /**
+     * Computes the transformation matrix from the {@code transform} and {@code transform-origin}
+     * properties.
+     * @param bounds the absolute border bounds of the box
+     * @return the resulting matrix
+     */
+    protected TransformMatrix computeTransformMatrix(Rectangle bounds)
+    {
+        final CSSDecoder dec = new CSSDecoder(ctx);
+        //decode the origin
+        float ox, oy;
+        CSSProperty.TransformOrigin origin = style.getProperty("transform-origin");
+        if (origin == CSSProperty.TransformOrigin.list_values)
+        {
+            TermList values = style.getValue(TermList.class, "transform-origin");
+            ox = dec.getLength((TermLengthOrPercent) values.get(0), false, bounds.width / 2, 0, bounds.width);
+            oy = dec.getLength((TermLengthOrPercent) values.get(1), false, bounds.height / 2, 0, bounds.height);
+        }
+        else
+        {
+            ox = bounds.width / 2;
+            oy = bounds.height / 2;
+        }
+        ox += bounds.x;
+        oy += bounds.y;
+        //compute the transformation matrix
+        TransformMatrix ret = TransformMatrix.IDENTITY.translate(ox, oy);
+        TermList values = style.getValue(TermList.class, "transform");
+        if (values != null)
+        {
+            for (Term<?> term : values)
+            {
+                if (term instanceof TermFunction.Rotate)
+                {
+                    double theta = dec.getAngle(((TermFunction.Rotate) term).getAngle());
+                    ret = ret.rotate(theta);
+                }
+                else if (term instanceof TermFunction.Translate)
+                {
+                    float tx = dec.getLength(((TermFunction.Translate) term).getTranslateX(), false, 0, 0, bounds.width);
+                    float ty = dec.getLength(((TermFunction.Translate) term).getTranslateY(), false, 0, 0, bounds.height);
+                    ret = ret.translate(tx, ty);
+                }
+                else if (term instanceof TermFunction.TranslateX)
+                {
+                    float tx = dec.getLength(((TermFunction.TranslateX) term).getTranslate(), false, 0, 0, bounds.width);
+                    ret = ret.translate(tx, 0.0);
+                }
+                else if (term instanceof TermFunction.TranslateY)
+                {
+                    float ty = dec.getLength(((TermFunction.TranslateY) term).getTranslate(), false, 0, 0, bounds.height);
+                    ret = ret.translate(0.0, ty);
+                }
+                else if (term instanceof TermFunction.Scale)
+                {
+                    float sx = ((TermFunction.Scale) term).getScaleX();
+                    float sy = ((TermFunction.Scale) term).getScaleY();
+                    ret = ret.scale(sx, sy);
+                }
+                else if (term instanceof TermFunction.ScaleX)
+                {
+                    float sx = ((TermFunction.ScaleX) term).getScale();
+                    ret = ret.scale(sx, 1.0);
+                }
+                else if (term instanceof TermFunction.ScaleY)
+                {
+                    float sy = ((TermFunction.ScaleY) term).getScale();
+                    ret = ret.scale(1.0, sy);
+                }
+                else if (term instanceof TermFunction.Skew)
+                {
+                    double ax = dec.getAngle(((TermFunction.Skew) term).getSkewX());
+                    double ay = dec.getAngle(((TermFunction.Skew) term).getSkewY());
+                    ret = ret.shear(Math.tan(ax), Math.tan(ay));
+                }
+                else if (term instanceof TermFunction.SkewX)
+                {
+                    double ax = dec.getAngle(((TermFunction.SkewX) term).getSkew());
+                    ret = ret.shear(Math.tan(ax), 0.0);
+                }
+                else if (term instanceof TermFunction.SkewY)
+                {
+                    double ay = dec.getAngle(((TermFunction.SkewY) term).getSkew());
+                    ret = ret.shear(0.0, Math.tan(ay));
+                }
+                else if (term instanceof TermFunction.Matrix)
+                {
+                    float[] vals = ((TermFunction.Matrix) term).getValues();
+                    ret = ret.concatenate(new TransformMatrix(vals));
+                }
+            }
+        }
+        ret = ret.translate(-ox, -oy);
+        return ret;
+    }
+    
     /**
      * @return the first child from the list that is considered for rendering
      */
@@ -1018,7 +1149,8 @@ abstract public class ElementBox extends Box
     {
         if (isDisplayed() && isDeclaredVisible())
         {
-            Integer[] clevels = formsStackingContext() ? getStackingContext().getZIndices() : new Integer[0]; 
+            final StackingContext sc = formsStackingContext() ? getStackingContext() : null;
+            final int levelCount = (sc != null) ? sc.getLevelCount() : 0;
             
             //1.the background and borders of the element forming the stacking context.
             if (this.formsStackingContext() && this.rendersBackground())
@@ -1031,9 +1163,9 @@ abstract public class ElementBox extends Box
             
             //2.the child stacking contexts with negative stack levels (most negative first).
             int zi = 0;
-            while (zi < clevels.length && clevels[zi] < 0)
+            while (zi < levelCount && sc.getLevelZIndex(zi) < 0)
             {
-                drawChildContexts(clevels[zi]);
+                drawChildContexts(sc.getLevelZIndex(zi));
                 zi++;
             }
             //3.the in-flow, non-inline-level, non-positioned descendants.
@@ -1043,15 +1175,15 @@ abstract public class ElementBox extends Box
             //5.the in-flow, inline-level, non-positioned descendants, including inline tables and inline blocks. 
             drawChildren(DrawStage.DRAW_INLINE);
             //6.the child stacking contexts with stack level 0 and the positioned descendants with stack level 0.
-            if (zi < clevels.length && clevels[zi] == 0)
+            if (zi < levelCount && sc.getLevelZIndex(zi) == 0)
             {
                 drawChildContexts(0);
                 zi++;
             }
             //7.the child stacking contexts with positive stack levels (least positive first).
-            while (zi < clevels.length)
+            while (zi < levelCount)
             {
-                drawChildContexts(clevels[zi]);
+                drawChildContexts(sc.getLevelZIndex(zi));
                 zi++;
             }
             
@@ -1069,8 +1201,53 @@ abstract public class ElementBox extends Box
         for (int i = startChild; i < endChild; i++)
         {
             Box subbox = getSubBox(i);
+            drawChild(subbox, turn);
+        }
+    }
+    
+    /**
+     * Draws a child box in the given stage. When the profiling is enabled, the time spent is recorded.
+     * @param subbox the child box to draw
+     * @param turn the current drawing stage
+     */
+    protected void drawChild(Box subbox, DrawStage turn)
+    {
+        final LayoutProfiler profiler = ctx.getProfiler();
+        if (profiler != null)
+        {
+            profiler.enter(subbox, LayoutProfiler.Operation.DRAW);
+            try {
+                subbox.draw(turn);
+            } finally {
+                profiler.exit();
+            }
+        }
+        else
             subbox.draw(turn);
+    }
+    
+    /**
+     * Computes the layout of a child box. When the profiling is enabled, the time spent is recorded.
+     * @param subbox the child box
+     * @param availw the maximal available width
+     * @param force use the first possible layout even if it does not fit
+     * @param linestart the box starts at the beginning of a line
+     * @return the result of {@link Box#doLayout(float, boolean, boolean)}
+     */
+    protected boolean layoutChild(Box subbox, float availw, boolean force, boolean linestart)
+    {
+        final LayoutProfiler profiler = ctx.getProfiler();
+        if (profiler != null)
+        {
+            profiler.enter(subbox, LayoutProfiler.Operation.LAYOUT);
+            try {
+                return subbox.doLayout(availw, force, linestart);
+            } finally {
+                profiler.exit();
+            }
         }
+        else
+            return subbox.doLayout(availw, force, linestart);
     }
     
     /**
@@ -1079,12 +1256,24 @@ abstract public class ElementBox extends Box
      */
     protected void drawChildContexts(int zindex)
     {
-        Vector<ElementBox> list = getStackingContext().getElementsForZIndex(zindex);
+        final List<ElementBox> list = getStackingContext().getElementsForZIndex(zindex);
         if (list != null)
         {
-            for (ElementBox elem : list)
+            for (int i = 0; i < list.size(); i++)
             {
-                elem.drawStackingContext(!elem.hasZIndex());
+                final ElementBox elem = list.get(i);
+                final LayoutProfiler profiler = ctx.getProfiler();
+                if (profiler != null)
+                {
+                    profiler.enter(elem, LayoutProfiler.Operation.DRAW);
+                    try {
+                        elem.drawStackingContext(!elem.hasZIndex());
+                    } finally {
+                        profiler.exit();
+                    }
+                }
+                else
+                    elem.drawStackingContext(!elem.hasZIndex());
             }
         }
     }
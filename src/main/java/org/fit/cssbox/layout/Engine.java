@@ -21,9 +21,15 @@ package org.fit.cssbox.layout;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.fit.cssbox.css.DOMAnalyzer;
 import org.fit.cssbox.css.FontTable;
+import org.fit.cssbox.jfr.BoxTreeEvent;
+import org.fit.cssbox.jfr.LayoutEvent;
+import org.fit.cssbox.jfr.PaintEvent;
+import org.fit.cssbox.jfr.PositionsEvent;
 import org.fit.cssbox.render.BoxRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +39,11 @@ import org.slf4j.LoggerFactory;
  * the combinations of the generic rendering engine, a device-dependent combination of
  * a render and visual context implementation. 
  * 
+ * <p>An engine instance (together with its DOM, {@link org.fit.cssbox.css.DOMAnalyzer} and
+ * {@link BrowserConfig}) is not thread-safe and it must be used by a single thread at a time.
+ * Multiple engines may be used concurrently in separate threads; the state shared among them
+ * (the font registry, the shared caches and the global document source settings) is thread-safe.</p>
+ * 
  * @author burgetr
  */
 public abstract class Engine
@@ -47,6 +58,10 @@ public abstract class Engine
     private BrowserConfig config;
     private boolean autoSizeUpdate;
     private boolean autoMediaUpdate;
+    private List<RenderListener> renderListeners;
+    private LayoutMetrics metrics;
+    private boolean profiling;
+    private LayoutProfiler profiler;
     
     
     /** 
@@ -64,6 +79,7 @@ public abstract class Engine
         this.config = new BrowserConfig();
         this.autoSizeUpdate = true;
         this.autoMediaUpdate = true;
+        this.renderListeners = new ArrayList<>(1);
     }
     
     /** 
@@ -197,48 +213,107 @@ public abstract class Engine
      */
     public void createLayout(Dimension dim, Rectangle visibleRect, boolean performRendering)
     {
+        metrics = new LayoutMetrics();
         initOutputMedia(dim.width, dim.height);
         
+        long t = System.nanoTime();
         if (autoMediaUpdate)
         {
             decoder.getMediaSpec().setDimensions(visibleRect.width, visibleRect.height);
             decoder.recomputeStyles();
+            t = phaseFinished(LayoutMetrics.Phase.STYLE, t);
         }
         
         log.trace("Creating boxes");
+        final BoxTreeEvent treeEvent = new BoxTreeEvent();
+        treeEvent.begin();
         BoxFactory factory = new BoxFactory(decoder, baseurl);
         factory.setConfig(config);
         factory.reset();
         VisualContext ctx = createVisualContext(config, decoder.getFontTable());
+        ctx.setMetrics(metrics);
+        profiler = profiling ? new LayoutProfiler() : null;
+        ctx.setProfiler(profiler);
+        factory.prefetchImages(root, ctx);
         viewport = factory.createViewportTree(root, ctx, dim.width, dim.height);
         log.trace("We have " + factory.next_order + " boxes");
+        metrics.setBoxes(factory.next_order);
         viewport.setVisibleRect(new Rectangle(visibleRect.x, visibleRect.y, visibleRect.width, visibleRect.height));
+        treeEvent.end();
+        if (treeEvent.shouldCommit())
+        {
+            treeEvent.setURL(baseurl);
+            treeEvent.boxes = metrics.getBoxes();
+            treeEvent.textBoxes = metrics.getTextBoxes();
+            treeEvent.commit();
+        }
+        t = phaseFinished(LayoutMetrics.Phase.BOX_TREE, t);
         viewport.initSubtree();
+        t = phaseFinished(LayoutMetrics.Phase.INIT, t);
         
         log.trace("Layout for "+dim.width+"px");
-        viewport.doLayout(dim.width, true, true);
+        final LayoutEvent layoutEvent = new LayoutEvent();
+        layoutEvent.begin();
+        if (profiler != null)
+        {
+            profiler.enter(viewport, LayoutProfiler.Operation.LAYOUT);
+            try {
+                viewport.doLayout(dim.width, true, true);
+            } finally {
+                profiler.exit();
+            }
+        }
+        else
+            viewport.doLayout(dim.width, true, true);
+        layoutEvent.end();
+        if (layoutEvent.shouldCommit())
+        {
+            layoutEvent.setURL(baseurl);
+            layoutEvent.width = dim.width;
+            layoutEvent.resultWidth = viewport.getWidth();
+            layoutEvent.resultHeight = viewport.getHeight();
+            layoutEvent.lines = metrics.getLines();
+            layoutEvent.commit();
+        }
         log.trace("Resulting size: " + viewport.getWidth() + "x" + viewport.getHeight() + " (" + viewport + ")");
+        t = phaseFinished(LayoutMetrics.Phase.LAYOUT, t);
 
         if (autoSizeUpdate)
         {
             log.trace("Updating viewport size");
             viewport.updateBounds(new Dimension(dim.width, dim.height));
             log.trace("Resulting size: " + viewport.getWidth() + "x" + viewport.getHeight() + " (" + viewport + ")");
+            t = phaseFinished(LayoutMetrics.Phase.BOUNDS, t);
         }
         
         if (viewport.getWidth() > dim.width || viewport.getHeight() > dim.height)
         {
             initOutputMedia(Math.max(viewport.getWidth(), dim.width), Math.max(viewport.getHeight(), dim.height));
+            t = System.nanoTime(); //the output media initialization is not counted
         }
         
         log.trace("Positioning for "+viewport.getWidth()+"x"+viewport.getHeight()+"px");
+        final PositionsEvent positionsEvent = new PositionsEvent();
+        positionsEvent.begin();
         viewport.absolutePositions();
+        positionsEvent.end();
+        if (positionsEvent.shouldCommit())
+        {
+            positionsEvent.setURL(baseurl);
+            positionsEvent.boxes = metrics.getBoxes();
+            positionsEvent.commit();
+        }
+        phaseFinished(LayoutMetrics.Phase.POSITIONS, t);
         
         if (performRendering)
         {
             log.trace("Drawing");
-            renderViewport(viewport);
+            renderViewportTimed();
         }
+        
+        log.debug("Layout created: {}", metrics);
+        for (RenderListener listener : renderListeners)
+            listener.layoutFinished(this, metrics);
     }
 
     /**
@@ -249,7 +324,7 @@ public abstract class Engine
     {
         viewport.setVisibleRect(visibleRect);
         viewport.absolutePositions();
-        renderViewport(viewport);
+        renderViewportTimed();
     }
     
     /**
@@ -257,7 +332,7 @@ public abstract class Engine
      */
     public void redrawBoxes()
     {
-        renderViewport(viewport);
+        renderViewportTimed();
     }
     
     /**
@@ -275,6 +350,60 @@ public abstract class Engine
         }
     }
     
+    /**
+     * Adds a listener that is notified about the layout creation phases.
+     * @param listener the listener to add
+     */
+    public void addRenderListener(RenderListener listener)
+    {
+        renderListeners.add(listener);
+    }
+    
+    /**
+     * Removes a previously added listener.
+     * @param listener the listener to remove
+     */
+    public void removeRenderListener(RenderListener listener)
+    {
+        renderListeners.remove(listener);
+    }
+    
+    /**
+     * Obtains the statistics collected during the last layout creation. The time of rendering the boxes
+     * is added every time the boxes are redrawn.
+     * @return the layout metrics or {@code null} when no layout has been created yet
+     */
+    public LayoutMetrics getLayoutMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Enables or disables the profiling of the individual boxes. When enabled, the time spent by creating,
+     * laying out and drawing the boxes of the individual elements is recorded by a {@link LayoutProfiler}
+     * during the next layout creation. The profiling adds some overhead, it is disabled by default.
+     * @param profiling {@code true} for enabling the profiling
+     */
+    public void setProfiling(boolean profiling)
+    {
+        this.profiling = profiling;
+    }
+    
+    public boolean isProfiling()
+    {
+        return profiling;
+    }
+    
+    /**
+     * Obtains the profiler of the last layout creation. The time of drawing the boxes
+     * is added every time the boxes are redrawn.
+     * @return the profiler or {@code null} when the profiling was not enabled for the last layout
+     */
+    public LayoutProfiler getLayoutProfiler()
+    {
+        return profiler;
+    }
+    
     /**
      * Enables or disables the automatic viewport size update according to its contents. This is enabled by default.
      * @param b <code>true</code> for enable, <code>false</code> for disable.
@@ -317,6 +446,42 @@ public abstract class Engine
 
     //==================================================================================================================
     
+    /**
+     * Renders the viewport and records the rendering time.
+     */
+    private void renderViewportTimed()
+    {
+        final long t = System.nanoTime();
+        final PaintEvent event = new PaintEvent();
+        event.begin();
+        renderViewport(viewport);
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.setURL(baseurl);
+            event.width = viewport.getWidth();
+            event.height = viewport.getHeight();
+            event.commit();
+        }
+        phaseFinished(LayoutMetrics.Phase.RENDER, t);
+    }
+    
+    /**
+     * Records the time of a finished phase and notifies the listeners.
+     * @param phase the finished phase
+     * @param start the phase start time obtained from {@link System#nanoTime()}
+     * @return the current time that may be used as the start of the next phase
+     */
+    private long phaseFinished(LayoutMetrics.Phase phase, long start)
+    {
+        final long now = System.nanoTime();
+        if (metrics != null)
+            metrics.addTime(phase, now - start);
+        for (RenderListener listener : renderListeners)
+            listener.phaseFinished(this, phase, now - start);
+        return now;
+    }
+    
     /**
      * Initializes the output media for the given width and height. This method may be called
      * either at the beginning process or anytime when the rendered page size changes and it
@@ -125,6 +125,8 @@ public class HTMLBoxFactory
             Text t = e.getOwnerDocument().createTextNode(stext);
             TextBox tbox = new TextBox(t, parent.getVisualContext().create());
             tbox.setOrder(factory.next_order++);
+            if (tbox.getVisualContext().getMetrics() != null)
+                tbox.getVisualContext().getMetrics().addTextBox();
             tbox.setContainingBlockBox(parent.getContainingBlockBox());
             tbox.setClipBlock(parent.getClipBlock());
             tbox.setViewport(viewport);
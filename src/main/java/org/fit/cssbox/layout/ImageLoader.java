@@ -43,4 +43,15 @@ public interface ImageLoader
      */
     public ContentImage loadImage(URL url);
     
+    /**
+     * Starts loading an image in the background. A subsequent {@link #loadImage(URL)} call for
+     * the same URL then uses the result of this loading instead of loading the image again.
+     * The default implementation does nothing.
+     * 
+     * @param url source URL
+     */
+    public default void prefetchImage(URL url)
+    {
+    }
+    
 }
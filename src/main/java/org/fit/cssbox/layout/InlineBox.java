@@ -335,7 +335,7 @@ public class InlineBox extends ElementBox implements InlineElement
             //when forcing, force the first child only and the children before
             //the first possible break
             boolean f = force && (i == startChild || lastbreak == startChild);
-            boolean fit = subbox.doLayout(wlimit - x, f, linestart && (i == startChild));
+            boolean fit = layoutChild(subbox, wlimit - x, f, linestart && (i == startChild));
             if (fit) //something has been placed
             {
                 if (subbox instanceof Inline)
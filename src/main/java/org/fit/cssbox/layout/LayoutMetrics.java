@@ -0,0 +1,194 @@
+/*
+ * LayoutMetrics.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.layout;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics collected during a single layout creation by {@link Engine#createLayout(Dimension, Rectangle, boolean)}:
+ * the time spent in the individual phases and the numbers of the created objects and loaded resources.
+ * The images may be loaded by background threads; the corresponding counters may be therefore updated
+ * concurrently.
+ *
+ * @author burgetr
+ */
+public class LayoutMetrics
+{
+    /** The phases of the layout creation and rendering */
+    public enum Phase
+    {
+        /** Recomputing the styles for the updated media (only when the automatic media update is enabled) */
+        STYLE,
+        /** Creating the box tree including loading the images */
+        BOX_TREE,
+        /** Initializing the box subtree (computing the box sizes and properties) */
+        INIT,
+        /** Computing the layout */
+        LAYOUT,
+        /** Updating the viewport bounds according to the content (only when the automatic size update is enabled) */
+        BOUNDS,
+        /** Computing the absolute positions of the boxes */
+        POSITIONS,
+        /** Drawing the boxes using the renderer */
+        RENDER
+    }
+
+    private final Map<Phase, Long> times;
+    private int boxes;
+    private int textBoxes;
+    private int lines;
+    private final AtomicInteger imagesLoaded;
+    private final AtomicLong bytesFetched;
+
+
+    public LayoutMetrics()
+    {
+        times = new EnumMap<>(Phase.class);
+        imagesLoaded = new AtomicInteger();
+        bytesFetched = new AtomicLong();
+    }
+
+    /**
+     * Obtains the time spent in the given phase.
+     * @param phase the phase
+     * @return the time in nanoseconds or 0 when the phase has not been executed
+     */
+    public long getTime(Phase phase)
+    {
+        final Long ret = times.get(phase);
+        return (ret == null) ? 0 : ret;
+    }
+
+    /**
+     * Obtains the total time spent in all the phases.
+     * @return the time in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        long ret = 0;
+        for (long t : times.values())
+            ret += t;
+        return ret;
+    }
+
+    /**
+     * Obtains the times of all the phases that have been executed.
+     * @return a map of phases to the times in nanoseconds
+     */
+    public Map<Phase, Long> getTimes()
+    {
+        return Collections.unmodifiableMap(times);
+    }
+
+    public void addTime(Phase phase, long nanos)
+    {
+        times.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Obtains the total number of the boxes created by the box factory.
+     * @return the number of boxes
+     */
+    public int getBoxes()
+    {
+        return boxes;
+    }
+
+    public void setBoxes(int boxes)
+    {
+        this.boxes = boxes;
+    }
+
+    /**
+     * Obtains the number of the text boxes created by the box factory.
+     * @return the number of text boxes
+     */
+    public int getTextBoxes()
+    {
+        return textBoxes;
+    }
+
+    public void addTextBox()
+    {
+        textBoxes++;
+    }
+
+    /**
+     * Obtains the number of line boxes created during the inline layout. When the layout of a block
+     * is computed repeatedly (e.g. for obtaining its minimal and maximal width), its lines are counted
+     * repeatedly as well.
+     * @return the number of line boxes
+     */
+    public int getLines()
+    {
+        return lines;
+    }
+
+    public void addLines(int count)
+    {
+        lines += count;
+    }
+
+    /**
+     * Obtains the number of images loaded from their sources. The images obtained from an image cache
+     * are not included.
+     * @return the number of images
+     */
+    public int getImagesLoaded()
+    {
+        return imagesLoaded.get();
+    }
+
+    /**
+     * Obtains the total size of the images loaded from their sources.
+     * @return the number of bytes
+     */
+    public long getBytesFetched()
+    {
+        return bytesFetched.get();
+    }
+
+    /**
+     * Records an image loaded from its source.
+     * @param bytes the size of the encoded image data
+     */
+    public void addImageLoaded(long bytes)
+    {
+        imagesLoaded.incrementAndGet();
+        bytesFetched.addAndGet(bytes);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder ret = new StringBuilder("LayoutMetrics[");
+        for (Map.Entry<Phase, Long> entry : times.entrySet())
+            ret.append(entry.getKey().name().toLowerCase()).append("=").append(entry.getValue() / 1000).append("us, ");
+        ret.append("boxes=").append(boxes);
+        ret.append(", textBoxes=").append(textBoxes);
+        ret.append(", lines=").append(lines);
+        ret.append(", images=").append(getImagesLoaded());
+        ret.append(", bytes=").append(getBytesFetched());
+        return ret.append("]").toString();
+    }
+
+}
@@ -0,0 +1,449 @@
+/*
+ * LayoutProfiler.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.layout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A profiler that measures the time spent by creating, laying out and drawing the boxes of the individual
+ * DOM nodes. The profiler is enabled by {@link Engine#setProfiling(boolean)}; the box factory and
+ * the boxes then report the start and end of every operation on a child node. The time is recorded
+ * in a call tree that may be exported as collapsed stacks for the flame graph tools or rolled up
+ * by DOM elements, element paths or tag names.
+ * <p>
+ * The time of the anonymous boxes is assigned to the element of their nearest non-anonymous parent
+ * box and the time of the text boxes is assigned to their text nodes. A profiler is not thread-safe;
+ * it may be used by a single engine only.
+ *
+ * @author burgetr
+ */
+public class LayoutProfiler
+{
+    /** The profiled operations */
+    public enum Operation
+    {
+        /** Creating the boxes of the node (including the descendants) */
+        BOX_TREE,
+        /** Computing the layout of the boxes */
+        LAYOUT,
+        /** Drawing the boxes */
+        DRAW
+    }
+
+    /** The ways of rolling up the results */
+    public enum Grouping
+    {
+        /** Every DOM element separately, identified by its path with the child indices */
+        ELEMENT,
+        /** The elements with the same path of tag names, ids and classes */
+        PATH,
+        /** The elements with the same tag name */
+        TAG
+    }
+
+    private final CallNode root;
+    private CallNode current;
+
+
+    public LayoutProfiler()
+    {
+        root = new CallNode(null, null, null);
+        current = root;
+    }
+
+    /**
+     * Records the start of an operation on a node. Every call must be followed by a corresponding
+     * call of {@link #exit()}. Nested operations of the same kind on the same node (e.g. calling
+     * the superclass implementation) are counted as a single call.
+     * @param node the DOM node processed
+     * @param op the operation
+     */
+    public void enter(Node node, Operation op)
+    {
+        final CallNode parent = current;
+        if (parent.node == node && parent.op == op)
+            parent.nesting++;
+        else
+        {
+            current = parent.getChild(node, op);
+            current.start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records the start of an operation on a box.
+     * @param box the processed box
+     * @param op the operation
+     */
+    public void enter(Box box, Operation op)
+    {
+        enter(getProfiledNode(box), op);
+    }
+
+    /**
+     * Records the end of the last started operation.
+     */
+    public void exit()
+    {
+        final CallNode node = current;
+        if (node.nesting > 0)
+            node.nesting--;
+        else if (node != root)
+        {
+            final long time = System.nanoTime() - node.start;
+            node.calls++;
+            node.total += time;
+            current = node.parent;
+            current.children += time;
+        }
+    }
+
+    /**
+     * Obtains the node the time spent on the given box is assigned to.
+     * @param box the box
+     * @return the DOM node
+     */
+    protected Node getProfiledNode(Box box)
+    {
+        while (isAnonymous(box.getNode()) && box.getParent() != null)
+            box = box.getParent();
+        return box.getNode();
+    }
+
+    //=========================================================================
+
+    /**
+     * Obtains the statistics rolled up in the given way, sorted by the total exclusive time
+     * (the most expensive first). When the elements are grouped, the inclusive time of the nested
+     * elements of the same group is counted repeatedly.
+     * @param grouping the way of rolling up the results
+     * @return the list of the statistics
+     */
+    public List<Entry> getEntries(Grouping grouping)
+    {
+        final Map<String, Entry> entries = new HashMap<>();
+        final Map<Node, String> keys = new IdentityHashMap<>();
+        collectEntries(root, grouping, entries, keys);
+        final List<Entry> ret = new ArrayList<>(entries.values());
+        ret.sort(Comparator.comparingLong((Entry e) -> e.getExclusiveTime()).reversed());
+        return ret;
+    }
+
+    private void collectEntries(CallNode cnode, Grouping grouping, Map<String, Entry> entries, Map<Node, String> keys)
+    {
+        for (CallNode child : cnode.getChildren())
+        {
+            final String key = keys.computeIfAbsent(child.node, n -> getKey(n, grouping));
+            entries.computeIfAbsent(key, Entry::new).add(child);
+            collectEntries(child, grouping, entries, keys);
+        }
+    }
+
+    /**
+     * Writes a report of the most expensive elements.
+     * @param out the output to write to
+     * @param grouping the way of rolling up the results
+     * @param limit the maximal number of the reported entries
+     * @throws IOException
+     */
+    public void writeReport(Appendable out, Grouping grouping, int limit) throws IOException
+    {
+        out.append(String.format(Locale.ROOT, "%10s %10s %8s  %-9s %s%n", "excl[ms]", "incl[ms]", "calls", "operation", "element"));
+        final List<Entry> entries = getEntries(grouping);
+        for (int i = 0; i < entries.size() && i < limit; i++)
+        {
+            final Entry entry = entries.get(i);
+            for (Operation op : entry.getOperations())
+            {
+                out.append(String.format(Locale.ROOT, "%10.3f %10.3f %8d  %-9s %s%n",
+                        entry.getExclusiveTime(op) / 1e6, entry.getInclusiveTime(op) / 1e6, entry.getCalls(op),
+                        op.name().toLowerCase(), entry.getName()));
+            }
+        }
+    }
+
+    /**
+     * Writes the call tree as collapsed stacks usable by the flame graph tools: every line contains
+     * a stack of the element names separated by semicolons and the exclusive time of the last element
+     * of the stack in microseconds. The first frame of every stack is the operation name.
+     * @param out the output to write to
+     * @throws IOException
+     */
+    public void writeCollapsedStacks(Appendable out) throws IOException
+    {
+        for (CallNode child : root.getChildren())
+            writeStacks(out, child, child.op.name().toLowerCase());
+    }
+
+    private void writeStacks(Appendable out, CallNode cnode, String prefix) throws IOException
+    {
+        final String stack = prefix + ";" + getDescriptor(cnode.node);
+        final long self = (cnode.total - cnode.children) / 1000;
+        if (self > 0)
+            out.append(stack).append(' ').append(String.valueOf(self)).append('\n');
+        for (CallNode child : cnode.getChildren())
+            writeStacks(out, child, stack);
+    }
+
+    //=========================================================================
+
+    private static boolean isAnonymous(Node node)
+    {
+        return node instanceof Element && node.getParentNode() == null;
+    }
+
+    private static String getKey(Node node, Grouping grouping)
+    {
+        switch (grouping)
+        {
+            case TAG:
+                return getName(node);
+            case PATH:
+                return getPath(node, false);
+            default:
+                return getPath(node, true);
+        }
+    }
+
+    private static String getName(Node node)
+    {
+        if (node.getNodeType() == Node.TEXT_NODE)
+            return "#text";
+        else if (isAnonymous(node))
+            return "(anonymous)";
+        else
+            return node.getNodeName().toLowerCase();
+    }
+
+    /**
+     * Creates a descriptor of a node consisting of the tag name, the id and the classes.
+     */
+    private static String getDescriptor(Node node)
+    {
+        final StringBuilder ret = new StringBuilder(getName(node));
+        if (node instanceof Element && !isAnonymous(node))
+        {
+            final Element el = (Element) node;
+            final String id = el.getAttribute("id").trim();
+            if (!id.isEmpty())
+                ret.append('#').append(id);
+            for (String cls : el.getAttribute("class").trim().split("\\s+"))
+            {
+                if (!cls.isEmpty())
+                    ret.append('.').append(cls);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static String getPath(Node node, boolean indices)
+    {
+        final List<String> names = new ArrayList<>();
+        for (Node n = node; n != null && n.getNodeType() != Node.DOCUMENT_NODE; n = n.getParentNode())
+        {
+            String name = getDescriptor(n);
+            if (indices && n.getParentNode() != null && n.getParentNode().getNodeType() != Node.DOCUMENT_NODE)
+                name += ":nth-child(" + getChildIndex(n) + ")";
+            names.add(name);
+        }
+        Collections.reverse(names);
+        return String.join(" > ", names);
+    }
+
+    private static int getChildIndex(Node node)
+    {
+        int index = 1;
+        for (Node n = node.getPreviousSibling(); n != null; n = n.getPreviousSibling())
+        {
+            if (n.getNodeType() == node.getNodeType())
+                index++;
+        }
+        return index;
+    }
+
+    //=========================================================================
+
+    /**
+     * A node of the call tree: an operation on a DOM node invoked from its parent call node.
+     */
+    private static class CallNode
+    {
+        final CallNode parent;
+        final Node node;
+        final Operation op;
+        Map<CallKey, CallNode> childNodes;
+        long start;
+        int nesting;
+        int calls;
+        long total;
+        long children;
+
+        CallNode(CallNode parent, Node node, Operation op)
+        {
+            this.parent = parent;
+            this.node = node;
+            this.op = op;
+        }
+
+        CallNode getChild(Node node, Operation op)
+        {
+            if (childNodes == null)
+                childNodes = new LinkedHashMap<>();
+            return childNodes.computeIfAbsent(new CallKey(node, op), k -> new CallNode(this, node, op));
+        }
+
+        Iterable<CallNode> getChildren()
+        {
+            if (childNodes == null)
+                return Collections.emptyList();
+            else
+                return childNodes.values();
+        }
+    }
+
+    /**
+     * The key of a call node child: the DOM node (compared by identity) and the operation.
+     */
+    private static class CallKey
+    {
+        final Node node;
+        final Operation op;
+
+        CallKey(Node node, Operation op)
+        {
+            this.node = node;
+            this.op = op;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(node) * 31 + op.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof CallKey))
+                return false;
+            final CallKey other = (CallKey) obj;
+            return other.node == node && other.op == op;
+        }
+    }
+
+    /**
+     * The statistics of an element or a group of elements.
+     */
+    public static class Entry
+    {
+        private final String name;
+        private final Map<Operation, long[]> stats; //calls, inclusive, exclusive
+
+        public Entry(String name)
+        {
+            this.name = name;
+            this.stats = new EnumMap<>(Operation.class);
+        }
+
+        private void add(CallNode cnode)
+        {
+            final long[] s = stats.computeIfAbsent(cnode.op, op -> new long[3]);
+            s[0] += cnode.calls;
+            s[1] += cnode.total;
+            s[2] += cnode.total - cnode.children;
+        }
+
+        /**
+         * Obtains the element name or the group name depending on the grouping used.
+         * @return the name
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Obtains the operations that have been performed on the element.
+         * @return the set of operations
+         */
+        public Iterable<Operation> getOperations()
+        {
+            return stats.keySet();
+        }
+
+        public int getCalls(Operation op)
+        {
+            final long[] s = stats.get(op);
+            return (s == null) ? 0 : (int) s[0];
+        }
+
+        /**
+         * Obtains the time spent by the operation including the operations on the descendant nodes.
+         * @param op the operation
+         * @return the time in nanoseconds
+         */
+        public long getInclusiveTime(Operation op)
+        {
+            final long[] s = stats.get(op);
+            return (s == null) ? 0 : s[1];
+        }
+
+        /**
+         * Obtains the time spent by the operation excluding the operations on the descendant nodes.
+         * @param op the operation
+         * @return the time in nanoseconds
+         */
+        public long getExclusiveTime(Operation op)
+        {
+            final long[] s = stats.get(op);
+            return (s == null) ? 0 : s[2];
+        }
+
+        /**
+         * Obtains the total exclusive time of all the operations.
+         * @return the time in nanoseconds
+         */
+        public long getExclusiveTime()
+        {
+            long ret = 0;
+            for (long[] s : stats.values())
+                ret += s[2];
+            return ret;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Entry[" + name + ", excl=" + getExclusiveTime() / 1000 + "us]";
+        }
+    }
+
+}
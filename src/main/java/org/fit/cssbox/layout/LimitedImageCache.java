@@ -0,0 +1,110 @@
+/*
+ * LimitedImageCache.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.layout;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An image cache that keeps a limited number of the most recently used images. Unlike
+ * the {@link UnlimitedImageCache}, each instance has its own storage; an instance may be shared
+ * by multiple engines that are used concurrently.
+ *
+ * @author burgetr
+ */
+public class LimitedImageCache implements ImageCache
+{
+    private final int maxEntries;
+    private final LinkedHashMap<URL, ContentImage> cache;
+    private final LinkedHashMap<URL, Boolean> failed;
+
+
+    /**
+     * Creates a new cache.
+     * @param maxEntries the maximal number of cached images (and the maximal number of the remembered failed URLs)
+     */
+    public LimitedImageCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<URL, ContentImage>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URL, ContentImage> eldest)
+            {
+                return size() > LimitedImageCache.this.maxEntries;
+            }
+        };
+        this.failed = new LinkedHashMap<URL, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URL, Boolean> eldest)
+            {
+                return size() > LimitedImageCache.this.maxEntries;
+            }
+        };
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Obtains the number of currently cached images.
+     * @return the number of images
+     */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Removes all the images and failed URLs from the cache.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+        failed.clear();
+    }
+
+    @Override
+    public synchronized void put(URL uri, ContentImage image)
+    {
+        cache.put(uri, image);
+    }
+
+    @Override
+    public synchronized ContentImage get(URL uri)
+    {
+        return cache.get(uri);
+    }
+
+    @Override
+    public synchronized void putFailed(URL uri)
+    {
+        failed.put(uri, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized boolean hasFailed(URL uri)
+    {
+        return failed.get(uri) != null;
+    }
+
+}
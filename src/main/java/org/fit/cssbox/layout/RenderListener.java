@@ -0,0 +1,47 @@
+/*
+ * RenderListener.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.layout;
+
+/**
+ * A listener that is notified about the progress of the layout creation and rendering in an {@link Engine}.
+ * The listener is called by the thread that creates the layout.
+ *
+ * @author burgetr
+ */
+public interface RenderListener
+{
+
+    /**
+     * Called when a phase of the layout creation or rendering has been finished.
+     * The default implementation does nothing.
+     * @param engine the engine that creates the layout
+     * @param phase the finished phase
+     * @param nanos the time spent in the phase in nanoseconds
+     */
+    public default void phaseFinished(Engine engine, LayoutMetrics.Phase phase, long nanos)
+    {
+    }
+
+    /**
+     * Called when the layout has been created (and rendered, when requested).
+     * @param engine the engine that creates the layout
+     * @param metrics the statistics collected during the layout creation
+     */
+    public void layoutFinished(Engine engine, LayoutMetrics metrics);
+
+}
@@ -112,6 +112,7 @@ public class ReplacedText extends ReplacedContent
         decoder.attributesToStyles();
         decoder.addStyleSheet(null, CSSNorm.stdStyleSheet(), DOMAnalyzer.Origin.AGENT);
         decoder.addStyleSheet(null, CSSNorm.userStyleSheet(), DOMAnalyzer.Origin.AGENT);
+        decoder.setConfig(owner.getVisualContext().getConfig());
         decoder.getStyleSheets();
     }
     
@@ -19,28 +19,38 @@
  */
 package org.fit.cssbox.layout;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
+import java.util.List;
 
 /**
  * A stacking context. It gathers the information about child stacking contexts and their z-indices.
+ * The z-index levels are kept sorted in ascending order as the child contexts are registered so that
+ * the painting code may traverse them directly without any sorting or allocation.
  * 
  * @author burgetr
  */
-public class StackingContext extends HashMap<Integer, Vector<ElementBox>> 
+public class StackingContext
 {
-    private static final long serialVersionUID = -2945581861967274084L;
-
     /** The box that creates this stacking context */
     private ElementBox elementBox;
+    
+    /** Used z-index levels in ascending order */
+    private int[] levels;
+    
+    /** Child contexts for the individual levels (the same order as levels) */
+    private List<ElementBox>[] elements;
+    
+    /** Number of used levels */
+    private int levelCount;
         
     
     public StackingContext(ElementBox element)
     {
-        super();
         this.elementBox = element;
+        this.levels = new int[2];
+        this.elements = newListArray(2);
+        this.levelCount = 0;
     }
     
     public ElementBox getElementBox()
@@ -48,29 +58,99 @@ public class StackingContext extends HashMap<Integer, Vector<ElementBox>>
         return elementBox;
     }
     
-    public Integer[] getZIndices()
+    /**
+     * Obtains the number of distinct z-index levels used by the child contexts.
+     * @return the number of levels
+     */
+    public int getLevelCount()
+    {
+        return levelCount;
+    }
+    
+    /**
+     * Obtains the z-index of the given level. The levels are sorted by their z-index in ascending order.
+     * @param level the level index ({@code 0 <= level < getLevelCount()})
+     * @return the z-index value of the level
+     */
+    public int getLevelZIndex(int level)
+    {
+        return levels[level];
+    }
+    
+    /**
+     * Obtains the child contexts registered for the given level.
+     * @param level the level index ({@code 0 <= level < getLevelCount()})
+     * @return the list of the child context boxes in the order of their registration
+     */
+    public List<ElementBox> getLevelElements(int level)
+    {
+        return elements[level];
+    }
+    
+    /**
+     * Obtains all the used z-indices in ascending order.
+     * @return an array of z-indices
+     */
+    public int[] getZIndices()
+    {
+        return Arrays.copyOf(levels, levelCount);
+    }
+    
+    /**
+     * Obtains the child contexts with the given z-index.
+     * @param zindex the z-index
+     * @return the list of the child context boxes or {@code null} when there are no contexts with this z-index
+     */
+    public List<ElementBox> getElementsForZIndex(int zindex)
     {
-        Set<Integer> zindices = keySet();
-        Integer[] clevels = zindices.toArray(new Integer[0]); 
-        Arrays.sort(clevels);
-        return clevels;
+        final int index = Arrays.binarySearch(levels, 0, levelCount, zindex);
+        return (index >= 0) ? elements[index] : null;
     }
     
-    public Vector<ElementBox> getElementsForZIndex(int zindex)
+    /**
+     * Checks whether there are no child contexts registered.
+     * @return {@code true} when there are no child contexts
+     */
+    public boolean isEmpty()
     {
-        return get(zindex);
+        return levelCount == 0;
+    }
+    
+    /**
+     * Removes all the registered child contexts.
+     */
+    public void clear()
+    {
+        Arrays.fill(elements, 0, levelCount, null);
+        levelCount = 0;
     }
     
     public void registerChildContext(ElementBox element)
     {
         int zindex = element.hasZIndex() ? element.getZIndex() : 0; //put 'auto' z-indices into level 0
-        Vector<ElementBox> list = get(zindex);
-        if (list == null)
+        int index = Arrays.binarySearch(levels, 0, levelCount, zindex);
+        if (index < 0)
         {
-            list = new Vector<ElementBox>();
-            put(zindex, list);
+            //insert a new level keeping the levels sorted
+            index = -index - 1;
+            if (levelCount == levels.length)
+            {
+                levels = Arrays.copyOf(levels, levelCount * 2);
+                elements = Arrays.copyOf(elements, levelCount * 2);
+            }
+            System.arraycopy(levels, index, levels, index + 1, levelCount - index);
+            System.arraycopy(elements, index, elements, index + 1, levelCount - index);
+            levels[index] = zindex;
+            elements[index] = new ArrayList<>();
+            levelCount++;
         }
-        list.add(element);
+        elements[index].add(element);
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<ElementBox>[] newListArray(int size)
+    {
+        return new List[size];
     }
     
 }
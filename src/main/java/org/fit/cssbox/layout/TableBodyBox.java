@@ -307,7 +307,7 @@ public class TableBodyBox extends BlockBox
                     //compute the position
                     if (r == firstrow)
                     {
-                        cell.doLayout(wlimit, true, true);
+                        layoutChild(cell, wlimit, true, true);
                         cell.setPosition(x, 0);
                         //int ch = cell.getHeight() / cell.getRowspan();
                         if (cell.getRowspan() == 1)
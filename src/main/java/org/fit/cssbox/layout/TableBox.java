@@ -129,7 +129,7 @@ public class TableBox extends BlockBox
         //layout the bodies
         if (header != null)
         {
-            header.doLayout(wlimit, columns);
+            layoutBody(header, wlimit);
             header.setPosition(0, y);
             if (header.getWidth() > maxw)
                 maxw = header.getWidth();
@@ -138,7 +138,7 @@ public class TableBox extends BlockBox
         for (Iterator<TableBodyBox> it = bodies.iterator(); it.hasNext(); )
         {
             TableBodyBox body = it.next();
-            body.doLayout(wlimit, columns);
+            layoutBody(body, wlimit);
             body.setPosition(0, y);
             if (body.getWidth() > maxw)
                 maxw = body.getWidth();
@@ -146,7 +146,7 @@ public class TableBox extends BlockBox
         }
         if (footer != null)
         {
-            footer.doLayout(wlimit, columns);
+            layoutBody(footer, wlimit);
             footer.setPosition(0, y);
             if (footer.getWidth() > maxw)
                 maxw = footer.getWidth();
@@ -158,6 +158,26 @@ public class TableBox extends BlockBox
         return true;
     }
     
+    /**
+     * Computes the layout of a table body using the computed column widths.
+     * When the profiling is enabled, the time spent is recorded.
+     */
+    private void layoutBody(TableBodyBox body, float wlimit)
+    {
+        final LayoutProfiler profiler = ctx.getProfiler();
+        if (profiler != null)
+        {
+            profiler.enter(body, LayoutProfiler.Operation.LAYOUT);
+            try {
+                body.doLayout(wlimit, columns);
+            } finally {
+                profiler.exit();
+            }
+        }
+        else
+            body.doLayout(wlimit, columns);
+    }
+    
     @Override
     protected void loadSizes(boolean update)
     {
@@ -321,11 +341,11 @@ public class TableBox extends BlockBox
     {
         //Draw only the bodies, ignore the remaining children
         if (header != null)
-            header.draw(turn);
+            drawChild(header, turn);
         for (TableBodyBox body : bodies)
-            body.draw(turn);
+            drawChild(body, turn);
         if (footer != null)
-            footer.draw(turn);
+            drawChild(footer, turn);
     }
     
     //====================================================================================
@@ -0,0 +1,199 @@
+/*
+ * TransformMatrix.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.layout;
+
+/**
+ * An immutable 2D affine transformation matrix. It provides a basically compatible
+ * replacement for java.awt.geom.AffineTransform that is independent on the output
+ * toolkit. The matrix elements use the same naming and ordering as AffineTransform:
+ * <pre>
+ * [ m00 m01 m02 ]
+ * [ m10 m11 m12 ]
+ * [  0   0   1  ]
+ * </pre>
+ * All the operations return a new matrix.
+ *
+ * @author burgetr
+ */
+public final class TransformMatrix
+{
+    /** The identity transformation */
+    public static final TransformMatrix IDENTITY = new TransformMatrix(1.0, 0.0, 0.0, 1.0, 0.0, 0.0);
+
+    private final double m00;
+    private final double m10;
+    private final double m01;
+    private final double m11;
+    private final double m02;
+    private final double m12;
+
+
+    /**
+     * Creates a new matrix from its elements.
+     */
+    public TransformMatrix(double m00, double m10, double m01, double m11, double m02, double m12)
+    {
+        this.m00 = m00;
+        this.m10 = m10;
+        this.m01 = m01;
+        this.m11 = m11;
+        this.m02 = m02;
+        this.m12 = m12;
+    }
+
+    /**
+     * Creates a new matrix from an array of 6 values in the order {@code m00 m10 m01 m11 m02 m12}
+     * as used by the CSS {@code matrix()} function.
+     * @param flatmatrix the source values
+     */
+    public TransformMatrix(float[] flatmatrix)
+    {
+        this(flatmatrix[0], flatmatrix[1], flatmatrix[2], flatmatrix[3], flatmatrix[4], flatmatrix[5]);
+    }
+
+    public double getScaleX()
+    {
+        return m00;
+    }
+
+    public double getShearY()
+    {
+        return m10;
+    }
+
+    public double getShearX()
+    {
+        return m01;
+    }
+
+    public double getScaleY()
+    {
+        return m11;
+    }
+
+    public double getTranslateX()
+    {
+        return m02;
+    }
+
+    public double getTranslateY()
+    {
+        return m12;
+    }
+
+    /**
+     * Obtains the matrix values in the order {@code m00 m10 m01 m11 m02 m12}.
+     * @return a new array of 6 values
+     */
+    public double[] getMatrix()
+    {
+        return new double[] { m00, m10, m01, m11, m02, m12 };
+    }
+
+    public boolean isIdentity()
+    {
+        return m00 == 1.0 && m10 == 0.0 && m01 == 0.0 && m11 == 1.0 && m02 == 0.0 && m12 == 0.0;
+    }
+
+    //=======================================================================
+
+    /**
+     * Concatenates a matrix with this matrix: {@code [this] = [this] x [t]}.
+     * @param t the matrix to be concatenated
+     * @return the resulting matrix
+     */
+    public TransformMatrix concatenate(TransformMatrix t)
+    {
+        return new TransformMatrix(m00 * t.m00 + m01 * t.m10,
+                                   m10 * t.m00 + m11 * t.m10,
+                                   m00 * t.m01 + m01 * t.m11,
+                                   m10 * t.m01 + m11 * t.m11,
+                                   m00 * t.m02 + m01 * t.m12 + m02,
+                                   m10 * t.m02 + m11 * t.m12 + m12);
+    }
+
+    public TransformMatrix translate(double tx, double ty)
+    {
+        return concatenate(new TransformMatrix(1.0, 0.0, 0.0, 1.0, tx, ty));
+    }
+
+    public TransformMatrix scale(double sx, double sy)
+    {
+        return concatenate(new TransformMatrix(sx, 0.0, 0.0, sy, 0.0, 0.0));
+    }
+
+    public TransformMatrix shear(double shx, double shy)
+    {
+        return concatenate(new TransformMatrix(1.0, shy, shx, 1.0, 0.0, 0.0));
+    }
+
+    /**
+     * Concatenates a rotation to this matrix. The quadrant rotations are computed exactly
+     * in the same way as in AffineTransform.
+     * @param theta the rotation angle in radians
+     * @return the resulting matrix
+     */
+    public TransformMatrix rotate(double theta)
+    {
+        double sin = Math.sin(theta);
+        double cos;
+        if (sin == 1.0 || sin == -1.0)
+            cos = 0.0;
+        else
+        {
+            cos = Math.cos(theta);
+            if (cos == 1.0 || cos == -1.0)
+                sin = 0.0;
+        }
+        return concatenate(new TransformMatrix(cos, sin, -sin, cos, 0.0, 0.0));
+    }
+
+    //=======================================================================
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Double.hashCode(m00);
+        result = prime * result + Double.hashCode(m10);
+        result = prime * result + Double.hashCode(m01);
+        result = prime * result + Double.hashCode(m11);
+        result = prime * result + Double.hashCode(m02);
+        result = prime * result + Double.hashCode(m12);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof TransformMatrix)) return false;
+        TransformMatrix other = (TransformMatrix) obj;
+        return m00 == other.m00 && m10 == other.m10 && m01 == other.m01
+                && m11 == other.m11 && m02 == other.m02 && m12 == other.m12;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TransformMatrix[[" + m00 + ", " + m01 + ", " + m02 + "], ["
+                + m10 + ", " + m11 + ", " + m12 + "]]";
+    }
+
+}
@@ -4,23 +4,16 @@ import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * An implementation of the image cache with unlimited storage size.
+ * An implementation of the image cache with unlimited storage size. The cache is shared
+ * by all the instances and it may be used by multiple engines concurrently.
  *
  * @author dedrakot. Based on Alessandro Tucci simple cache for storing already loaded images.
  */
 public class UnlimitedImageCache implements ImageCache
 {
-    private static ConcurrentHashMap<URL, ContentImage> cache;
+    private static final ConcurrentHashMap<URL, ContentImage> cache = new ConcurrentHashMap<>();
 
-    static {
-        cache = new ConcurrentHashMap<>();
-    }
-
-    private static ConcurrentHashMap<URL, Boolean> failed;
-
-    static {
-        failed = new ConcurrentHashMap<>();
-    }
+    private static final ConcurrentHashMap<URL, Boolean> failed = new ConcurrentHashMap<>();
 
     @Override
     public void put(URL uri, ContentImage image)
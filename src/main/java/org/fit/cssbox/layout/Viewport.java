@@ -425,7 +425,18 @@ public class Viewport extends BlockBox
     public void draw(BoxRenderer renderer)
     {
         this.renderer = renderer;
-        drawStackingContext(false);
+        final LayoutProfiler profiler = ctx.getProfiler();
+        if (profiler != null)
+        {
+            profiler.enter(this, LayoutProfiler.Operation.DRAW);
+            try {
+                drawStackingContext(false);
+            } finally {
+                profiler.exit();
+            }
+        }
+        else
+            drawStackingContext(false);
     }
 	
     /**
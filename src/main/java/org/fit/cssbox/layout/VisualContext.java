@@ -63,6 +63,8 @@ public abstract class VisualContext
     private BrowserConfig config; //used engine configuration
     private FontTable fontTable; //a table of CSS-defined fonts
     private Viewport viewport; //the viewport used for obtaining the vw sizes
+    private LayoutMetrics metrics; //statistics of the layout being created
+    private LayoutProfiler profiler; //the profiler of the layout being created or null when not profiled
     private float fontSize; //font size in pt
     private CSSProperty.FontWeight fontWeight;
     private CSSProperty.FontStyle fontStyle;
@@ -85,6 +87,8 @@ public abstract class VisualContext
         this.config = config;
         this.fontTable = fontTable;
         rootContext = (parent == null) ? this : parent.rootContext;
+        metrics = (parent == null) ? null : parent.metrics;
+        profiler = (parent == null) ? null : parent.profiler;
         fontSize = CSSUnits.medium_font;
         fontWeight = CSSProperty.FontWeight.NORMAL;
         fontStyle = CSSProperty.FontStyle.NORMAL;
@@ -99,6 +103,8 @@ public abstract class VisualContext
     {
         viewport = src.viewport;
         rootContext = src.rootContext;
+        metrics = src.metrics;
+        profiler = src.profiler;
         rem = src.rem;
         fontSize = src.fontSize;
         fontWeight = src.fontWeight;
@@ -133,6 +139,44 @@ public abstract class VisualContext
         return fontTable;
     }
 
+    /**
+     * Obtains the statistics of the layout that is being created using this context.
+     * @return the layout metrics or {@code null} when the statistics are not collected
+     */
+    public LayoutMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the statistics of the layout that is being created. The derived contexts created
+     * afterwards share the same metrics.
+     * @param metrics the layout metrics
+     */
+    public void setMetrics(LayoutMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Obtains the profiler of the layout that is being created using this context.
+     * @return the profiler or {@code null} when the layout is not profiled
+     */
+    public LayoutProfiler getProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * Sets the profiler of the layout that is being created. The derived contexts created
+     * afterwards share the same profiler.
+     * @param profiler the profiler or {@code null} for disabling the profiling
+     */
+    public void setProfiler(LayoutProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
     public Viewport getViewport()
     {
         return viewport;
@@ -0,0 +1,146 @@
+/*
+ * IOExecutors.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.misc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors used for fetching the document resources (style sheets and images) in the background.
+ * The resource fetching is a blocking I/O so that the best choice is a virtual thread per fetch
+ * when running on Java 21 or newer. On older runtimes, a bounded pool of platform threads is used;
+ * when all the threads are busy, the fetch is performed directly by the thread that requested it.
+ *
+ * @author burgetr
+ */
+public final class IOExecutors
+{
+    private static final Logger log = LoggerFactory.getLogger(IOExecutors.class);
+
+    /** The maximal number of platform threads used when the virtual threads are not available */
+    public static final int DEFAULT_MAX_PLATFORM_THREADS = 64;
+
+    private static volatile ExecutorService defaultExecutor;
+
+
+    private IOExecutors()
+    {
+    }
+
+    /**
+     * Obtains the executor shared by all the engines that do not configure their own one.
+     * The executor is created on the first use.
+     * @return the default executor
+     */
+    public static ExecutorService getDefault()
+    {
+        ExecutorService ret = defaultExecutor;
+        if (ret == null)
+        {
+            synchronized (IOExecutors.class)
+            {
+                ret = defaultExecutor;
+                if (ret == null)
+                {
+                    ret = newExecutor();
+                    defaultExecutor = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks whether the virtual threads are supported by the current runtime.
+     * @return {@code true} for Java 21 and newer
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        return getVirtualThreadFactoryMethod() != null;
+    }
+
+    /**
+     * Creates a new executor that uses virtual threads when available or platform threads otherwise.
+     * @return the new executor
+     */
+    public static ExecutorService newExecutor()
+    {
+        final ExecutorService ret = newVirtualThreadExecutor();
+        if (ret != null)
+            return ret;
+        else
+            return newPlatformThreadExecutor(DEFAULT_MAX_PLATFORM_THREADS);
+    }
+
+    /**
+     * Creates a new executor that starts a new virtual thread for each task.
+     * @return the new executor or {@code null} when the virtual threads are not supported
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        final Method m = getVirtualThreadFactoryMethod();
+        if (m != null)
+        {
+            try {
+                return (ExecutorService) m.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.warn("Couldn't create a virtual thread executor: {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new executor that uses a bounded pool of daemon platform threads. The idle threads
+     * are terminated after some time. When all the threads are busy, the submitted task is executed
+     * by the submitting thread.
+     * @param maxThreads the maximal number of threads
+     * @return the new executor
+     */
+    public static ExecutorService newPlatformThreadExecutor(int maxThreads)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, maxThreads, 30, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                r -> {
+                    final Thread t = new Thread(r, "cssbox-io-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static Method getVirtualThreadFactoryMethod()
+    {
+        if (Runtime.version().feature() < 21)
+            return null; //not available or a preview feature only
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * SingleFlight.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.misc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Coalesces concurrent executions of the same task. When a task for some key is already running,
+ * the other callers with the same key do not start their own execution; they wait for the running one
+ * and obtain the same result or the same exception. The key is released as soon as the task
+ * finishes so the results are not cached; the callers are expected to check their own cache within
+ * the task.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ * @author burgetr
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight;
+
+
+    public SingleFlight()
+    {
+        inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Executes the task for the given key or waits for the task that is already running for the key.
+     * @param key the task key
+     * @param task the task to be executed when no task is running for the key
+     * @return the task result (possibly obtained by a different thread)
+     * @throws E the exception thrown by the task (possibly in a different thread)
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> V execute(K key, Task<V, E> task) throws E
+    {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running == null)
+        {
+            //we are the leader: run the task and publish the result
+            try {
+                final V result = task.run();
+                future.complete(result);
+                return result;
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }
+        else
+        {
+            //wait for the leader
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else if (cause instanceof Error)
+                    throw (Error) cause;
+                else
+                    throw (E) cause; //only the checked exceptions declared by the task may be thrown
+            }
+        }
+    }
+
+    /**
+     * Obtains the number of the tasks currently running.
+     * @return the number of tasks
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    /**
+     * A task that produces a result and may throw an exception.
+     *
+     * @param <V> the result type
+     * @param <E> the exception type
+     */
+    @FunctionalInterface
+    public interface Task<V, E extends Exception>
+    {
+        public V run() throws E;
+    }
+
+}
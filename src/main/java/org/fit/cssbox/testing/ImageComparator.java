@@ -21,73 +21,321 @@ package org.fit.cssbox.testing;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
+ * Compares two images pixel by pixel and computes the rate of the different pixels. The images are
+ * compared in parallel bands of rows. When both the images use the same integer RGB pixel format, their
+ * data buffers are read directly; otherwise, the pixels are obtained row by row using
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ * <p>
+ * Optionally, a tolerance of the individual color channels may be specified and the comparison
+ * may be stopped as soon as a given error rate is reached. The difference image is created only
+ * when requested.
  *
  * @author burgetr
  */
 public class ImageComparator
 {
+    /** The minimal number of pixels for comparing the images in parallel */
+    private static final int PARALLEL_THRESHOLD = 64 * 1024;
+    /** The minimal number of rows in a band compared by a single task */
+    private static final int MIN_BAND_ROWS = 16;
+    /** The number of rows compared between the checks of the early exit condition */
+    private static final int CHECK_ROWS = 8;
+    
+    private final BufferedImage img1;
+    private final BufferedImage img2;
+    private final int tolerance; //the maximal difference of a color channel
+    private final boolean parallel; //compare large images in parallel
     private BufferedImage diff;
     private int totalcnt; //total number of pixels
     private int diffcnt; //number of different pixels
+    private boolean complete; //all the pixels have been compared
     private String errorDescr; //error description
     
+    /**
+     * Compares two images. The pixels must be exactly the same.
+     * @param img1 the first image
+     * @param img2 the second image
+     */
     public ImageComparator(BufferedImage img1, BufferedImage img2)
     {
+        this(img1, img2, 0, 1.0f);
+    }
+    
+    /**
+     * Compares two images using a color tolerance. The comparison is stopped when the given error
+     * rate is reached.
+     * @param img1 the first image
+     * @param img2 the second image
+     * @param tolerance the maximal difference of the individual color channels (0 to 255) for the
+     * pixels considered to be the same
+     * @param maxErrorRate the error rate (0.0 to 1.0) that stops the comparison when reached; the
+     * resulting error rate is then at least this value. Use 1.0 for comparing all the pixels.
+     */
+    public ImageComparator(BufferedImage img1, BufferedImage img2, int tolerance, float maxErrorRate)
+    {
+        this(img1, img2, tolerance, maxErrorRate, true);
+    }
+    
+    /**
+     * Compares two images using a color tolerance and optionally without using the common
+     * fork-join pool for comparing the large images in parallel.
+     * @param img1 the first image
+     * @param img2 the second image
+     * @param tolerance the maximal difference of the individual color channels (0 to 255) for the
+     * pixels considered to be the same
+     * @param maxErrorRate the error rate (0.0 to 1.0) that stops the comparison when reached
+     * @param parallel {@code false} for comparing all the pixels in the calling thread
+     */
+    public ImageComparator(BufferedImage img1, BufferedImage img2, int tolerance, float maxErrorRate, boolean parallel)
+    {
+        this.img1 = img1;
+        this.img2 = img2;
+        this.tolerance = tolerance;
+        this.parallel = parallel;
         errorDescr = null;
-        diff = createDifferenceImage(img1, img2);
+        compare(maxErrorRate);
     }
 
+    /**
+     * Obtains the rate of the different pixels. When the comparison has been stopped
+     * (see {@link #isComplete()}), only the pixels compared before stopping are counted.
+     * @return the error rate from 0.0 (the same images) to 1.0 (all the pixels differ)
+     */
     public float getErrorRate()
     {
         return (float) diffcnt / (float) totalcnt;
     }
     
+    /**
+     * Checks whether all the pixels have been compared.
+     * @return {@code false} when the comparison has been stopped because the maximal error
+     * rate was reached
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+    
     public String getErrorDescription()
     {
         return errorDescr;
     }
     
+    /**
+     * Obtains an image that shows the different pixels. It is a copy of the first image
+     * with the different pixels highlighted. The image is created when first requested
+     * and it always covers all the pixels even if the comparison has been stopped.
+     * @return the difference image
+     */
     public BufferedImage getDifferenceImage()
     {
+        if (diff == null)
+            diff = createDifferenceImage();
         return diff;
     }
     
-    private BufferedImage createDifferenceImage(BufferedImage img1, BufferedImage img2) 
+    //=========================================================================
+    
+    private void compare(float maxErrorRate)
     {
-        // convert images to pixel arrays...
-        final int w1 = img1.getWidth();
-        final int h1 = img1.getHeight(); 
-        final int w2 = img2.getWidth();
-        final int h2 = img2.getHeight();
-        if (w1 != w2 || h1 != h2)
+        final int w = img1.getWidth();
+        final int h = img1.getHeight();
+        if (w != img2.getWidth() || h != img2.getHeight())
         {
             errorDescr = "Image sizes don't match";
             diffcnt = totalcnt = 1;
-            return img1;
+            complete = true;
+            return;
         }
+        totalcnt = w * h;
+        //at least one different pixel is needed for stopping, even for the zero error rate
+        final int limit = (maxErrorRate >= 1.0f) ? Integer.MAX_VALUE : Math.max(1, (int) Math.ceil(maxErrorRate * totalcnt));
+        final PixelRows rows1 = new PixelRows(img1);
+        final PixelRows rows2 = new PixelRows(img2);
+        final int mask = PixelRows.init(rows1, rows2);
+        final AtomicInteger found = new AtomicInteger();
+        
+        final int bands = getBandCount(w, h);
+        final int bandRows = (h + bands - 1) / bands;
+        if (bands == 1)
+            compareBand(rows1, rows2, mask, 0, h, found, limit);
         else
+            IntStream.range(0, bands).parallel().forEach(band -> 
+                compareBand(rows1, rows2, mask, band * bandRows, Math.min(h, (band + 1) * bandRows), found, limit));
+        
+        diffcnt = found.get();
+        complete = diffcnt < limit;
+    }
+    
+    /**
+     * Compares a band of rows and adds the number of the different pixels to the shared counter.
+     * Stops when the counter reaches the limit.
+     */
+    private void compareBand(PixelRows rows1, PixelRows rows2, int mask, int y1, int y2, AtomicInteger found, int limit)
+    {
+        final int w = img1.getWidth();
+        final int[] buf1 = rows1.createBuffer();
+        final int[] buf2 = rows2.createBuffer();
+        int cnt = 0;
+        for (int y = y1; y < y2; y++)
+        {
+            final int[] p1 = rows1.getRow(y, buf1);
+            final int[] p2 = rows2.getRow(y, buf2);
+            cnt += compareRow(p1, rows1.getRowOffset(y), p2, rows2.getRowOffset(y), w, mask);
+            if ((y - y1) % CHECK_ROWS == CHECK_ROWS - 1 || y == y2 - 1)
+            {
+                if (found.addAndGet(cnt) >= limit)
+                    return;
+                cnt = 0;
+            }
+        }
+    }
+    
+    private int compareRow(int[] p1, int o1, int[] p2, int o2, int w, int mask)
+    {
+        int cnt = 0;
+        if (tolerance == 0)
+        {
+            for (int x = 0; x < w; x++)
+            {
+                if (((p1[o1 + x] ^ p2[o2 + x]) & mask) != 0)
+                    cnt++;
+            }
+        }
+        else
+        {
+            for (int x = 0; x < w; x++)
+            {
+                if (differs(p1[o1 + x] & mask, p2[o2 + x] & mask))
+                    cnt++;
+            }
+        }
+        return cnt;
+    }
+    
+    /**
+     * Checks whether the pixels differ more than the tolerance in any channel.
+     */
+    private boolean differs(int c1, int c2)
+    {
+        if (c1 == c2)
+            return false;
+        for (int shift = 0; shift < 32; shift += 8)
+        {
+            final int d = ((c1 >>> shift) & 0xff) - ((c2 >>> shift) & 0xff);
+            if (d > tolerance || -d > tolerance)
+                return true;
+        }
+        return false;
+    }
+    
+    private int getBandCount(int w, int h)
+    {
+        if (!parallel || (long) w * h < PARALLEL_THRESHOLD)
+            return 1;
+        final int threads = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(threads * 4, h / MIN_BAND_ROWS));
+    }
+    
+    private BufferedImage createDifferenceImage() 
+    {
+        if (errorDescr != null)
+            return img1;
+        final int w = img1.getWidth();
+        final int h = img1.getHeight();
+        final int highlight = Color.MAGENTA.getRGB();
+        final int[] p1 = img1.getRGB(0, 0, w, h, null, 0, w);
+        final int[] p2 = img2.getRGB(0, 0, w, h, null, 0, w);
+        // highlight img1's pixels that differ
+        for (int i = 0; i < p1.length; i++)
         {
-            final int highlight = Color.MAGENTA.getRGB();
-            final int[] p1 = img1.getRGB(0, 0, w1, h1, null, 0, w1);
-            final int[] p2 = img2.getRGB(0, 0, w1, h1, null, 0, w1);
-            totalcnt = p1.length;
-            diffcnt = 0;
-            // compare img1 to img2, pixel by pixel. If different, highlight img1's pixel...
-            for (int i = 0; i < p1.length; i++)
+            if (differs(p1[i], p2[i]))
+                p1[i] = highlight;
+        }
+        final BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        out.setRGB(0, 0, w, h, p1, 0, w);
+        return out;
+    }
+    
+    //=========================================================================
+    
+    /**
+     * Provides the image pixels row by row. For the integer RGB images, the data buffer
+     * is accessed directly (this disables the acceleration of the image).
+     */
+    private static class PixelRows
+    {
+        private final BufferedImage img;
+        private int[] data; //the pixel data or null when not accessed directly
+        private int offset;
+        private int stride;
+        
+        public PixelRows(BufferedImage img)
+        {
+            this.img = img;
+        }
+        
+        /**
+         * Enables the direct access to the data buffers when both the images use the same integer
+         * pixel format.
+         * @return the mask of the significant pixel bits for comparing the images
+         */
+        public static int init(PixelRows r1, PixelRows r2)
+        {
+            final int type = r1.img.getType();
+            if (type == r2.img.getType() && r1.isDirectAccessible() && r2.isDirectAccessible())
             {
-                if (p1[i] != p2[i])
-                {
-                    p1[i] = highlight;
-                    diffcnt++;
-                }
+                r1.accessBuffer();
+                r2.accessBuffer();
+                return (type == BufferedImage.TYPE_INT_RGB) ? 0x00ffffff : 0xffffffff;
             }
-            // save img1's pixels to a new BufferedImage, and return it...
-            // (May require TYPE_INT_ARGB)
-            final BufferedImage out = new BufferedImage(w1, h1, BufferedImage.TYPE_INT_RGB);
-            out.setRGB(0, 0, w1, h1, p1, 0, w1);
-            return out;
+            else
+                return 0xffffffff;
+        }
+        
+        private boolean isDirectAccessible()
+        {
+            final int type = img.getType();
+            final WritableRaster raster = img.getRaster();
+            return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getDataBuffer() instanceof DataBufferInt
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                    && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        }
+        
+        private void accessBuffer()
+        {
+            final WritableRaster raster = img.getRaster();
+            final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            data = buffer.getData();
+            offset = buffer.getOffset();
+            stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        }
+        
+        public int[] createBuffer()
+        {
+            return (data != null) ? null : new int[img.getWidth()];
+        }
+        
+        public int[] getRow(int y, int[] buf)
+        {
+            if (data != null)
+                return data;
+            else
+                return img.getRGB(0, y, img.getWidth(), 1, buf, 0, img.getWidth());
+        }
+        
+        public int getRowOffset(int y)
+        {
+            return (data != null) ? offset + y * stride : 0;
         }
     }
+    
 }
@@ -0,0 +1,378 @@
+/*
+ * PerformanceBaseline.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *  
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.testing;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The performance statistics of the reference tests: the median (p50) and the 95th percentile (p95)
+ * of the test wall time over repeated executions and the median of the allocated memory. The baseline
+ * is stored as a companion of the reference results and it is used for detecting the performance
+ * regressions in the same way as the reference results are used for detecting the visual regressions.
+ * 
+ * @author burgetr
+ */
+public class PerformanceBaseline extends LinkedHashMap<String, PerformanceBaseline.Stats>
+{
+    private static final long serialVersionUID = 1L;
+    
+    /** The class path resource that contains the default baseline */
+    public static final String RESOURCE = "/test_performance.csv";
+    /** The minimal ratio of the median times that is considered a slowdown of a test */
+    public static final float SLOWDOWN_THRESHOLD = 1.25f;
+    /** The minimal absolute slowdown of a test in milliseconds; the smaller differences are ignored */
+    public static final float MIN_SLOWDOWN = 5.0f;
+    /** The minimal ratio of the allocated memory that is considered a regression of a test */
+    public static final float ALLOCATION_THRESHOLD = 1.25f;
+    /** The minimal average ratio of the median times that is considered an overall slowdown */
+    public static final float OVERALL_THRESHOLD = 1.10f;
+    
+    private static final String HEADER = "name,runs,p50,p95,alloc";
+    
+    /**
+     * Loads the default baseline from the class path. When no baseline is available,
+     * the baseline is empty.
+     */
+    public PerformanceBaseline()
+    {
+        try (InputStream is = getClass().getResourceAsStream(RESOURCE))
+        {
+            if (is != null)
+                loadCSV(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Loads a baseline from a CSV file.
+     * @param is the input stream to read the baseline from
+     * @throws IOException
+     */
+    public PerformanceBaseline(InputStream is) throws IOException
+    {
+        loadCSV(is);
+    }
+    
+    /**
+     * Computes the statistics from the test timings.
+     * @param samples a map of test names to the timings of the repeated test executions
+     * as obtained by {@link TestBatch#getTimingSamples()}
+     */
+    public PerformanceBaseline(Map<String, List<TestTiming>> samples)
+    {
+        for (Map.Entry<String, List<TestTiming>> entry : samples.entrySet())
+        {
+            if (!entry.getValue().isEmpty())
+                put(entry.getKey(), new Stats(entry.getValue()));
+        }
+    }
+    
+    /**
+     * Saves the baseline to a CSV file.
+     * @param filename the destination file path
+     * @throws IOException
+     */
+    public void save(String filename) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename)))
+        {
+            out.println(HEADER);
+            for (Map.Entry<String, Stats> entry : entrySet())
+            {
+                final Stats stats = entry.getValue();
+                out.println(String.format(Locale.ROOT, "%s,%d,%.2f,%.2f,%d",
+                        entry.getKey(), stats.getRuns(), stats.getP50(), stats.getP95(), stats.getAllocatedBytes()));
+            }
+        }
+    }
+    
+    /**
+     * Finds the tests that are significantly slower or allocate more memory in the current results
+     * than in this baseline. A test is considered slower when its median time exceeds the baseline
+     * median by {@link #SLOWDOWN_THRESHOLD} and {@link #MIN_SLOWDOWN} at least and, at the same time,
+     * the current median exceeds the 95th percentile of the baseline, i.e. the slowdown is not covered
+     * by the variance of the baseline measurements.
+     * @param current the current test statistics
+     * @return the list of regressions found
+     */
+    public List<Regression> findRegressions(PerformanceBaseline current)
+    {
+        final List<Regression> ret = new ArrayList<>();
+        for (Map.Entry<String, Stats> entry : current.entrySet())
+        {
+            final Stats base = get(entry.getKey());
+            final Stats cur = entry.getValue();
+            if (base != null)
+            {
+                if (cur.getP50() > base.getP50() * SLOWDOWN_THRESHOLD
+                        && cur.getP50() - base.getP50() > MIN_SLOWDOWN
+                        && cur.getP50() > base.getP95())
+                    ret.add(new Regression(entry.getKey(), Regression.Kind.TIME, base, cur));
+                if (base.getAllocatedBytes() > 0 && cur.getAllocatedBytes() > 0
+                        && cur.getAllocatedBytes() > base.getAllocatedBytes() * ALLOCATION_THRESHOLD)
+                    ret.add(new Regression(entry.getKey(), Regression.Kind.ALLOCATION, base, cur));
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Computes the overall ratio of the current median times to the baseline median times
+     * as the geometric mean of the ratios of the individual tests present in both the statistics.
+     * @param current the current test statistics
+     * @return the average ratio (greater than 1.0 for a slowdown) or 1.0 when there are no common tests
+     */
+    public float getOverallRatio(PerformanceBaseline current)
+    {
+        return getOverallRatio(current, false);
+    }
+    
+    /**
+     * Computes the overall ratio of the current 95th percentiles to the baseline 95th percentiles
+     * as the geometric mean of the ratios of the individual tests present in both the statistics.
+     * @param current the current test statistics
+     * @return the average ratio (greater than 1.0 for a slowdown) or 1.0 when there are no common tests
+     */
+    public float getOverallTailRatio(PerformanceBaseline current)
+    {
+        return getOverallRatio(current, true);
+    }
+    
+    /**
+     * Checks whether the current results are slower in average than the baseline
+     * by {@link #OVERALL_THRESHOLD} at least.
+     * @param current the current test statistics
+     * @return {@code true} when an overall slowdown has been detected
+     */
+    public boolean isOverallRegression(PerformanceBaseline current)
+    {
+        return getOverallRatio(current) > OVERALL_THRESHOLD;
+    }
+    
+    private float getOverallRatio(PerformanceBaseline current, boolean tail)
+    {
+        double logsum = 0;
+        int cnt = 0;
+        for (Map.Entry<String, Stats> entry : current.entrySet())
+        {
+            final Stats base = get(entry.getKey());
+            if (base != null)
+            {
+                final float b = tail ? base.getP95() : base.getP50();
+                final float c = tail ? entry.getValue().getP95() : entry.getValue().getP50();
+                if (b > 0 && c > 0)
+                {
+                    logsum += Math.log(c / b);
+                    cnt++;
+                }
+            }
+        }
+        return (cnt == 0) ? 1.0f : (float) Math.exp(logsum / cnt);
+    }
+    
+    private void loadCSV(InputStream is) throws IOException
+    {
+        BufferedReader read = new BufferedReader(new InputStreamReader(is));
+        String line;
+        while ((line = read.readLine()) != null)
+        {
+            if (line.isEmpty() || line.equals(HEADER))
+                continue;
+            String[] vals = line.split(",");
+            put(vals[0], new Stats(Integer.parseInt(vals[1]), Float.parseFloat(vals[2]),
+                    Float.parseFloat(vals[3]), Long.parseLong(vals[4])));
+        }
+    }
+    
+    //=========================================================================
+    
+    /**
+     * The performance statistics of a single test.
+     */
+    public static class Stats
+    {
+        private final int runs;
+        private final float p50;
+        private final float p95;
+        private final long allocatedBytes;
+        
+        public Stats(int runs, float p50, float p95, long allocatedBytes)
+        {
+            this.runs = runs;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.allocatedBytes = allocatedBytes;
+        }
+        
+        /**
+         * Computes the statistics from the timings of repeated test executions.
+         * @param timings the test timings (at least one)
+         */
+        public Stats(List<TestTiming> timings)
+        {
+            final long[] times = new long[timings.size()];
+            final long[] allocs = new long[timings.size()];
+            int allocCnt = 0;
+            for (int i = 0; i < timings.size(); i++)
+            {
+                times[i] = timings.get(i).getWallTime();
+                if (timings.get(i).getAllocatedBytes() >= 0)
+                    allocs[allocCnt++] = timings.get(i).getAllocatedBytes();
+            }
+            Arrays.sort(times);
+            Arrays.sort(allocs, 0, allocCnt);
+            this.runs = times.length;
+            this.p50 = percentile(times, times.length, 0.50f) / 1e6f;
+            this.p95 = percentile(times, times.length, 0.95f) / 1e6f;
+            this.allocatedBytes = (allocCnt == 0) ? -1 : percentile(allocs, allocCnt, 0.50f);
+        }
+        
+        /**
+         * Obtains the number of test executions the statistics have been computed from.
+         * @return the number of executions
+         */
+        public int getRuns()
+        {
+            return runs;
+        }
+
+        /**
+         * Obtains the median of the test wall time.
+         * @return the time in milliseconds
+         */
+        public float getP50()
+        {
+            return p50;
+        }
+
+        /**
+         * Obtains the 95th percentile of the test wall time.
+         * @return the time in milliseconds
+         */
+        public float getP95()
+        {
+            return p95;
+        }
+
+        /**
+         * Obtains the median of the memory allocated by the test.
+         * @return the allocated memory in bytes or -1 when not available
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        /**
+         * Computes a percentile of the sorted values using the nearest rank method.
+         */
+        private static long percentile(long[] sorted, int count, float p)
+        {
+            final int rank = (int) Math.ceil(p * count);
+            return sorted[Math.max(0, rank - 1)];
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "p50=%.1fms p95=%.1fms alloc=%dkB (%d runs)",
+                    p50, p95, allocatedBytes / 1024, runs);
+        }
+    }
+    
+    /**
+     * A performance regression of a single test.
+     */
+    public static class Regression
+    {
+        /** The kind of the regression */
+        public enum Kind
+        {
+            /** The test is slower */
+            TIME,
+            /** The test allocates more memory */
+            ALLOCATION
+        }
+        
+        private final String name;
+        private final Kind kind;
+        private final Stats baseline;
+        private final Stats current;
+        
+        public Regression(String name, Kind kind, Stats baseline, Stats current)
+        {
+            this.name = name;
+            this.kind = kind;
+            this.baseline = baseline;
+            this.current = current;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        public Stats getBaseline()
+        {
+            return baseline;
+        }
+
+        public Stats getCurrent()
+        {
+            return current;
+        }
+        
+        /**
+         * Obtains the ratio of the current value to the baseline value (the median time
+         * or the allocated memory depending on the regression kind).
+         * @return the ratio
+         */
+        public float getRatio()
+        {
+            if (kind == Kind.TIME)
+                return current.getP50() / baseline.getP50();
+            else
+                return (float) current.getAllocatedBytes() / baseline.getAllocatedBytes();
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%s: %s regression %.2fx (%s -> %s)",
+                    name, kind.name().toLowerCase(), getRatio(), baseline, current);
+        }
+    }
+    
+}
@@ -26,6 +26,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.concurrent.Callable;
@@ -39,7 +41,9 @@ import org.fit.cssbox.io.DOMSource;
 import org.fit.cssbox.io.DefaultDOMSource;
 import org.fit.cssbox.io.DefaultDocumentSource;
 import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.io.DocumentSourceNetworkProcessor;
 import org.fit.cssbox.layout.Dimension;
+import org.fit.cssbox.layout.Rectangle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -50,13 +54,15 @@ import org.xml.sax.SAXException;
 import cz.vutbr.web.css.MediaSpec;
 
 /**
- * A callable process that represents a single reference test.
+ * A callable process that represents a single reference test. The time spent in the individual
+ * test phases is recorded during every test execution.
  * 
  * @author burgetr
  */
 public class ReferenceTestCase implements Callable<Float>
 {
     private static Logger log = LoggerFactory.getLogger(ReferenceTestCase.class);
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
     
     private String name;
     private String urlstring;
@@ -65,6 +71,9 @@ public class ReferenceTestCase implements Callable<Float>
     
     private DocumentSource docSource;
     private DOMSource parser;
+    private TestTiming timing;
+    /** The time when the test execution has started or 0 when not started yet */
+    private volatile long startTime;
     
     //default rendering config
     private String mediaType = "screen";
@@ -112,6 +121,25 @@ public class ReferenceTestCase implements Callable<Float>
         return name;
     }
 
+    /**
+     * Obtains the time spent by the last test execution.
+     * @return the test timing or {@code null} when the test has not been executed yet
+     */
+    public TestTiming getTiming()
+    {
+        return timing;
+    }
+    
+    /**
+     * Obtains the time when the current or last test execution has started.
+     * @return the start time as obtained by {@link System#nanoTime()} or 0 when the test
+     * has not been started yet
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
     @Override
     public Float call() throws Exception
     {
@@ -125,20 +153,62 @@ public class ReferenceTestCase implements Callable<Float>
      * @throws SAXException
      */
     public float performTest() throws IOException, SAXException
+    {
+        final long start = System.nanoTime();
+        final long allocStart = getAllocatedBytes();
+        startTime = start;
+        timing = new TestTiming(name);
+        try
+        {
+            return runPhases();
+        }
+        finally
+        {
+            timing.setWallTime(System.nanoTime() - start);
+            if (allocStart >= 0)
+                timing.setAllocatedBytes(getAllocatedBytes() - allocStart);
+        }
+    }
+    
+    /**
+     * Obtains the total amount of memory allocated by the current thread when supported by the JVM.
+     * All the test phases including the resource loading and the image comparison run in the test
+     * thread so that the allocations of the whole test are measured.
+     * @return the allocated memory in bytes or -1 when not available
+     */
+    private static long getAllocatedBytes()
+    {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            final com.sun.management.ThreadMXBean tb = (com.sun.management.ThreadMXBean) threads;
+            if (tb.isThreadAllocatedMemorySupported() && tb.isThreadAllocatedMemoryEnabled())
+                return tb.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+    
+    private float runPhases() throws IOException, SAXException
     {
         log.debug("Loading test {}", urlstring);
+        long t = System.nanoTime();
         Document doc = loadDocument(urlstring);
         URL srcurl = docSource.getURL();
         URL refurl = extractReference(doc, docSource.getURL());
+        t = lap(TestTiming.Phase.LOAD, t);
         BufferedImage testImg = renderDocument(doc);
         closeDocument();
         
         log.debug("  -- reference result {}", refurl);
+        t = System.nanoTime();
         Document refDoc = loadDocument(refurl.toString());
+        t = lap(TestTiming.Phase.LOAD, t);
         BufferedImage refImg = renderDocument(refDoc);
         closeDocument();
         
-        ImageComparator ic = new ImageComparator(testImg, refImg);
+        t = System.nanoTime();
+        //compare in this thread so that the allocated memory is measured completely
+        ImageComparator ic = new ImageComparator(testImg, refImg, 0, 1.0f, false);
+        lap(TestTiming.Phase.COMPARE, t);
         log.debug(" -- error rate {}", ic.getErrorRate());
         if (saveImages && ic.getErrorRate() > 0.0f)
         {
@@ -170,8 +240,22 @@ public class ReferenceTestCase implements Callable<Float>
             docSource.close();
     }
     
+    /**
+     * Records the time spent in a phase.
+     * @param phase the finished phase
+     * @param start the phase start time
+     * @return the current time (the start time of the next phase)
+     */
+    private long lap(TestTiming.Phase phase, long start)
+    {
+        final long now = System.nanoTime();
+        timing.addTime(phase, now - start);
+        return now;
+    }
+    
     private BufferedImage renderDocument(Document doc)
     {
+        long t = System.nanoTime();
         //create the media specification
         MediaSpec media = new MediaSpec(mediaType);
         media.setDimensions(windowSize.width, windowSize.height);
@@ -184,7 +268,9 @@ public class ReferenceTestCase implements Callable<Float>
         da.addStyleSheet(null, CSSNorm.stdStyleSheet(), DOMAnalyzer.Origin.AGENT); //use the standard style sheet
         da.addStyleSheet(null, CSSNorm.userStyleSheet(), DOMAnalyzer.Origin.AGENT); //use the additional style sheet
         da.addStyleSheet(null, CSSNorm.formsStyleSheet(), DOMAnalyzer.Origin.AGENT); //render form fields using css
+        da.setNetworkProcessor(new DocumentSourceNetworkProcessor(DefaultDocumentSource::new)); //load them in this thread for measuring the allocated memory
         da.getStyleSheets(); //load the author style sheets
+        t = lap(TestTiming.Phase.STYLE, t);
         
         GraphicsEngine engine = new GraphicsEngine(da.getRoot(), da, docSource.getURL()) {
             @Override
@@ -201,8 +287,12 @@ public class ReferenceTestCase implements Callable<Float>
         engine.getConfig().setClipViewport(cropWindow);
         engine.getConfig().setLoadImages(loadImages);
         engine.getConfig().setLoadBackgroundImages(loadBackgroundImages);
+        engine.getConfig().setIOExecutor(null); //load the images in this thread for measuring the allocated memory
 
-        engine.createLayout(windowSize);
+        engine.createLayout(windowSize, new Rectangle(windowSize), false);
+        t = lap(TestTiming.Phase.LAYOUT, t);
+        engine.redrawBoxes();
+        lap(TestTiming.Phase.PAINT, t);
         return engine.getImage();
     }
     
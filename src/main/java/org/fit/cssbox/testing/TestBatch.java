@@ -25,6 +25,8 @@ import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,11 +34,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fit.cssbox.io.DefaultDOMSource;
 import org.fit.cssbox.io.DefaultDocumentSource;
@@ -49,15 +55,16 @@ import org.xml.sax.SAXException;
 
 /**
  * A batch of tests in a test folder. The tests are executed in separate threads with
- * a timeout.
+ * a timeout. Besides the test results, the time spent by the individual tests is recorded.
  * 
  * @author burgetr
  */
 public class TestBatch
 {
     private static Logger log = LoggerFactory.getLogger(TestBatch.class);
-    private static int DEFAULT_THREADS = 12;
-    private static int TASK_TIMEOUT = 30; //seconds
+    private static final int DEFAULT_THREADS = 12;
+    private static final int TASK_TIMEOUT = 30; //seconds
+    private static final int REPORTED_SLOWEST = 10; //number of the slowest tests reported in the log
     
     private static List<String> tagBlacklist;
     static {
@@ -70,6 +77,10 @@ public class TestBatch
     private int threadsUsed;
     private List<SourceEntry> tests;
     private Map<String, Float> results;
+    private Map<String, TestTiming> timings;
+    private Map<String, List<TestTiming>> samples;
+    private int repetitions;
+    private long batchTime;
     private int totalCount;
     private int completedCount;
     
@@ -97,9 +108,32 @@ public class TestBatch
         this.testURL = testURL;
         this.tests = new LinkedList<SourceEntry>();
         this.results = new LinkedHashMap<String, Float>();
+        this.timings = new LinkedHashMap<String, TestTiming>();
+        this.samples = new LinkedHashMap<String, List<TestTiming>>();
+        this.repetitions = 1;
         parseToc();
     }
     
+    /**
+     * Obtains the number of executions of every test by {@link #runTests(List)}.
+     * @return the number of repetitions
+     */
+    public int getRepetitions()
+    {
+        return repetitions;
+    }
+
+    /**
+     * Sets the number of executions of every test by {@link #runTests(List)}. The tests are
+     * executed repeatedly in order to obtain more reliable timing statistics
+     * (see {@link #getTimingSamples()}). The default is 1.
+     * @param repetitions the number of repetitions
+     */
+    public void setRepetitions(int repetitions)
+    {
+        this.repetitions = Math.max(1, repetitions);
+    }
+    
     /**
      * Obtain the number of tests available.
      * @return
@@ -195,11 +229,15 @@ public class TestBatch
         completedCount = 0;
         try
         {
+            final long start = System.nanoTime();
             List<Future<Float>> futures = exec.invokeAll(list, list.size() * 5, TimeUnit.SECONDS);
+            batchTime = System.nanoTime() - start;
             for (int i = 0; i < list.size(); i++)
             {
                 Future<Float> future = futures.get(i);
                 String tname = ((ReferenceTestCase) list.get(i)).getName();
+                if (!future.isCancelled())
+                    storeTiming((ReferenceTestCase) list.get(i));
                 float tvalue;
                 try
                 {
@@ -214,6 +252,8 @@ public class TestBatch
         } catch (InterruptedException e) {
             log.error("Interrupted: {}", e.getMessage());
         }
+        exec.shutdown();
+        logTimingSummary();
     }
 
     /**
@@ -227,72 +267,122 @@ public class TestBatch
     
     /**
      * Runs all the test from the TOC. The tests are executed as separate tasks
-     * passed to the executor service.
+     * passed to the executor service. All the tests are submitted at once and their results
+     * are collected as they finish. A test that runs longer than the time limit is cancelled
+     * and it is considered failed. When more repetitions are configured, the whole batch is
+     * executed repeatedly and the timings of all the executions are collected.
      * @param selected the list of selected test to be used or {@code null} to use all the
      * tests that are not blacklisted
      */
     public void runTests(List<String> selected)
     {
-        if (threadsUsed == 1)
-        {
-            log.info("Test sequence mode");
-            runTestsInSequence(selected);
-            return;
-        }
-        //ExecutorService exec = Executors.newSingleThreadExecutor();
-        ExecutorService exec = Executors.newFixedThreadPool(threadsUsed);
-        List<Callable<Float>> list = getTestList(selected);
-        List<Future<Float>> futures = new ArrayList<Future<Float>>(list.size());
-        totalCount = list.size();
-        completedCount = 0;
-        //exec all tests with time limit; collect the futures
-        for (int i = 0; i < list.size(); i++)
+        samples.clear();
+        for (int i = 0; i < repetitions; i++)
         {
-            try
+            if (repetitions > 1)
+                log.info("Test round {}/{}", i + 1, repetitions);
+            if (threadsUsed == 1)
             {
-                List<Future<Float>> fl = exec.invokeAll(list.subList(i, i + 1), TASK_TIMEOUT, TimeUnit.SECONDS);
-                futures.add(fl.get(0));
-            } catch (InterruptedException e) {
-                log.error("Test " + i + " interrupted: " + e.getMessage());
-                futures.add(null);
+                log.info("Test sequence mode");
+                runTestsInSequence(selected);
             }
+            else
+                runTestsParallel(selected);
         }
-        //get the results from the futures
-        for (int i = 0; i < futures.size(); i++)
+    }
+    
+    private void runTestsParallel(List<String> selected)
+    {
+        final ExecutorService exec = Executors.newFixedThreadPool(threadsUsed, new TestThreadFactory());
+        final CompletionService<Float> completion = new ExecutorCompletionService<Float>(exec);
+        final List<Callable<Float>> list = getTestList(selected);
+        final Map<Future<Float>, ReferenceTestCase> pending = new HashMap<Future<Float>, ReferenceTestCase>();
+        final Map<String, Float> finished = new HashMap<String, Float>();
+        totalCount = list.size();
+        completedCount = 0;
+        final long start = System.nanoTime();
+        //submit all the tests
+        for (Callable<Float> test : list)
+            pending.put(completion.submit(test), (ReferenceTestCase) test);
+        //collect the results as the tests finish; cancel the tests that exceed the time limit
+        try
         {
-            String tname = ((ReferenceTestCase) list.get(i)).getName();
-            float tvalue;
-            
-            Future<Float> future = futures.get(i);
-            if (future != null)
+            long lastCheck = start;
+            while (!pending.isEmpty())
             {
-                try
+                final Future<Float> future = completion.poll(1, TimeUnit.SECONDS);
+                if (future != null)
                 {
-                    tvalue = future.get();
-                } catch (ExecutionException e) {
-                    log.error(tname + " (" + i + "): " + e.getMessage());
-                    e.printStackTrace();
-                    tvalue = 1.0f;
-                } catch (CancellationException e) {
-                    log.error(tname + " (" + i + "): " + e.getMessage());
-                    e.printStackTrace();
-                    tvalue = 1.0f;
-                } catch (InterruptedException e) {
-                    log.error(tname + " (" + i + "): " + e.getMessage());
-                    e.printStackTrace();
-                    tvalue = 1.0f;
+                    final ReferenceTestCase test = pending.remove(future);
+                    finished.put(test.getName(), getResult(test, future));
+                    if (!future.isCancelled())
+                        storeTiming(test);
+                    reportCompletion(test);
+                }
+                final long now = System.nanoTime();
+                if (now - lastCheck >= TimeUnit.SECONDS.toNanos(1))
+                {
+                    cancelExpired(pending.entrySet(), now);
+                    lastCheck = now;
                 }
             }
-            else
-            {
-                log.error(tname + " (" + i + "): result not available");
-                tvalue = 1.0f;
-            }
-            
-            results.put(tname, tvalue);
+        } catch (InterruptedException e) {
+            log.error("Interrupted: {}", e.getMessage());
+            for (Future<Float> future : pending.keySet())
+                future.cancel(true);
+        }
+        batchTime = System.nanoTime() - start;
+        //all results should be stored, shutdown the threads (the cancelled tests may be still running)
+        exec.shutdownNow();
+        //store the results in the TOC order
+        for (Callable<Float> test : list)
+        {
+            final String tname = ((ReferenceTestCase) test).getName();
+            final Float tvalue = finished.get(tname);
+            if (tvalue == null)
+                log.error(tname + ": result not available");
+            results.put(tname, (tvalue == null) ? 1.0f : tvalue);
+        }
+        logTimingSummary();
+    }
+    
+    /**
+     * Obtains the result of a finished test.
+     * @param test the test
+     * @param future the finished future of the test
+     * @return the test result; 1.0 when the test failed or it has been cancelled
+     */
+    private float getResult(ReferenceTestCase test, Future<Float> future)
+    {
+        try
+        {
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error(test.getName() + ": " + e.getMessage());
+            e.printStackTrace();
+        } catch (CancellationException e) {
+            log.error(test.getName() + ": cancelled after " + TASK_TIMEOUT + "s time limit");
+        } catch (InterruptedException e) {
+            log.error(test.getName() + ": " + e.getMessage());
+        }
+        return 1.0f;
+    }
+    
+    /**
+     * Cancels the running tests that have exceeded the time limit. The tests waiting
+     * for execution are not affected.
+     * @param pending the pending tests
+     * @param now the current time
+     */
+    private void cancelExpired(Iterable<Map.Entry<Future<Float>, ReferenceTestCase>> pending, long now)
+    {
+        final long limit = TimeUnit.SECONDS.toNanos(TASK_TIMEOUT);
+        for (Map.Entry<Future<Float>, ReferenceTestCase> entry : pending)
+        {
+            final long start = entry.getValue().getStartTime();
+            if (start != 0 && now - start > limit)
+                entry.getKey().cancel(true); //the cancelled future will be obtained from the completion service
         }
-        //all results should be stored, shutdown the threads
-        exec.shutdown();
     }
     
     /**
@@ -305,6 +395,7 @@ public class TestBatch
         Runtime runtime = Runtime.getRuntime();
         long minFree = runtime.freeMemory();
         List<Callable<Float>> list = getTestList(selected);
+        final long start = System.nanoTime();
         for (int i = 0; i < list.size(); i++)
         {
             Callable<Float> test = list.get(i);
@@ -318,6 +409,7 @@ public class TestBatch
             } catch (Exception e) {
                 log.error(e.getMessage());
             }
+            storeTiming((ReferenceTestCase) test);
             long free = runtime.freeMemory();
             if (free < minFree) minFree = free;
             list.set(i, null); //do not hold the tests in memory
@@ -325,6 +417,8 @@ public class TestBatch
                 System.gc();
             System.out.println(" free:" + (free/1000) + " min:" + (minFree/1000));
         }
+        batchTime = System.nanoTime() - start;
+        logTimingSummary();
     }
     
     /**
@@ -389,6 +483,49 @@ public class TestBatch
         return results;
     }
     
+    /**
+     * Obtains the time spent by the individual tests that have been executed.
+     * @return a map of test names to the test timings
+     */
+    public Map<String, TestTiming> getTimings()
+    {
+        return timings;
+    }
+    
+    /**
+     * Obtains the timings of all the test executions since the last call of {@link #runTests(List)}.
+     * When the tests are executed repeatedly, there is one timing for every execution of the test.
+     * @return a map of test names to the lists of the test timings
+     */
+    public Map<String, List<TestTiming>> getTimingSamples()
+    {
+        return samples;
+    }
+    
+    /**
+     * Saves the performance statistics of the executed tests as a baseline file
+     * that may be later loaded using {@link PerformanceBaseline#PerformanceBaseline(java.io.InputStream)}.
+     * @param filename the destination file path
+     */
+    public void saveBaseline(String filename)
+    {
+        try
+        {
+            new PerformanceBaseline(samples).save(filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Obtains the total time of the last batch execution.
+     * @return the time in nanoseconds
+     */
+    public long getBatchTime()
+    {
+        return batchTime;
+    }
+    
     /**
      * Runs a test specified by its name when it is present in the testing batch.
      * @param name the test name
@@ -423,6 +560,72 @@ public class TestBatch
         }
     }
     
+    /**
+     * Saves the test timings of the last execution to a CSV file. Each line contains the test name,
+     * the wall time and the times of the individual phases in milliseconds and the allocated memory
+     * in bytes.
+     * @param filename the destination file path
+     */
+    public void saveTimings(String filename)
+    {
+        try
+        {
+            PrintWriter out = new PrintWriter(new FileWriter(filename));
+            out.print("name,wall");
+            for (TestTiming.Phase phase : TestTiming.Phase.values())
+                out.print("," + phase.name().toLowerCase());
+            out.println(",alloc");
+            for (TestTiming timing : timings.values())
+            {
+                out.print(timing.getName() + "," + toMillis(timing.getWallTime()));
+                for (TestTiming.Phase phase : TestTiming.Phase.values())
+                    out.print("," + toMillis(timing.getTime(phase)));
+                out.println("," + timing.getAllocatedBytes());
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private void storeTiming(ReferenceTestCase test)
+    {
+        final TestTiming timing = test.getTiming();
+        if (timing != null && timing.getWallTime() > 0)
+        {
+            timings.put(test.getName(), timing);
+            samples.computeIfAbsent(test.getName(), k -> new ArrayList<TestTiming>()).add(timing);
+        }
+    }
+    
+    /**
+     * Logs the total batch time, the total time spent in the individual phases and the slowest tests.
+     */
+    private void logTimingSummary()
+    {
+        long total = 0;
+        final long[] phases = new long[TestTiming.Phase.values().length];
+        for (TestTiming timing : timings.values())
+        {
+            total += timing.getWallTime();
+            for (TestTiming.Phase phase : TestTiming.Phase.values())
+                phases[phase.ordinal()] += timing.getTime(phase);
+        }
+        log.info("Executed {} tests in {} ms using {} threads (sum of the test times {} ms)",
+                timings.size(), toMillis(batchTime), threadsUsed, toMillis(total));
+        for (TestTiming.Phase phase : TestTiming.Phase.values())
+            log.info("  {}: {} ms", phase.name().toLowerCase(), toMillis(phases[phase.ordinal()]));
+        final List<TestTiming> slowest = new ArrayList<TestTiming>(timings.values());
+        slowest.sort(Comparator.comparingLong(TestTiming::getWallTime).reversed());
+        for (int i = 0; i < slowest.size() && i < REPORTED_SLOWEST; i++)
+            log.info("  slow: {}", slowest.get(i));
+    }
+    
+    private static long toMillis(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    
     public synchronized void reportCompletion(ReferenceTestCase testCase)
     {
         completedCount++;
@@ -430,6 +633,23 @@ public class TestBatch
             log.info("Completed " + completedCount + "/" + totalCount);
     }
     
+    /**
+     * Creates daemon threads for the tests so that the cancelled tests that are still running
+     * do not prevent the JVM from exiting.
+     */
+    private static class TestThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            final Thread ret = new Thread(r, "cssbox-test-" + count.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+    
     public class SourceEntry
     {
         public String name;
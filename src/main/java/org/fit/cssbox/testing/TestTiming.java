@@ -0,0 +1,137 @@
+/*
+ * TestTiming.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *  
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.testing;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The time spent by a single execution of a {@link ReferenceTestCase}. The phase times include
+ * both the test document and the reference document.
+ * 
+ * @author burgetr
+ */
+public class TestTiming
+{
+    /** The phases of a reference test */
+    public enum Phase
+    {
+        /** Obtaining and parsing the documents */
+        LOAD,
+        /** Loading and parsing the style sheets */
+        STYLE,
+        /** Creating the boxes and computing the layout (including the style computation) */
+        LAYOUT,
+        /** Drawing the pages */
+        PAINT,
+        /** Comparing the resulting images */
+        COMPARE
+    }
+    
+    private final String name;
+    private final Map<Phase, Long> times;
+    private long wallTime;
+    private long allocatedBytes;
+    
+    
+    public TestTiming(String name)
+    {
+        this.name = name;
+        this.times = new EnumMap<>(Phase.class);
+        this.allocatedBytes = -1;
+    }
+
+    /**
+     * Obtains the test name.
+     * @return the test name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Obtains the total time of the test execution including the operations that are not
+     * assigned to any phase.
+     * @return the time in nanoseconds
+     */
+    public long getWallTime()
+    {
+        return wallTime;
+    }
+
+    public void setWallTime(long wallTime)
+    {
+        this.wallTime = wallTime;
+    }
+
+    /**
+     * Obtains the amount of memory allocated by the thread that executed the test. The memory
+     * allocated by other threads is not included; therefore, {@link ReferenceTestCase} loads
+     * the resources and compares the images in the test thread.
+     * @return the allocated memory in bytes or -1 when the allocated memory could not be measured
+     */
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    public void setAllocatedBytes(long allocatedBytes)
+    {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Obtains the time spent in the given phase.
+     * @param phase the test phase
+     * @return the time in nanoseconds or 0 when the phase has not been executed
+     */
+    public long getTime(Phase phase)
+    {
+        final Long ret = times.get(phase);
+        return (ret == null) ? 0 : ret;
+    }
+
+    /**
+     * Obtains the times of all the phases that have been executed.
+     * @return a map of phases to the times in nanoseconds
+     */
+    public Map<Phase, Long> getTimes()
+    {
+        return Collections.unmodifiableMap(times);
+    }
+
+    public void addTime(Phase phase, long nanos)
+    {
+        times.merge(phase, nanos, Long::sum);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder ret = new StringBuilder("TestTiming[").append(name);
+        ret.append(", wall=").append(wallTime / 1000000).append("ms");
+        if (allocatedBytes >= 0)
+            ret.append(", alloc=").append(allocatedBytes / 1024).append("kB");
+        for (Map.Entry<Phase, Long> entry : times.entrySet())
+            ret.append(", ").append(entry.getKey().name().toLowerCase()).append("=").append(entry.getValue() / 1000000).append("ms");
+        return ret.append("]").toString();
+    }
+    
+}
@@ -0,0 +1,169 @@
+/*
+ * ConcurrentRenderingTest.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.fit.cssbox.awt.GraphicsEngine;
+import org.fit.cssbox.css.CSSNorm;
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DefaultDOMSource;
+import org.fit.cssbox.io.DefaultDocumentSource;
+import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.cssbox.layout.Dimension;
+import org.fit.cssbox.layout.UnlimitedImageCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Renders the same set of pages on multiple threads concurrently and checks that the results
+ * are identical to the single-threaded rendering.
+ *
+ * @author burgetr
+ */
+public class ConcurrentRenderingTest
+{
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+    private static final Dimension WINDOW = new Dimension(500, 400);
+
+    @Test
+    public void concurrentRenderingMatchesSequential() throws Exception
+    {
+        final List<String> pages = createPages();
+        final List<BufferedImage> reference = new ArrayList<>();
+        for (String page : pages)
+            reference.add(render(page));
+
+        final ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            final List<Future<BufferedImage>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS * ROUNDS; i++)
+            {
+                final String page = pages.get(i % pages.size());
+                results.add(exec.submit(() -> render(page)));
+            }
+            for (int i = 0; i < results.size(); i++)
+            {
+                final BufferedImage expected = reference.get(i % pages.size());
+                final BufferedImage result = results.get(i).get();
+                Assert.assertEquals("Page width", expected.getWidth(), result.getWidth());
+                Assert.assertEquals("Page height", expected.getHeight(), result.getHeight());
+                Assert.assertArrayEquals("Page " + (i % pages.size()) + " rendered differently",
+                        getPixels(expected), getPixels(result));
+            }
+        }
+        finally
+        {
+            exec.shutdownNow();
+        }
+    }
+
+    //=========================================================================
+
+    private BufferedImage render(String html) throws Exception
+    {
+        final String url = "data:text/html;charset=utf-8;base64,"
+                + Base64.getEncoder().encodeToString(html.getBytes(StandardCharsets.UTF_8));
+        try (DocumentSource docSource = new DefaultDocumentSource(url))
+        {
+            DOMSource parser = new DefaultDOMSource(docSource);
+            Document doc = parser.parse();
+
+            BrowserConfig config = new BrowserConfig();
+            config.setImageCache(new UnlimitedImageCache()); //shared by all the engines
+
+            DOMAnalyzer da = new DOMAnalyzer(doc, docSource.getURL());
+            da.setConfig(config);
+            da.attributesToStyles();
+            da.addStyleSheet(null, CSSNorm.stdStyleSheet(), DOMAnalyzer.Origin.AGENT);
+            da.addStyleSheet(null, CSSNorm.userStyleSheet(), DOMAnalyzer.Origin.AGENT);
+            da.getStyleSheets();
+
+            GraphicsEngine engine = new GraphicsEngine(da.getRoot(), da, docSource.getURL());
+            engine.setConfig(config);
+            engine.createLayout(WINDOW);
+            return engine.getImage();
+        }
+    }
+
+    private int[] getPixels(BufferedImage img)
+    {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    private List<String> createPages() throws IOException
+    {
+        final String img = createImageURL();
+        final List<String> pages = new ArrayList<>();
+        pages.add("<html><body style='font-family: serif'>"
+                + "<h1>Heading</h1><p>Some <b>bold</b>, <i>italic</i> and <code>monospace</code> text "
+                + "that is long enough to be split to several lines of the paragraph.</p>"
+                + "<ul><li>First item</li><li>Second item</li></ul>"
+                + "<ol style='list-style-type: upper-roman'><li>One</li><li>Two</li></ol>"
+                + "</body></html>");
+        pages.add("<html><body style='font-family: sans-serif'>"
+                + "<div style='float: left; width: 120px; height: 80px; background: #c00'>float</div>"
+                + "<p style='text-align: justify'>Text flowing around the floating box. Text flowing around "
+                + "the floating box. Text flowing around the floating box.</p>"
+                + "<table border='1'><tr><th>A</th><th>B</th></tr><tr><td>1</td><td>2</td></tr></table>"
+                + "<div style='position: absolute; top: 200px; left: 300px; border: 3px dashed blue; padding: 5px'>abs</div>"
+                + "</body></html>");
+        pages.add("<html><body>"
+                + "<img src='" + img + "' width='80' height='60'>"
+                + "<img src='" + img + "' style='width: 20px; height: 15px'>"
+                + "<div style='width: 300px; height: 100px; background-image: url(" + img + "); background-repeat: repeat-x'></div>"
+                + "<div style='width: 300px; height: 60px; background: linear-gradient(to right, red, yellow)'></div>"
+                + "<div style='width: 200px; height: 60px; transform: rotate(10deg); background: radial-gradient(circle, white, navy)'></div>"
+                + "</body></html>");
+        return pages;
+    }
+
+    private String createImageURL() throws IOException
+    {
+        final BufferedImage img = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.GREEN, 40, 30, Color.MAGENTA));
+        g.fillRect(0, 0, 40, 30);
+        g.setColor(Color.BLACK);
+        g.drawLine(0, 0, 39, 29);
+        g.dispose();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * DiskResourceCacheTest.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.fit.cssbox.io.CachingDocumentSource;
+import org.fit.cssbox.io.DiskResourceCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the persistent resource cache and its revalidation against a local HTTP server.
+ *
+ * @author burgetr
+ */
+public class DiskResourceCacheTest
+{
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 05 Oct 2020 10:00:00 GMT";
+    private static final String CONTENT = "p { color: green }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private URL base;
+    /** The request headers received by the server */
+    private final List<Headers> requests = new CopyOnWriteArrayList<>();
+    private DiskResourceCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fresh", exchange -> respond(exchange, "max-age=3600"));
+        server.createContext("/validated", exchange -> respond(exchange, "no-cache"));
+        server.start();
+        base = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+        cache = new DiskResourceCache(folder.getRoot().toPath(), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (server != null)
+            server.stop(0);
+    }
+
+    @Test
+    public void freshEntryIsServedWithoutRequest() throws IOException
+    {
+        final URL url = new URL(base, "fresh");
+        Assert.assertEquals(CONTENT, load(url));
+        Assert.assertEquals(CONTENT, load(url));
+        Assert.assertEquals("Requests sent", 1, requests.size());
+    }
+
+    @Test
+    public void revalidationUsesValidators() throws IOException
+    {
+        final URL url = new URL(base, "validated");
+        Assert.assertEquals(CONTENT, load(url));
+        Assert.assertEquals(CONTENT, load(url));
+        Assert.assertEquals("Requests sent", 2, requests.size());
+        Assert.assertNull(requests.get(0).getFirst("If-None-Match"));
+        Assert.assertEquals(ETAG, requests.get(1).getFirst("If-None-Match"));
+        Assert.assertEquals(LAST_MODIFIED, requests.get(1).getFirst("If-Modified-Since"));
+    }
+
+    @Test
+    public void staleEntryIsUsedWhenServerFails() throws IOException
+    {
+        final URL url = new URL(base, "validated");
+        Assert.assertEquals(CONTENT, load(url));
+        server.stop(0);
+        server = null;
+        Assert.assertEquals(CONTENT, load(url));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException
+    {
+        final DiskResourceCache small = new DiskResourceCache(folder.newFolder().toPath(), 250);
+        final URL url1 = new URL(base, "r1");
+        final URL url2 = new URL(base, "r2");
+        final URL url3 = new URL(base, "r3");
+        store(small, url1, 100);
+        store(small, url2, 100);
+        Assert.assertNotNull(small.lookup(url1)); //url2 is the least recently used now
+        store(small, url3, 100);
+        Assert.assertEquals("Entries", 2, small.getEntryCount());
+        Assert.assertEquals("Size", 200, small.getSize());
+        Assert.assertNotNull(small.lookup(url1));
+        Assert.assertNull(small.lookup(url2));
+        Assert.assertNotNull(small.lookup(url3));
+
+        //the index is restored from the directory
+        final DiskResourceCache reopened = new DiskResourceCache(small.getDirectory(), 250);
+        Assert.assertEquals("Entries", 2, reopened.getEntryCount());
+        Assert.assertNull(reopened.lookup(url2));
+    }
+
+    @Test
+    public void entriesShareTheMappedData() throws IOException
+    {
+        final URL url = new URL(base, "r1");
+        store(cache, url, 100);
+        final DiskResourceCache.Entry entry = cache.lookup(url);
+        Assert.assertSame(entry, cache.lookup(url));
+        Assert.assertEquals(100, entry.map().remaining());
+        cache.remove(url);
+        Assert.assertNull(cache.lookup(url));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    //=========================================================================
+
+    private String load(URL url) throws IOException
+    {
+        try (CachingDocumentSource src = new CachingDocumentSource(url, cache))
+        {
+            Assert.assertTrue("Served from cache", src.isCached());
+            try (InputStream is = src.getInputStream())
+            {
+                return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private void store(DiskResourceCache target, URL url, int size) throws IOException
+    {
+        target.store(url, url, "application/octet-stream", null, null, 0, new ByteArrayInputStream(new byte[size]));
+    }
+
+    private void respond(HttpExchange exchange, String cacheControl) throws IOException
+    {
+        requests.add(exchange.getRequestHeaders());
+        final Headers headers = exchange.getResponseHeaders();
+        headers.add("Content-Type", "text/css");
+        headers.add("Cache-Control", cacheControl);
+        headers.add("ETag", ETAG);
+        headers.add("Last-Modified", LAST_MODIFIED);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+        {
+            exchange.sendResponseHeaders(304, -1);
+        }
+        else
+        {
+            final byte[] data = CONTENT.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(data);
+            }
+        }
+        exchange.close();
+    }
+
+}
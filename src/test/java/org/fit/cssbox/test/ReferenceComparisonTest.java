@@ -22,8 +22,10 @@ package org.fit.cssbox.test;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import org.fit.cssbox.testing.PerformanceBaseline;
 import org.fit.cssbox.testing.ReferenceResults;
 import org.fit.cssbox.testing.TestBatch;
 import org.junit.Assert;
@@ -36,6 +38,7 @@ import org.junit.Test;
 public class ReferenceComparisonTest
 {
     private static final int THREADS = 1;
+    private static final int REPETITIONS = 5;
 
     @Test
     public void checkForRegressions() throws MalformedURLException
@@ -84,4 +87,51 @@ public class ReferenceComparisonTest
         Assert.assertTrue("All results passed", errorcnt == 0);
     }
     
+    @Test
+    public void checkForSlowdowns() throws MalformedURLException
+    {
+        ReferenceResults ref = new ReferenceResults();
+        PerformanceBaseline baseline = new PerformanceBaseline();
+        URL url = new URL("file://" + System.getProperty("user.home") + "/tmp/CSSBoxTesting/baseline/nightly-unstable/html4/");
+        TestBatch tester = new TestBatch(url, THREADS);
+        tester.setRepetitions(REPETITIONS);
+        
+        int errorcnt = 0;
+        if (tester.getTestCount() > 0)
+        {
+            ArrayList<String> refNames = new ArrayList<String>(); 
+            for (Map.Entry<String, Float> item : ref.entrySet())
+            {
+                if (item.getValue() <= ReferenceResults.SUCCESS_THRESHOLD)
+                    refNames.add(item.getKey());
+            }
+            
+            tester.runTests(refNames);
+            if (baseline.isEmpty())
+            {
+                //no baseline available yet, create a new one
+                System.err.println("No performance baseline found, saving the current results to target/test_performance.csv");
+                tester.saveBaseline("target/test_performance.csv");
+            }
+            else
+            {
+                PerformanceBaseline current = new PerformanceBaseline(tester.getTimingSamples());
+                List<PerformanceBaseline.Regression> regressions = baseline.findRegressions(current);
+                for (PerformanceBaseline.Regression regression : regressions)
+                    System.err.println(regression);
+                errorcnt += regressions.size();
+                System.err.println("Overall ratio p50: " + baseline.getOverallRatio(current)
+                        + " p95: " + baseline.getOverallTailRatio(current));
+                if (baseline.isOverallRegression(current))
+                {
+                    System.err.println("Overall slowdown found");
+                    errorcnt++;
+                }
+            }
+        }
+        else
+            System.err.println("No tests found, giving up testing.");
+        Assert.assertTrue("No performance regressions", errorcnt == 0);
+    }
+    
 }
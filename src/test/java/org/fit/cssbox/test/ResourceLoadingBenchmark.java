@@ -0,0 +1,236 @@
+/*
+ * ResourceLoadingBenchmark.java
+ * Copyright (c) 2005-2020 Radek Burget
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fit.cssbox.test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.fit.cssbox.awt.RenderRequest;
+import org.fit.cssbox.awt.RenderResult;
+import org.fit.cssbox.awt.RenderService;
+import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.cssbox.misc.IOExecutors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Renders a batch of pages served by a local HTTP server that delays every response and compares
+ * the sequential resource loading with the loading through the I/O executor. Each page links two
+ * style sheets and references several content and background images so that most of the rendering
+ * time is spent by waiting for the server.
+ * <p>
+ * Usage: {@code ResourceLoadingBenchmark [pages [latency_ms [parallelism]]]}; the defaults are
+ * 1000 pages, 50 ms and 8 concurrently rendered pages.
+ *
+ * @author burgetr
+ */
+public class ResourceLoadingBenchmark
+{
+    private static final int IMAGES_PER_PAGE = 6;
+
+    private final int latency;
+    private final ScheduledExecutorService delays;
+    private final byte[] imageData;
+    private ExecutorService serverThreads;
+    private HttpServer server;
+
+
+    public ResourceLoadingBenchmark(int latency) throws IOException
+    {
+        this.latency = latency;
+        this.delays = Executors.newScheduledThreadPool(2);
+        this.imageData = createImage();
+    }
+
+    public URL start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        serverThreads = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverThreads);
+        //the response is sent later by the scheduler so that the delayed requests do not occupy any threads
+        server.createContext("/", exchange -> delays.schedule(() -> respond(exchange), latency, TimeUnit.MILLISECONDS));
+        server.start();
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        delays.shutdownNow();
+    }
+
+    /**
+     * Renders the given number of pages and prints the statistics.
+     */
+    public void run(URL base, String name, int pages, int parallelism, boolean useExecutor) throws Exception
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long start = System.nanoTime();
+        final long[] phaseTimes = new long[RenderResult.Phase.values().length];
+        try (RenderService service = new RenderService(parallelism) {
+            @Override
+            protected BrowserConfig createConfig()
+            {
+                final BrowserConfig config = super.createConfig();
+                if (!useExecutor)
+                    config.setIOExecutor(null);
+                return config;
+            }
+        })
+        {
+            final List<CompletableFuture<RenderResult>> results = new ArrayList<>();
+            for (int i = 0; i < pages; i++)
+            {
+                final RenderRequest req = new RenderRequest(new URL(base, "page/" + name + "-" + i + ".html"));
+                req.setViewport(800, 600);
+                results.add(service.submit(req));
+            }
+            for (CompletableFuture<RenderResult> result : results)
+            {
+                for (RenderResult.Phase phase : RenderResult.Phase.values())
+                    phaseTimes[phase.ordinal()] += result.get().getTime(phase);
+            }
+        }
+        final long time = System.nanoTime() - start;
+        System.out.printf("%-10s %6d pages %8.1f s %8.1f pages/s   peak platform threads %d%n",
+                name, pages, time / 1e9, pages / (time / 1e9), threads.getPeakThreadCount());
+        for (RenderResult.Phase phase : RenderResult.Phase.values())
+        {
+            if (phaseTimes[phase.ordinal()] > 0)
+                System.out.printf("           %-8s %8.1f ms/page%n", phase.name().toLowerCase(), phaseTimes[phase.ordinal()] / 1e6 / pages);
+        }
+    }
+
+    //=========================================================================
+
+    private void respond(HttpExchange exchange)
+    {
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            final String path = exchange.getRequestURI().getPath();
+            final String id = path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+            final byte[] data;
+            final String type;
+            if (path.startsWith("/page/"))
+            {
+                type = "text/html; charset=utf-8";
+                data = createPage(id).getBytes(StandardCharsets.UTF_8);
+            }
+            else if (path.startsWith("/css/"))
+            {
+                type = "text/css";
+                data = createStyleSheet(id).getBytes(StandardCharsets.UTF_8);
+            }
+            else
+            {
+                type = "image/png";
+                data = imageData;
+            }
+            exchange.getResponseHeaders().set("Content-Type", type);
+            exchange.sendResponseHeaders(200, data.length);
+            out.write(data);
+        } catch (IOException e) {
+            System.err.println("Response failed: " + e.getMessage());
+        }
+    }
+
+    private String createPage(String id)
+    {
+        final StringBuilder ret = new StringBuilder();
+        ret.append("<html><head><title>Page ").append(id).append("</title>");
+        ret.append("<link rel='stylesheet' href='../css/").append(id).append("-a.css'>");
+        ret.append("<link rel='stylesheet' href='../css/").append(id).append("-b.css'>");
+        ret.append("</head><body><h1>Page ").append(id).append("</h1><div class='banner'>Banner</div>");
+        for (int i = 0; i < IMAGES_PER_PAGE; i++)
+        {
+            ret.append("<p>Paragraph ").append(i).append(" with an image ");
+            ret.append("<img src='../img/").append(id).append("-").append(i).append(".png' width='32' height='32'>");
+            ret.append(" and some text that follows the image.</p>");
+        }
+        return ret.append("</body></html>").toString();
+    }
+
+    private String createStyleSheet(String id)
+    {
+        if (id.endsWith("-a"))
+            return "body { font-family: sans-serif; margin: 20px; } h1 { color: navy; border-bottom: 1px solid gray; }";
+        else
+            return ".banner { height: 40px; background: url(../img/" + id + "-bg.png) repeat-x; } p { line-height: 1.5; }";
+    }
+
+    private static byte[] createImage() throws IOException
+    {
+        final BufferedImage img = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = img.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(0, 0, 32, 32);
+        g.setColor(Color.BLUE);
+        g.drawOval(4, 4, 24, 24);
+        g.dispose();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    //=========================================================================
+
+    public static void main(String[] args) throws Exception
+    {
+        final int pages = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        final int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        final int parallelism = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        System.out.println("Latency " + latency + " ms, " + parallelism + " concurrent pages, virtual threads "
+                + (IOExecutors.isVirtualThreadsAvailable() ? "available" : "not available"));
+
+        final ResourceLoadingBenchmark bench = new ResourceLoadingBenchmark(latency);
+        final URL base = bench.start();
+        try
+        {
+            bench.run(base, "warmup", Math.min(pages, 50), parallelism, true);
+            bench.run(base, "sequential", pages, parallelism, false);
+            bench.run(base, "executor", pages, parallelism, true);
+        }
+        finally
+        {
+            bench.stop();
+        }
+    }
+
+}